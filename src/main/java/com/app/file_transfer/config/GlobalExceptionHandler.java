@@ -1,17 +1,21 @@
 package com.app.file_transfer.config;
 
+import com.app.file_transfer.services.IoSchedulingService;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.async.AsyncRequestNotUsableException;
 import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.server.ResponseStatusException;
 
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @ControllerAdvice
 public class GlobalExceptionHandler {
@@ -80,6 +84,42 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
     }
 
+    /**
+     * Handle RejectedExecutionException - work refused because the server or the user is at capacity
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Map<String, String>> handleRejectedExecution(
+            RejectedExecutionException ex, HttpServletRequest request) {
+
+        // A user over their own share is told to slow down; everything else means the server is busy
+        boolean perUser = ex instanceof IoSchedulingService.SaturatedException
+                && ((IoSchedulingService.SaturatedException) ex).isPerUser();
+        HttpStatus status = perUser ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+        System.out.println("Refused " + request.getRequestURI() + ": " + ex.getMessage());
+
+        Map<String, String> error = new HashMap<>();
+        error.put("error", perUser ? "Too many requests" : "Server busy");
+        error.put("message", ex.getMessage() != null ? ex.getMessage() : "Please try again shortly");
+
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(IoSchedulingService.RETRY_AFTER_SECONDS))
+                .body(error);
+    }
+
+    /**
+     * Handle ResponseStatusException - keep the status the controller chose
+     */
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<Map<String, String>> handleResponseStatus(
+            ResponseStatusException ex, HttpServletRequest request) {
+
+        Map<String, String> error = new HashMap<>();
+        error.put("error", ex.getStatusCode().toString());
+        error.put("message", ex.getReason() != null ? ex.getReason() : "");
+
+        return ResponseEntity.status(ex.getStatusCode()).headers(ex.getHeaders()).body(error);
+    }
+
     /**
      * Handle general exceptions during file operations
      */
@@ -2,6 +2,7 @@ package com.app.file_transfer.config;
 
 import com.app.file_transfer.model.User;
 import com.app.file_transfer.repository.UserRepository;
+import com.app.file_transfer.services.SignedUrlService;
 
 import lombok.AllArgsConstructor;
 
@@ -10,6 +11,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -71,7 +73,13 @@ public class SecurityConfig {
         return http.build();
     }
 
-    
+    // Signed URLs carry their own authorization; skipping the filter chain avoids loading the
+    // session and remember-me logins on every range request
+    @Bean
+    public WebSecurityCustomizer signedUrlsCustomizer() {
+        return web -> web.ignoring().requestMatchers(SignedUrlService.URL_PREFIX + "**");
+    }
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
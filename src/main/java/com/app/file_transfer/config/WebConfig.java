@@ -1,15 +1,72 @@
 package com.app.file_transfer.config;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
+
+    // Same switch as Tomcat's request threads, so both become virtual together
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${file-storage.streaming.max-threads:200}")
+    private int streamingThreads;
+
+    private ExecutorService streamingExecutor;
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry
             .addResourceHandler("/uploads/**")
             .addResourceLocations("file:uploads/");
     }
+
+    // Streaming bodies (downloads, video, ZIPs) are written here rather than on Tomcat's threads, so slow
+    // clients cannot starve the pages and API calls. Virtual threads cost nothing while blocked on a slow
+    // socket, so there is no limit; platform threads get a pool of their own.
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        streamingExecutor = streamingExecutor(virtualThreads, streamingThreads);
+        configurer.setTaskExecutor(new TaskExecutorAdapter(streamingExecutor));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (streamingExecutor != null) {
+            streamingExecutor.shutdownNow();
+        }
+    }
+
+    static ExecutorService streamingExecutor(boolean virtualThreads, int threads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("streaming-", 1).factory());
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "streaming-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
@@ -7,42 +7,49 @@ import com.app.file_transfer.model.User;
 import com.app.file_transfer.repository.FileRepository;
 import com.app.file_transfer.repository.FolderRepository;
 import com.app.file_transfer.repository.UserRepository;
+import com.app.file_transfer.services.ArchivePreviewService;
+import com.app.file_transfer.services.BandwidthService;
 import com.app.file_transfer.services.FileService;
 import com.app.file_transfer.services.FileStorageService;
 import com.app.file_transfer.services.FolderService;
+import com.app.file_transfer.services.IoSchedulingService;
+import com.app.file_transfer.services.ListingService;
 import com.app.file_transfer.services.PreviewService;
+import com.app.file_transfer.services.RangeRequestService;
+import com.app.file_transfer.services.SignedUrlService;
 import com.app.file_transfer.services.StorageUsageService;
-import org.springframework.core.io.support.ResourceRegion;
+import com.app.file_transfer.services.TextPreviewService;
+import com.app.file_transfer.services.UserCacheService;
+import com.app.file_transfer.services.VideoIndexService;
+import com.app.file_transfer.services.ZipStreamingService;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-import org.springframework.core.io.UrlResource;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
 
 
 @Controller
@@ -55,6 +62,9 @@ public class FileController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserCacheService userCacheService;
+
     @Autowired
     private FileRepository fileRepository;
     @Autowired
@@ -75,6 +85,30 @@ public class FileController {
     @Autowired
     private PreviewService previewService;
 
+    @Autowired
+    private ZipStreamingService zipStreamingService;
+
+    @Autowired
+    private RangeRequestService rangeRequestService;
+
+    @Autowired
+    private ListingService listingService;
+
+    @Autowired
+    private VideoIndexService videoIndexService;
+
+    @Autowired
+    private SignedUrlService signedUrlService;
+
+    @Autowired
+    private BandwidthService bandwidthService;
+
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // Response header carrying the cursor of the next page of an infinite-scroll listing
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
 
     @GetMapping("/upload")
     public String showUploadForm(Model model) {
@@ -88,13 +122,13 @@ public class FileController {
                                    @AuthenticationPrincipal UserDetails currentUser,
                                    RedirectAttributes redirectAttributes) {
 
-        User uploader = userRepository.findByUsername(currentUser.getUsername());
+        User uploader = userCacheService.getUser(currentUser.getUsername());
         Folder parentFolder = null;
 
         if (folderId != null) {
             parentFolder = folderRepository.findById(folderId)
                     .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Folder not found"));
-            if (!parentFolder.getUser().equals(uploader)) {
+            if (!parentFolder.getUser().getId().equals(uploader.getId())) {
                 throw new SecurityException("User does not have permission to upload to this folder.");
             }
         }
@@ -106,28 +140,21 @@ public class FileController {
                 continue;
             }
 
-            // Check storage limit before uploading
-            if (!storageUsageService.canUploadFile(currentUser.getUsername(), file.getSize())) {
+            // Reserve space before uploading so parallel uploads cannot exceed the storage limit together
+            StorageUsageService.Reservation reservation = storageUsageService.reserve(currentUser.getUsername(), file.getSize());
+            if (reservation == null) {
                 redirectAttributes.addFlashAttribute("error",
                     "Cannot upload " + file.getOriginalFilename() + ". Storage limit exceeded. " +
                     "Remaining space: " + storageUsageService.formatBytes(storageUsageService.getRemainingStorage(currentUser.getUsername())));
                 return "redirect:/files/dashboard" + (folderId != null ? "?folderId=" + folderId : "");
             }
 
-            String fileName = fileStorageService.storeFile(file);
-
-            File newFile = new File();
-            newFile.setFileName(fileName);
-            newFile.setFileType(file.getContentType());
-            newFile.setFileSize(file.getSize());
-            newFile.setFilePath("uploads/" + fileName);
-            newFile.setUploader(uploader);
-
-            if (parentFolder != null) {
-                newFile.setFolder(parentFolder);
+            try {
+                fileService.storeUploadedFile(file, uploader, parentFolder);
+                storageUsageService.commit(reservation);
+            } finally {
+                storageUsageService.release(reservation);
             }
-
-            fileRepository.save(newFile);
             successCount++;
         }
 
@@ -140,36 +167,44 @@ public class FileController {
         return "redirect:/files/dashboard" + (folderId != null ? "?folderId=" + folderId : "");
     }
 
+    // Large bodies are returned for Spring MVC to write on the streaming executor, freeing the request thread
     @GetMapping("/download/{fileId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long fileId, @AuthenticationPrincipal UserDetails currentUser) {
-        User user = userRepository.findByUsername(currentUser.getUsername());
+    public StreamingResponseBody downloadFile(@PathVariable Long fileId,
+                             @AuthenticationPrincipal UserDetails currentUser,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        User user = userCacheService.getUser(currentUser.getUsername());
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new RuntimeException("File not found"));
 
-        if (!file.getRecipients().contains(user) && !file.getUploader().equals(user)) {
+        if (!fileService.canAccess(file, user)) {
             throw new RuntimeException("You are not authorized to download this file.");
         }
 
-        Resource resource = fileStorageService.loadFileAsResource(file.getFileName());
-
-        // Set Content-Disposition header with encoded filename
-        String encodedFileName = PreviewService.encodeFilenameForHeader(file.getFileName());
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedFileName)
-                .body(resource);
+        // Admitted before any header is set, so a busy server answers with a plain 503 or 429
+        return ioSchedulingService.stream(IoSchedulingService.IoClass.STREAMING, currentUser.getUsername(), () -> {
+            // Set Content-Disposition header with encoded filename
+            String encodedFileName = PreviewService.encodeFilenameForHeader(file.getFileName());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedFileName);
+
+            // Range support lets browsers and download managers resume interrupted downloads
+            bandwidthService.tag(request, currentUser.getUsername(), BandwidthService.Priority.BULK);
+            return rangeRequestService.serveAsync(request, response, fileStorageService.getFilePath(file),
+                    fileStorageService.getMediaTypeForFileName(file.getFileName()),
+                    fileStorageService.getContentEtag(fileStorageService.getContentKey(file)));
+        });
     }
 
 
     @GetMapping("/send/{fileId}")
     public String showSendFileForm(@PathVariable Long fileId, Model model ,
                                    @AuthenticationPrincipal UserDetails currentUser) {
-        User user= userRepository.findByUsername(currentUser.getUsername());
+        User user= userCacheService.getUser(currentUser.getUsername());
         File file = fileRepository.findById(fileId).orElseThrow(() -> new RuntimeException("File not found"));
-        if (!file.getUploader().equals(user)){
+        if (!file.getUploader().getId().equals(user.getId())){
             return "404";
         }
         model.addAttribute("file", file);
-        model.addAttribute("users", userRepository.findAll());
         return "sendFile";  // Returns the Thymeleaf template for sending files
     }
 
@@ -180,14 +215,14 @@ public class FileController {
                            RedirectAttributes redirectAttributes,
                            @AuthenticationPrincipal UserDetails currentUser) {
         // Fetch the current logged-in user
-        User user = userRepository.findByUsername(currentUser.getUsername());
+        User user = userCacheService.getUser(currentUser.getUsername());
 
         // Fetch the file and check ownership
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
 
         // Check if the current user is the owner of the file
-        if (!file.getUploader().equals(user)) {
+        if (!file.getUploader().getId().equals(user.getId())) {
             // If the user is not the owner, throw a 404 exception
             return "404";
         }
@@ -197,12 +232,7 @@ public class FileController {
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
 
         // Add the file to the recipient's received files list and vice versa
-        file.getRecipients().add(recipient);
-        recipient.getReceivedFiles().add(file);
-
-        // Save the updated user and file to the database
-        userRepository.save(recipient);
-        fileRepository.save(file);
+        fileService.shareFile(fileId, List.of(recipient.getUsername()), currentUser.getUsername());
 
         // Add a success message to the redirect attributes
         redirectAttributes.addFlashAttribute("message", "File sent successfully to " + recipient.getUsername());
@@ -259,47 +289,126 @@ public class FileController {
                                 @AuthenticationPrincipal UserDetails currentUser,
                                 HttpSession session) {
         String username = currentUser.getUsername();
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
         Folder currentFolder = null;
 
         if (folderId != null) {
             currentFolder = folderRepository.findById(folderId)
                     .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Folder not found"));
-            if (!currentFolder.getUser().equals(user)) {
+            if (!currentFolder.getUser().getId().equals(user.getId())) {
                 throw new SecurityException("User does not have permission to access this folder.");
             }
 
             // Check if folder is password protected
-            if (currentFolder.getPassword() != null && !currentFolder.getPassword().isEmpty()) {
-                // Check if user has already entered the correct password
-                String unlockStatus = (String) session.getAttribute("folder_" + folderId + "_unlocked");
-
-                if (!"true".equals(unlockStatus)) {
-                    // User hasn't entered password yet, show password form
-                    model.addAttribute("passwordProtectedFolder", currentFolder);
-                    model.addAttribute("parentFolder", currentFolder.getParent());
-                    return "folder_password";
-                }
+            if (!isFolderUnlocked(currentFolder, session)) {
+                // User hasn't entered password yet, show password form
+                model.addAttribute("passwordProtectedFolder", currentFolder);
+                model.addAttribute("parentFolder", currentFolder.getParent());
+                return "folder_password";
             }
         }
 
-        List<Folder> subFolders = folderService.getSubFolders(folderId, username);
-        List<File> files = (currentFolder == null)
-                ? fileRepository.findByUploaderAndFolderIsNull(user)
-                : fileRepository.findByUploaderAndFolder(user, currentFolder);
+        // Only the first page of each listing is rendered; the rest is loaded while scrolling
+        ListingService.CursorPage<Folder> subFolders = listingService.getSubFolders(user, currentFolder, null);
+        ListingService.CursorPage<File> files = listingService.getFolderFiles(user, currentFolder, null);
 
-        // Get all folders for move modal
-        List<Folder> allFolders = folderRepository.findByUser(user);
+        // First page of folders for move modal
+        ListingService.CursorPage<Folder> allFolders = listingService.getAllFolders(user, null);
 
         model.addAttribute("currentFolder", currentFolder);
-        model.addAttribute("subFolders", subFolders);
-        model.addAttribute("files", files);
-        model.addAttribute("allFolders", allFolders);
-        model.addAttribute("users", userRepository.findAll()); // For share modal
+        model.addAttribute("subFolders", subFolders.getItems());
+        model.addAttribute("folderItemCounts", listingService.countFolderItems(subFolders.getItems()));
+        model.addAttribute("nextFolderCursor", subFolders.getNextCursor());
+        model.addAttribute("files", files.getItems());
+        model.addAttribute("nextFileCursor", files.getNextCursor());
+        model.addAttribute("allFolders", allFolders.getItems());
+        model.addAttribute("nextMoveFolderCursor", allFolders.getNextCursor());
 
         return "dashboard";
     }
+
+    // Next page of files in a dashboard folder, rendered as HTML rows
+    @GetMapping("/dashboard/files")
+    public String dashboardFilesPage(@RequestParam(value = "folderId", required = false) Long folderId,
+                                     @RequestParam("cursor") String cursor,
+                                     Model model,
+                                     @AuthenticationPrincipal UserDetails currentUser,
+                                     HttpSession session,
+                                     HttpServletResponse response) throws IOException {
+        User user = userCacheService.getUser(currentUser.getUsername());
+        Folder folder = findListableFolder(folderId, user, session);
+        if (folderId != null && folder == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        ListingService.CursorPage<File> page = listingService.getFolderFiles(user, folder, cursor);
+        setNextCursor(response, page);
+        model.addAttribute("files", page.getItems());
+        return "Fragments/pages :: dashboardFiles";
+    }
+
+    // Next page of subfolders in a dashboard folder, rendered as HTML cards
+    @GetMapping("/dashboard/folders")
+    public String dashboardFoldersPage(@RequestParam(value = "folderId", required = false) Long folderId,
+                                       @RequestParam("cursor") String cursor,
+                                       Model model,
+                                       @AuthenticationPrincipal UserDetails currentUser,
+                                       HttpSession session,
+                                       HttpServletResponse response) throws IOException {
+        User user = userCacheService.getUser(currentUser.getUsername());
+        Folder folder = findListableFolder(folderId, user, session);
+        if (folderId != null && folder == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        ListingService.CursorPage<Folder> page = listingService.getSubFolders(user, folder, cursor);
+        setNextCursor(response, page);
+        model.addAttribute("subFolders", page.getItems());
+        model.addAttribute("folderItemCounts", listingService.countFolderItems(page.getItems()));
+        return "Fragments/pages :: dashboardFolders";
+    }
+
+    // Next page of move targets for the move modal
+    @GetMapping("/dashboard/move-targets")
+    public String dashboardMoveTargetsPage(@RequestParam("cursor") String cursor,
+                                           Model model,
+                                           @AuthenticationPrincipal UserDetails currentUser,
+                                           HttpServletResponse response) {
+        User user = userCacheService.getUser(currentUser.getUsername());
+        ListingService.CursorPage<Folder> page = listingService.getAllFolders(user, cursor);
+        setNextCursor(response, page);
+        model.addAttribute("allFolders", page.getItems());
+        return "Fragments/pages :: dashboardMoveTargets";
+    }
+
+    // A folder the user owns and has unlocked, or null (also for the root)
+    private Folder findListableFolder(Long folderId, User user, HttpSession session) {
+        if (folderId == null) {
+            return null;
+        }
+        Folder folder = folderRepository.findById(folderId).orElse(null);
+        if (folder == null || !folder.getUser().getId().equals(user.getId()) || !isFolderUnlocked(folder, session)) {
+            return null;
+        }
+        return folder;
+    }
+
+    private boolean isFolderUnlocked(Folder folder, HttpSession session) {
+        if (folder.getPassword() == null || folder.getPassword().isEmpty()) {
+            return true;
+        }
+        // Check if user has already entered the correct password
+        return "true".equals(session.getAttribute("folder_" + folder.getId() + "_unlocked"));
+    }
+
+    private void setNextCursor(HttpServletResponse response, ListingService.CursorPage<?> page) {
+        if (page.hasNext()) {
+            response.setHeader(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+    }
     @PostMapping("/folders/create")
     public String createFolder(@RequestParam String folderName,
                                @RequestParam(value = "parentId", required = false) Long parentId,
@@ -356,21 +465,56 @@ public class FileController {
     }
     @GetMapping("/list")
     public String listAllFile(@AuthenticationPrincipal UserDetails user, Model model){
-        List<File> uploadedFiles = fileService.getFilesUploadedByUser(user.getUsername());
+        User currentUser = userCacheService.getUser(user.getUsername());
 
-        List<File> receivedFiles = fileService.getFilesReceivedByUser(user.getUsername());
+        // First page of each list; totals come from counters instead of loading every file
+        ListingService.CursorPage<File> uploadedFiles = listingService.getUploadedFiles(currentUser, null);
+        ListingService.CursorPage<File> receivedFiles = listingService.getReceivedFiles(currentUser, null);
+        long uploadedCount = storageUsageService.getStorageUsageStats(user.getUsername()).getTotalFiles();
+        long receivedCount = fileRepository.countByRecipientsContains(currentUser);
 
-        model.addAttribute("uploadedFiles",uploadedFiles );
+        model.addAttribute("uploadedFiles", uploadedFiles.getItems());
+        model.addAttribute("nextUploadedCursor", uploadedFiles.getNextCursor());
+        model.addAttribute("uploadedCount", uploadedCount);
 
-        model.addAttribute("receivedFiles",receivedFiles );
+        model.addAttribute("receivedFiles", receivedFiles.getItems());
+        model.addAttribute("nextReceivedCursor", receivedFiles.getNextCursor());
+        model.addAttribute("receivedCount", receivedCount);
 
         return "fileList";
     }
 
+    // Next page of uploaded files for the file list
+    @GetMapping("/list/uploaded")
+    public String listUploadedPage(@RequestParam("cursor") String cursor,
+                                   @AuthenticationPrincipal UserDetails user,
+                                   Model model,
+                                   HttpServletResponse response) {
+        User currentUser = userCacheService.getUser(user.getUsername());
+        ListingService.CursorPage<File> page = listingService.getUploadedFiles(currentUser, cursor);
+        setNextCursor(response, page);
+        model.addAttribute("uploadedFiles", page.getItems());
+        return "Fragments/pages :: uploadedFiles";
+    }
+
+    // Next page of received files for the file list
+    @GetMapping("/list/received")
+    public String listReceivedPage(@RequestParam("cursor") String cursor,
+                                   @AuthenticationPrincipal UserDetails user,
+                                   Model model,
+                                   HttpServletResponse response) {
+        User currentUser = userCacheService.getUser(user.getUsername());
+        ListingService.CursorPage<File> page = listingService.getReceivedFiles(currentUser, cursor);
+        setNextCursor(response, page);
+        model.addAttribute("receivedFiles", page.getItems());
+        return "Fragments/pages :: receivedFiles";
+    }
+
     @PostMapping("/download-multiple")
-    public ResponseEntity<Resource> downloadMultipleFiles(@RequestParam("fileIds") List<Long> id,
-                                                         @AuthenticationPrincipal UserDetails currentUser) throws IOException {
-        User user = userRepository.findByUsername(currentUser.getUsername());
+    public ResponseEntity<StreamingResponseBody> downloadMultipleFiles(@RequestParam("fileIds") List<Long> id,
+                                                                       @AuthenticationPrincipal UserDetails currentUser,
+                                                                       HttpServletRequest request) {
+        User user = userCacheService.getUser(currentUser.getUsername());
 
         if (id == null || id.isEmpty()) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No files selected for download");
@@ -383,39 +527,39 @@ public class FileController {
                     .build();
         }
 
-        // Create a temporary zip file
-        Path tempFile = Files.createTempFile("download_", ".zip");
-
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(tempFile.toFile()))) {
-            for (Long fileId : id) {
-                File file = fileRepository.findById(fileId)
-                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found: " + fileId));
-
-                // Check if user has permission to download this file
-                if (!file.getRecipients().contains(user) && !file.getUploader().equals(user)) {
-                    continue; // Skip files the user doesn't have permission to download
-                }
+        // Resolve every entry before the response starts, so permission and lookup errors
+        // still produce a proper status instead of a truncated archive
+        List<ZipStreamingService.ZipSource> sources = new ArrayList<>();
+        for (Long fileId : id) {
+            File file = fileRepository.findById(fileId)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found: " + fileId));
 
-                Resource resource = fileStorageService.loadFileAsResource(file.getFileName());
+            // Check if user has permission to download this file
+            if (!fileService.canAccess(file, user)) {
+                continue; // Skip files the user doesn't have permission to download
+            }
 
-                // Add file to zip
-                ZipEntry zipEntry = new ZipEntry(file.getFileName());
-                zipOut.putNextEntry(zipEntry);
+            sources.add(new ZipStreamingService.ZipSource(file.getFileName(), fileStorageService.getFilePath(file)));
+        }
 
-                byte[] bytes = Files.readAllBytes(resource.getFile().toPath());
-                zipOut.write(bytes, 0, bytes.length);
-                zipOut.closeEntry();
-            }
+        // Stream the archive straight into the response
+        StreamingResponseBody shaped = bandwidthService.shape(currentUser.getUsername(), BandwidthService.Priority.BULK,
+                outputStream -> zipStreamingService.writeZip(sources, outputStream));
+        // Only so many archives are built at once; the rest are told to come back later
+        StreamingResponseBody body;
+        try {
+            body = ioSchedulingService.stream(IoSchedulingService.IoClass.BULK, currentUser.getUsername(), () -> shaped);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not start the archive");
         }
 
-        // Create a resource from the zip file
-        Resource zipResource = new UrlResource(tempFile.toUri());
+        // An archive can take longer than spring.mvc.async.request-timeout, so this request alone has no timeout
+        WebAsyncUtils.getAsyncManager(request).getAsyncWebRequest().setTimeout(-1L);
 
-        // Set up the response
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"")
                 .header(HttpHeaders.CONTENT_TYPE, "application/zip")
-                .body(zipResource);
+                .body(body);
     }
 
     @PostMapping("/folders/password")
@@ -500,15 +644,9 @@ public class FileController {
             // Store folder ID for redirection
             Long folderId = file.getFolder() != null ? file.getFolder().getId() : null;
 
-            // Get file name for physical deletion
-            String fileName = file.getFileName();
-
-            // Delete file from database
+            // Delete file from database; the stored content is released once nothing references it
             fileService.deleteFile(id, currentUser.getUsername());
 
-            // Delete physical file
-            fileStorageService.deleteFile(fileName);
-
             redirectAttributes.addFlashAttribute("message", "File deleted successfully.");
             return "redirect:/files/dashboard" + (folderId != null ? "?folderId=" + folderId : "");
             //  return "redirect:/files/dashboard";
@@ -575,11 +713,156 @@ public class FileController {
         }
     }
 
-    // Preview a file
+    // Preview a file; images can be resized to a width (pixels) and JPEG quality (percent).
+    // Large bodies are written on the streaming executor, like downloads
     @GetMapping("/preview/{fileId}")
-    public ResponseEntity<Resource> previewFile(@PathVariable Long fileId,
+    public StreamingResponseBody previewFile(@PathVariable Long fileId,
+                                             @RequestParam(value = "width", required = false) Integer width,
+                                             @RequestParam(value = "quality", required = false) Integer quality,
+                                             @AuthenticationPrincipal UserDetails currentUser,
+                                             HttpServletRequest request,
+                                             HttpServletResponse response) throws IOException {
+        return previewService.generatePreviewResponse(fileId, width, quality, currentUser.getUsername(), request, response);
+    }
+
+    // Thumbnail of an image; size is the longest side in pixels, rounded up to a fixed size
+    @GetMapping("/thumbnail/{fileId}")
+    public void thumbnail(@PathVariable Long fileId,
+                          @RequestParam(value = "size", required = false) Integer size,
+                          @AuthenticationPrincipal UserDetails currentUser,
+                          HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        previewService.generateThumbnailResponse(fileId, size, currentUser.getUsername(), request, response);
+    }
+
+    // One page of a PDF as an image, numbered from 1; width in pixels
+    @GetMapping("/preview/{fileId}/pages/{page}")
+    public void previewPdfPage(@PathVariable Long fileId,
+                               @PathVariable int page,
+                               @RequestParam(value = "width", required = false) Integer width,
+                               @AuthenticationPrincipal UserDetails currentUser,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        previewService.generatePdfPageResponse(fileId, page, width, currentUser.getUsername(), request, response);
+    }
+
+    // HTML preview of a Word, Excel or PowerPoint file
+    @GetMapping("/preview/{fileId}/document")
+    public StreamingResponseBody previewDocument(@PathVariable Long fileId,
+                                                 @AuthenticationPrincipal UserDetails currentUser,
+                                                 HttpServletRequest request,
+                                                 HttpServletResponse response) throws IOException {
+        return previewService.generateDocumentPreviewResponse(fileId, currentUser.getUsername(), request, response);
+    }
+
+    // Page count of a PDF for the page-by-page viewer
+    @GetMapping("/api/preview/{fileId}/pages")
+    @ResponseBody
+    public ResponseEntity<?> getPdfPages(@PathVariable Long fileId,
+                                         @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            int pageCount = previewService.getPdfPageCount(fileId, currentUser.getUsername());
+            return ResponseEntity.ok(Map.of("pageCount", pageCount));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "You don't have permission to preview this file"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(IoSchedulingService.RETRY_AFTER_SECONDS))
+                    .body(Map.of("error", "Preview is busy, please try again"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "An error occurred while generating preview"));
+        }
+    }
+
+    // A window of lines of a text file, numbered from 0
+    @GetMapping("/api/preview/{fileId}/lines")
+    @ResponseBody
+    public ResponseEntity<?> getTextLines(@PathVariable Long fileId,
+                                          @RequestParam(value = "from", defaultValue = "0") long from,
+                                          @RequestParam(value = "count", defaultValue = "" + TextPreviewService.DEFAULT_LINES) int count,
+                                          @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            return ResponseEntity.ok(previewService.getTextLines(fileId, from, count, currentUser.getUsername()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "You don't have permission to preview this file"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(IoSchedulingService.RETRY_AFTER_SECONDS))
+                    .body(Map.of("error", "Preview is busy, please try again"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "An error occurred while generating preview"));
+        }
+    }
+
+    // Lines of a text file containing a text, searched from a line on, or from the offset a previous search stopped at
+    @GetMapping("/api/preview/{fileId}/search")
+    @ResponseBody
+    public ResponseEntity<?> searchText(@PathVariable Long fileId,
+                                        @RequestParam("q") String query,
+                                        @RequestParam(value = "from", defaultValue = "0") long from,
+                                        @RequestParam(value = "offset", defaultValue = "-1") long offset,
+                                        @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            return ResponseEntity.ok(previewService.searchText(fileId, query, from, offset, currentUser.getUsername()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "You don't have permission to preview this file"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(IoSchedulingService.RETRY_AFTER_SECONDS))
+                    .body(Map.of("error", "Preview is busy, please try again"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "An error occurred while searching the file"));
+        }
+    }
+
+    // Entries of a ZIP archive, numbered from 0, read from its central directory
+    @GetMapping("/api/preview/{fileId}/entries")
+    @ResponseBody
+    public ResponseEntity<?> getArchiveEntries(@PathVariable Long fileId,
+                                               @RequestParam(value = "from", defaultValue = "0") int from,
+                                               @RequestParam(value = "count", defaultValue = "" + ArchivePreviewService.DEFAULT_ENTRIES) int count,
                                                @AuthenticationPrincipal UserDetails currentUser) {
-        return previewService.generatePreviewResponse(fileId, currentUser.getUsername());
+        try {
+            return ResponseEntity.ok(previewService.getArchiveEntries(fileId, from, count, currentUser.getUsername()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "You don't have permission to preview this file"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(IoSchedulingService.RETRY_AFTER_SECONDS))
+                    .body(Map.of("error", "Preview is busy, please try again"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "An error occurred while reading the archive"));
+        }
+    }
+
+    // Download one entry of a ZIP archive without downloading the whole archive; inflated on the streaming executor
+    @GetMapping("/preview/{fileId}/entries/{index}")
+    public StreamingResponseBody downloadArchiveEntry(@PathVariable Long fileId,
+                                                      @PathVariable int index,
+                                                      @AuthenticationPrincipal UserDetails currentUser,
+                                                      HttpServletRequest request,
+                                                      HttpServletResponse response) throws IOException {
+        return previewService.generateArchiveEntryResponse(fileId, index, currentUser.getUsername(), request, response);
     }
 
     // Get file metadata for preview
@@ -622,61 +905,46 @@ public class FileController {
         }
     }
 
-    // Stream a video
+    // Stream a video; faststart plays the copy with the movie box in front, when it has been made
     @GetMapping("/stream/{fileId}")
-    public ResponseEntity<Resource> streamVideo(@PathVariable Long fileId,
-                                                @RequestHeader(value = "Range", required = false) String rangeHeader,
-                                                @AuthenticationPrincipal UserDetails currentUser) {
-        try {
-            File file = fileRepository.findById(fileId)
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
-            User user = userRepository.findByUsername(currentUser.getUsername());
-
-            if (!file.getUploader().equals(user) && !file.getRecipients().contains(user)) {
-                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You don't have permission to stream this file.");
-            }
-
-            if (!fileStorageService.isStreamableVideo(file.getFileName())) {
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "This file is not a streamable video.");
-            }
-
-            Resource resource = fileStorageService.loadFileAsResource(file.getFileName());
-            Path filePath = Paths.get(resource.getURI());
-            long fileSize = Files.size(filePath);
-            MediaType mediaType = fileStorageService.getMediaTypeForFileName(file.getFileName());
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(mediaType);
-
-            // Properly encode filename for Content-Disposition header to handle Unicode characters
-            String encodedFileName = PreviewService.encodeFilenameForHeader(file.getFileName());
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename*=UTF-8''" + encodedFileName);
-
-            if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                String[] ranges = rangeHeader.replace("bytes=", "").split("-");
-                long start = Long.parseLong(ranges[0]);
-                long end = ranges.length > 1 && !ranges[1].isEmpty() ? Long.parseLong(ranges[1]) : fileSize - 1;
-
-                if (start >= fileSize || end >= fileSize || start > end) {
-                    throw new ResponseStatusException(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, "Invalid range");
-                }
+    public StreamingResponseBody streamVideo(@PathVariable Long fileId,
+                            @RequestParam(value = "faststart", defaultValue = "false") boolean faststart,
+                            @AuthenticationPrincipal UserDetails currentUser,
+                            HttpServletRequest request,
+                            HttpServletResponse response) {
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
+        User user = userCacheService.getUser(currentUser.getUsername());
 
-                long contentLength = end - start + 1;
-                headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize);
-                headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-                headers.setContentLength(contentLength);
+        if (!fileService.canAccess(file, user)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You don't have permission to stream this file.");
+        }
 
-                ResourceRegion resourceRegion = new ResourceRegion(resource, start, contentLength);
+        if (!fileStorageService.isStreamableVideo(file.getFileName())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "This file is not a streamable video.");
+        }
 
-                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                        .headers(headers)
-                        .body(resourceRegion.getResource());
+        Path path = fileStorageService.getFilePath(file);
+        if (faststart) {
+            path = videoIndexService.getFaststartPath(file);
+            if (path == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "This video has no faststart copy.");
             }
+        }
 
-            headers.setContentLength(fileSize);
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(resource);
+        Path streamed = path;
+        try {
+            return ioSchedulingService.stream(IoSchedulingService.IoClass.STREAMING, currentUser.getUsername(), () -> {
+                // Properly encode filename for Content-Disposition header to handle Unicode characters
+                String encodedFileName = PreviewService.encodeFilenameForHeader(file.getFileName());
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename*=UTF-8''" + encodedFileName);
+
+                // The faststart copy has other bytes than the stored content, so it gets its own ETag
+                String etag = faststart ? null : fileStorageService.getContentEtag(fileStorageService.getContentKey(file));
+                bandwidthService.tag(request, currentUser.getUsername(), BandwidthService.Priority.INTERACTIVE);
+                return rangeRequestService.serveAsync(request, response, streamed,
+                        fileStorageService.getMediaTypeForFileName(file.getFileName()), etag);
+            });
         } catch (IOException e) {
             // Check if it's a client disconnect (common during video streaming)
             String errorMessage = e.getMessage();
@@ -688,15 +956,62 @@ public class FileController {
 
                 // Log as debug level since client disconnects are normal
                 System.out.println("Client disconnected during video streaming for file: " + fileId);
-                return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+                return null;
             }
 
             // For other IO errors, log and return server error
             System.err.println("IO Error streaming file " + fileId + ": " + errorMessage);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error streaming file");
+        }
+    }
+
+    // Issue a short-lived signed URL for downloading or streaming a file without the session
+    @GetMapping("/api/signed-url/{fileId}")
+    @ResponseBody
+    public ResponseEntity<?> getSignedUrl(@PathVariable Long fileId,
+                                          @RequestParam(value = "faststart", required = false) Boolean faststart,
+                                          @RequestParam(value = "download", defaultValue = "true") boolean download,
+                                          @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .body(signedUrlService.issue(fileId, currentUser.getUsername(), faststart, download));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "You don't have permission to access this file"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
-            System.err.println("Unexpected error streaming file " + fileId + ": " + e.getMessage());
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error streaming file");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "An error occurred while signing the URL"));
+        }
+    }
+
+    // Keyframe times (ms) and byte offsets of a video, for seeking straight to keyframes; 404 while not ready
+    @GetMapping("/api/stream/{fileId}/keyframes")
+    @ResponseBody
+    public ResponseEntity<?> getVideoKeyframes(@PathVariable Long fileId,
+                                               @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            VideoIndexService.KeyframeIndex keyframes = previewService.getVideoKeyframes(fileId, currentUser.getUsername());
+            if (keyframes == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "The keyframe index is not ready yet"));
+            }
+            // A file's content never changes, so neither does its index
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable")
+                    .body(keyframes);
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "You don't have permission to preview this file"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "An error occurred while reading the video"));
         }
     }
 
@@ -0,0 +1,96 @@
+package com.app.file_transfer.controller;
+
+import com.app.file_transfer.services.BandwidthService;
+import com.app.file_transfer.services.FileStorageService;
+import com.app.file_transfer.services.IoSchedulingService;
+import com.app.file_transfer.services.PreviewService;
+import com.app.file_transfer.services.RangeRequestService;
+import com.app.file_transfer.services.SignedUrlService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Downloads and streams through signed URLs; the security filter chain is skipped for these
+// (see SecurityConfig), so no session or database lookup happens per request
+@Controller
+public class SignedUrlController {
+
+    @Autowired
+    private SignedUrlService signedUrlService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private RangeRequestService rangeRequestService;
+
+    @Autowired
+    private BandwidthService bandwidthService;
+
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    @GetMapping(SignedUrlService.URL_PREFIX + "{token}")
+    public StreamingResponseBody serveSigned(@PathVariable String token,
+                                             HttpServletRequest request,
+                                             HttpServletResponse response) {
+        SignedUrlService.Grant grant;
+        try {
+            grant = signedUrlService.verify(token);
+        } catch (SecurityException e) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return null;
+        }
+
+        Path path = signedUrlService.resolve(grant);
+        if (path == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        }
+
+        try {
+            // Admitted before any header is set, so a busy server answers with a plain 503 or 429
+            return ioSchedulingService.stream(IoSchedulingService.IoClass.STREAMING, grant.getUsername(), () -> {
+                String encodedFileName = PreviewService.encodeFilenameForHeader(grant.getFileName());
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                        (grant.isAttachment() ? "attachment" : "inline") + "; filename*=UTF-8''" + encodedFileName);
+                response.setHeader("X-Content-Type-Options", "nosniff");
+                // The URL only works until the token expires, so caches must not keep it longer
+                long maxAge = Math.max(0, grant.getExpiresAt() - System.currentTimeMillis() / 1000);
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=" + maxAge);
+
+                String etag = grant.isFaststart() ? null : fileStorageService.getContentEtag(grant.getContentKey());
+                // No session here, so the user for bandwidth shaping comes from the token
+                bandwidthService.tag(request, grant.getUsername(), grant.isAttachment()
+                        ? BandwidthService.Priority.BULK : BandwidthService.Priority.INTERACTIVE);
+                return rangeRequestService.serveAsync(request, response, path,
+                        fileStorageService.getMediaTypeForFileName(grant.getFileName()), etag);
+            });
+        } catch (IOException e) {
+            // Players abort range requests all the time when seeking
+            String errorMessage = e.getMessage();
+            if (errorMessage != null && (
+                errorMessage.contains("Connection reset by peer") ||
+                errorMessage.contains("Broken pipe") ||
+                errorMessage.contains("connection was aborted") ||
+                errorMessage.contains("ClientAbortException"))) {
+                return null;
+            }
+
+            System.err.println("IO Error serving signed URL for file " + grant.getFileId() + ": " + errorMessage);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+            return null;
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package com.app.file_transfer.controller;
 
 import com.app.file_transfer.model.User;
+import com.app.file_transfer.repository.FileRepository;
 import com.app.file_transfer.services.FileStorageService;
+import com.app.file_transfer.services.ImageRenditionService;
 import com.app.file_transfer.services.PreviewService;
+import com.app.file_transfer.services.RangeRequestService;
 import com.app.file_transfer.services.StorageUsageService;
+import com.app.file_transfer.services.UserSearchService;
 import com.app.file_transfer.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -18,11 +25,14 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 @RequestMapping
@@ -36,6 +46,15 @@ public class UserController {
 
     @Autowired
     private StorageUsageService storageUsageService;
+
+    @Autowired
+    private UserSearchService userSearchService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private ImageRenditionService imageRenditionService;
     @GetMapping("/login")
     public String Login(){
     return "login";
@@ -76,6 +95,8 @@ public class UserController {
 
         model.addAttribute("user", user);
         model.addAttribute("storageStats", storageStats);
+        model.addAttribute("uploadedCount", storageStats.getTotalFiles());
+        model.addAttribute("receivedCount", fileRepository.countByRecipientsContains(user));
         model.addAttribute("storageUsagePercentage", storageStats.getUsagePercentage());
         model.addAttribute("totalUsedFormatted", storageUsageService.formatBytes(storageStats.getTotalUsedBytes()));
         model.addAttribute("storageLimitFormatted", storageUsageService.formatBytes(storageStats.getStorageLimitBytes()));
@@ -116,19 +137,72 @@ public class UserController {
         return "redirect:/profile";
     }
     
+    // Avatar image; a width (pixels) or JPEG quality (percent) returns a resized rendition
     @GetMapping("/avatars/{filename:.+}")
     @ResponseBody
-    public ResponseEntity<Resource> getAvatar(@PathVariable String filename) {
-        Resource resource = fileStorageService.loadFileAsResource(Paths.get("avatars", filename).toString());
+    public ResponseEntity<?> getAvatar(@PathVariable String filename,
+                                       @RequestParam(value = "width", required = false) Integer width,
+                                       @RequestParam(value = "quality", required = false) Integer quality) {
+        Resource resource = fileStorageService.loadAvatarAsResource(filename);
+
+        if (width != null || quality != null) {
+            ImageRenditionService.Rendition rendition = imageRenditionService.getRendition(
+                    fileStorageService.getAvatarContentKey(filename), fileStorageService.getAvatarPath(filename), width, quality);
+            if (rendition != null) {
+                // Avatar file names are never reused, so renditions can be cached for good; with the ETag set,
+                // Spring answers If-None-Match with a 304 and the header avatar is not sent again on every page
+                Object body = rendition.getContent() != null ? rendition.getContent() : new FileSystemResource(rendition.getPath());
+                return ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+                        .eTag(rendition.getEtag())
+                        .body(body);
+            }
+        }
 
         // Properly encode filename for Content-Disposition header to handle Unicode characters
         String encodedFileName = PreviewService.encodeFilenameForHeader(resource.getFilename());
 
+        // With validators set, Spring answers If-None-Match / If-Modified-Since with a 304 and never reads the file
+        long fileSize;
+        long lastModified;
+        try {
+            fileSize = resource.contentLength();
+            lastModified = resource.lastModified();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read avatar " + filename, e);
+        }
+
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename*=UTF-8''" + encodedFileName)
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+                .eTag(RangeRequestService.buildEtag(fileSize, lastModified))
+                .lastModified(lastModified)
                 .body(resource);
     }
 
+    // Prefix search over usernames and emails for the share recipient picker
+    @GetMapping("/api/users/search")
+    @ResponseBody
+    public ResponseEntity<?> searchUsers(@RequestParam("q") String query,
+                                         @RequestParam(value = "limit", defaultValue = "10") int limit,
+                                         @AuthenticationPrincipal UserDetails currentUser) {
+        if (currentUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        // Emails are matched but not returned, so the search cannot be used to harvest them
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (UserSearchService.UserEntry user : userSearchService.search(query, currentUser.getUsername(), limit)) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("id", user.getId());
+            result.put("username", user.getUsername());
+            result.put("avatar", user.getAvatar());
+            results.add(result);
+        }
+        return ResponseEntity.ok(results);
+    }
+
     @GetMapping("/api/storage-usage")
     @ResponseBody
     public ResponseEntity<?> getStorageUsageApi(@AuthenticationPrincipal UserDetails currentUser) {
@@ -0,0 +1,114 @@
+package com.app.file_transfer.controller.api;
+
+import com.app.file_transfer.model.File;
+import com.app.file_transfer.services.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/files/api/uploads")
+public class ChunkedUploadController {
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    // Start a resumable upload
+    @PostMapping
+    public ResponseEntity<?> createUpload(@RequestParam String fileName,
+                                          @RequestParam long fileSize,
+                                          @RequestParam(required = false) String contentType,
+                                          @RequestParam(required = false) Long folderId,
+                                          @RequestParam(required = false) Long chunkSize,
+                                          @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            ChunkedUploadService.UploadSession session = chunkedUploadService.createSession(
+                    currentUser.getUsername(), fileName, fileSize, contentType, folderId, chunkSize);
+            return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(session));
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    // Upload one chunk; the request body is the raw chunk content
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(@PathVariable String uploadId,
+                                         @PathVariable int index,
+                                         HttpServletRequest request,
+                                         @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            chunkedUploadService.writeChunk(uploadId, currentUser.getUsername(), index, request.getInputStream());
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    // Query which chunks are still missing, used to resume after a dropped connection
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUploadStatus(@PathVariable String uploadId,
+                                             @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            return ResponseEntity.ok(toResponse(chunkedUploadService.getStatus(uploadId, currentUser.getUsername())));
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    // Assemble the upload and register it as a file
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId,
+                                            @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            File file = chunkedUploadService.complete(uploadId, currentUser.getUsername());
+            return ResponseEntity.ok(Map.of("fileId", file.getId(), "fileName", file.getFileName()));
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    // Abort an upload
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> cancelUpload(@PathVariable String uploadId,
+                                          @AuthenticationPrincipal UserDetails currentUser) {
+        try {
+            chunkedUploadService.cancel(uploadId, currentUser.getUsername());
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    private Map<String, Object> toResponse(ChunkedUploadService.UploadSession session) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("uploadId", session.getUploadId());
+        response.put("fileName", session.getFileName());
+        response.put("fileSize", session.getFileSize());
+        response.put("chunkSize", session.getChunkSize());
+        response.put("totalChunks", session.getTotalChunks());
+        response.put("receivedBytes", session.getReceivedBytes());
+        response.put("missingChunks", session.getMissingChunks());
+        return response;
+    }
+
+    private ResponseEntity<?> errorResponse(Exception e) {
+        if (e instanceof SecurityException) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", e.getMessage()));
+        } else if (e instanceof IllegalArgumentException) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", e.getMessage()));
+        } else if (e instanceof IllegalStateException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } else if (e instanceof IOException) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Upload failed, please retry"));
+        }
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "An unexpected error occurred"));
+    }
+}
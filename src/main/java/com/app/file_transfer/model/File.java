@@ -19,6 +19,11 @@ import com.app.file_transfer.model.base.BaseEntity;
 @Setter
 @AllArgsConstructor
 @NoArgsConstructor
+@Table(indexes = {
+        // Keyset pagination of folder listings and of all uploads, newest first
+        @Index(name = "idx_file_uploader_folder_created", columnList = "uploader_id, folder_id, created_at, id"),
+        @Index(name = "idx_file_uploader_created", columnList = "uploader_id, created_at, id")
+})
 public class File extends BaseEntity {
 
     @Id
@@ -31,17 +36,23 @@ public class File extends BaseEntity {
     private long fileSize;
     private String password; // Thêm trường mật khẩu
 
-    @ManyToOne
+    // Lazy: listings and access checks only need the id; views that show more use an entity graph
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "uploader_id")
     private User uploader;
 
     @ManyToMany(mappedBy = "receivedFiles", cascade = CascadeType.PERSIST)
     private List<User> recipients = new ArrayList<>();
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "folder_id")
     private Folder folder;
 
+    // Shared content when stored deduplicated; null for files stored under their own name
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    private FileBlob blob;
+
 
     
 
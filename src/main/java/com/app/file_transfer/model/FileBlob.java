@@ -0,0 +1,32 @@
+package com.app.file_transfer.model;
+
+import com.app.file_transfer.model.base.BaseEntity;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Stored content shared by every File row with the same SHA-256.
+ * The physical blob is removed once refCount drops to zero.
+ */
+@Entity
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "file_blob")
+public class FileBlob extends BaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 64)
+    private String sha256;
+
+    private long size;
+
+    private long refCount;
+}
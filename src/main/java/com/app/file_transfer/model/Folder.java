@@ -18,6 +18,11 @@ import java.util.List;
 @Setter
 @AllArgsConstructor
 @NoArgsConstructor
+@Table(indexes = {
+        // Keyset pagination of subfolders and of all folders, newest first
+        @Index(name = "idx_folder_user_parent_created", columnList = "user_id, parent_id, created_at, id"),
+        @Index(name = "idx_folder_user_created", columnList = "user_id, created_at, id")
+})
 public class Folder {
 
     @Id
@@ -30,11 +35,11 @@ public class Folder {
     @CreationTimestamp
     private LocalDateTime createdAt;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "parent_id")
     private Folder parent;
 
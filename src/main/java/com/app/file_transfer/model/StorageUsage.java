@@ -0,0 +1,37 @@
+package com.app.file_transfer.model;
+
+import com.app.file_transfer.model.base.BaseEntity;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Running storage totals of one user, kept up to date on upload, delete and share
+ * so quota checks never have to scan the user's files.
+ */
+@Entity
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "storage_usage")
+public class StorageUsage extends BaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false, unique = true)
+    private Long userId;
+
+    private long totalBytes;
+    private long documentBytes;
+    private long imageBytes;
+    private long videoBytes;
+    private long audioBytes;
+    private long otherBytes;
+    private long fileCount;
+    private long sharedCount;
+}
@@ -32,7 +32,9 @@ public class User {
     @JoinTable(
             name = "file_recipients",
             joinColumns = @JoinColumn(name = "user_id"),
-            inverseJoinColumns = @JoinColumn(name = "file_id")
+            inverseJoinColumns = @JoinColumn(name = "file_id"),
+            // Access checks look up (file, user) pairs
+            indexes = @Index(name = "idx_file_recipients_file_user", columnList = "file_id, user_id")
     )
     private List<File> receivedFiles = new ArrayList<>();
     // Getters, Setters, and Constructors
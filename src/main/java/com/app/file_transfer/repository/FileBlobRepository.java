@@ -0,0 +1,21 @@
+package com.app.file_transfer.repository;
+
+import com.app.file_transfer.model.FileBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface FileBlobRepository extends JpaRepository<FileBlob, Long> {
+
+    // Row lock serializing reference count changes for one blob
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from FileBlob b where b.sha256 = :sha256")
+    Optional<FileBlob> findBySha256ForUpdate(@Param("sha256") String sha256);
+
+    List<FileBlob> findByRefCount(long refCount);
+}
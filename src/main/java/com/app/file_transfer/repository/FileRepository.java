@@ -5,11 +5,23 @@ import com.app.file_transfer.model.User;
 
 import com.app.file_transfer.model.Folder;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 public interface FileRepository extends JpaRepository<File, Long> {
+    // Single-file lookups serve content, so the blob (if any) is loaded in the same query
+    @Override
+    @EntityGraph(attributePaths = "blob")
+    Optional<File> findById(Long id);
+
     // Find all files uploaded by a specific user
     List<File> findByUploader(User uploader);
 
@@ -21,4 +33,75 @@ public interface FileRepository extends JpaRepository<File, Long> {
 
     List<File> findByUploaderAndFolderOrderByCreatedAtDesc(User uploader, Folder folder);
 List<File> findByUploaderAndFolderIsNullOrderByCreatedAtDesc(User uploader);
+
+    // Keyset pages ordered by (createdAt, id) descending: rows strictly after the given cursor.
+    // Cost depends on the page size only, thanks to the (uploader, folder, createdAt, id) index.
+    @Query("select f from File f where f.uploader = :uploader and f.folder is null " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<File> findRootPage(@Param("uploader") User uploader, @Param("createdAt") LocalDateTime createdAt,
+                            @Param("id") Long id, Pageable pageable);
+
+    @Query("select f from File f where f.uploader = :uploader and f.folder = :folder " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<File> findFolderPage(@Param("uploader") User uploader, @Param("folder") Folder folder,
+                              @Param("createdAt") LocalDateTime createdAt, @Param("id") Long id, Pageable pageable);
+
+    @Query("select f from File f where f.uploader = :uploader " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<File> findUploadedPage(@Param("uploader") User uploader, @Param("createdAt") LocalDateTime createdAt,
+                                @Param("id") Long id, Pageable pageable);
+
+    // The received list shows who shared each file
+    @EntityGraph(attributePaths = "uploader")
+    @Query("select f from File f join f.recipients r where r = :recipient " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<File> findReceivedPage(@Param("recipient") User recipient, @Param("createdAt") LocalDateTime createdAt,
+                                @Param("id") Long id, Pageable pageable);
+
+    long countByRecipientsContains(User user);
+
+    // Recipient check straight on the join table, served by its (file_id, user_id) index; 1 or 0
+    @Query(value = "select exists(select 1 from file_recipients where file_id = :fileId and user_id = :userId)",
+            nativeQuery = true)
+    int existsRecipient(@Param("fileId") Long fileId, @Param("userId") Long userId);
+
+    // Number of files per folder as [folderId, count], for the item badges of a page of folders
+    @Query("select f.folder.id, count(f) from File f where f.folder.id in :folderIds group by f.folder.id")
+    List<Object[]> countByFolderIds(@Param("folderIds") List<Long> folderIds);
+
+    @Query("select f.id as id, f.fileName as fileName, f.fileType as fileType, f.fileSize as fileSize, " +
+            "u.id as uploaderId, u.username as uploaderUsername from File f join f.uploader u where f.id = :id")
+    Optional<FileDetails> findDetailsById(@Param("id") Long id);
+
+    /**
+     * Read-only view of a file with its uploader's name, loaded in one query
+     */
+    interface FileDetails {
+        Long getId();
+        String getFileName();
+        String getFileType();
+        long getFileSize();
+        Long getUploaderId();
+        String getUploaderUsername();
+    }
+
+    // Size per file type of a user's files as [fileType, sum(fileSize), count], for rebuilding usage counters
+    @Query("select f.fileType, sum(f.fileSize), count(f) from File f where f.uploader = :uploader group by f.fileType")
+    List<Object[]> sumFileSizesByType(@Param("uploader") User uploader);
+
+    @Query("select count(f) from File f where f.uploader = :uploader and f.recipients is not empty")
+    long countSharedByUploader(@Param("uploader") User uploader);
+
+    // Storage location of files after the given id as [id, fileName, filePath, blob sha256], for batched migration
+    @Query("select f.id, f.fileName, f.filePath, b.sha256 from File f left join f.blob b where f.id > :afterId order by f.id")
+    List<Object[]> findStorageLocationsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // Only touches filePath, so concurrent edits to the same file are not overwritten
+    @Modifying
+    @Query("update File f set f.filePath = :filePath where f.id = :id")
+    int updateFilePath(@Param("id") Long id, @Param("filePath") String filePath);
 }
\ No newline at end of file
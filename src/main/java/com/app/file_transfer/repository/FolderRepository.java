@@ -2,12 +2,39 @@ package com.app.file_transfer.repository;
 
 import com.app.file_transfer.model.Folder;
 import com.app.file_transfer.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface FolderRepository extends JpaRepository<Folder, Long> {
     List<Folder> findByUserAndParent(User user, Folder parent);
 
     List<Folder> findByUser(User user);
+
+    // Keyset pages ordered by (createdAt, id) descending: rows strictly after the given cursor
+    @Query("select f from Folder f where f.user = :user and f.parent is null " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<Folder> findRootPage(@Param("user") User user, @Param("createdAt") LocalDateTime createdAt,
+                              @Param("id") Long id, Pageable pageable);
+
+    @Query("select f from Folder f where f.user = :user and f.parent = :parent " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<Folder> findChildPage(@Param("user") User user, @Param("parent") Folder parent,
+                               @Param("createdAt") LocalDateTime createdAt, @Param("id") Long id, Pageable pageable);
+
+    @Query("select f from Folder f where f.user = :user " +
+            "and (f.createdAt < :createdAt or (f.createdAt = :createdAt and f.id < :id)) " +
+            "order by f.createdAt desc, f.id desc")
+    List<Folder> findUserPage(@Param("user") User user, @Param("createdAt") LocalDateTime createdAt,
+                              @Param("id") Long id, Pageable pageable);
+
+    // Number of subfolders per folder as [parentId, count], for the item badges of a page of folders
+    @Query("select f.parent.id, count(f) from Folder f where f.parent.id in :parentIds group by f.parent.id")
+    List<Object[]> countByParentIds(@Param("parentIds") List<Long> parentIds);
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package com.app.file_transfer.repository;
+
+import com.app.file_transfer.model.StorageUsage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface StorageUsageRepository extends JpaRepository<StorageUsage, Long> {
+
+    Optional<StorageUsage> findByUserId(Long userId);
+
+    boolean existsByUserId(Long userId);
+
+    // Applied as a single UPDATE so concurrent changes for the same user never lose an increment
+    @Modifying
+    @Query("update StorageUsage u set u.totalBytes = u.totalBytes + :totalDelta, " +
+            "u.documentBytes = u.documentBytes + :documentDelta, u.imageBytes = u.imageBytes + :imageDelta, " +
+            "u.videoBytes = u.videoBytes + :videoDelta, u.audioBytes = u.audioBytes + :audioDelta, " +
+            "u.otherBytes = u.otherBytes + :otherDelta, u.fileCount = u.fileCount + :fileDelta, " +
+            "u.sharedCount = u.sharedCount + :sharedDelta where u.userId = :userId")
+    int applyDelta(@Param("userId") Long userId, @Param("totalDelta") long totalDelta,
+                   @Param("documentDelta") long documentDelta, @Param("imageDelta") long imageDelta,
+                   @Param("videoDelta") long videoDelta, @Param("audioDelta") long audioDelta,
+                   @Param("otherDelta") long otherDelta, @Param("fileDelta") long fileDelta,
+                   @Param("sharedDelta") long sharedDelta);
+}
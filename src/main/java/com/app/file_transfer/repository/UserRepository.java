@@ -5,9 +5,15 @@ import com.app.file_transfer.model.User;
 
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
    User findByUsername(String username);
-}
 
+   // Only the columns the user search index needs: {id, username, email, avatar}
+   @Query("select u.id, u.username, u.email, u.avatar from User u")
+   List<Object[]> findSearchEntries();
+}
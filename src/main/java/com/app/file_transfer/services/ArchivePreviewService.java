@@ -0,0 +1,440 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Lists the entries of uploaded ZIP archives and extracts single entries, without reading the rest
+ * of the archive. Only the central directory at the end of the file is read for a listing, with
+ * positional reads on a FileChannel; an entry is then read from its local header and inflated on the
+ * fly while it is written to the client. Nothing is extracted to disk. ZIP64 archives are supported.
+ */
+@Service
+public class ArchivePreviewService {
+
+    public static final int DEFAULT_ENTRIES = 200;
+    public static final int MAX_ENTRIES = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    // Names without the UTF-8 flag are usually in the DOS code page, unless they happen to be valid UTF-8
+    private static final Charset DOS_CHARSET = Charset.isSupported("IBM437") ? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+
+    // How long a request waits for the central directory to be read before answering "busy, retry later"
+    private static final long WAIT_SECONDS = 20;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // Directories of large archives are read on the preview pool, not on request threads
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    /**
+     * Check if a file is an archive whose entries can be listed
+     */
+    public boolean isSupported(String fileName) {
+        return fileName.toLowerCase().endsWith(".zip");
+    }
+
+    /**
+     * List up to count entries of an archive, starting at an entry (numbered from 0)
+     *
+     * @throws IoSchedulingService.SaturatedException if the preview pool is busy
+     */
+    public EntryList listEntries(File file, int from, int count) throws IOException {
+        return ioSchedulingService.call(() -> readEntryList(file, from, count), WAIT_SECONDS);
+    }
+
+    private EntryList readEntryList(File file, int from, int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileStorageService.getFilePath(file), StandardOpenOption.READ)) {
+            CentralDirectory directory = readCentralDirectory(channel);
+            List<Entry> entries = readEntries(channel, directory, from, Math.max(1, Math.min(count, MAX_ENTRIES)));
+            return new EntryList(from, entries, directory.entryCount);
+        }
+    }
+
+    /**
+     * Get an entry of an archive by its number, as listed
+     *
+     * @throws IoSchedulingService.SaturatedException if the preview pool is busy
+     */
+    public Entry getEntry(File file, int index) throws IOException {
+        return ioSchedulingService.call(() -> readEntry(file, index), WAIT_SECONDS);
+    }
+
+    private Entry readEntry(File file, int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileStorageService.getFilePath(file), StandardOpenOption.READ)) {
+            List<Entry> entries = readEntries(channel, readCentralDirectory(channel), index, 1);
+            if (entries.isEmpty()) {
+                throw new IllegalArgumentException("Entry not found");
+            }
+            return entries.get(0);
+        }
+    }
+
+    /**
+     * Check if an entry can be extracted: not encrypted, and stored or deflated
+     */
+    public boolean isExtractable(Entry entry) {
+        return (entry.flags & 0x1) == 0 && isReadableMethod(entry.method);
+    }
+
+    private static boolean isReadableMethod(int method) {
+        return method == STORED || method == DEFLATED;
+    }
+
+    /**
+     * Write the uncompressed content of an entry. At most the size recorded in the archive is written,
+     * so a corrupt or malicious entry cannot inflate past what was announced.
+     */
+    public void writeEntry(File file, Entry entry, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileStorageService.getFilePath(file), StandardOpenOption.READ);
+             InputStream in = openEntry(channel, entry)) {
+            copyEntry(in, entry.getSize(), out);
+        }
+    }
+
+    // The response announces the entry's size, so an entry that ends early must fail rather than
+    // end the response cleanly and pass for complete
+    static void copyEntry(InputStream in, long size, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = size;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        if (remaining > 0) {
+            throw new IOException("Archive entry ended " + remaining + " bytes short of its size");
+        }
+    }
+
+    /**
+     * Find the central directory from the end-of-central-directory record, following the ZIP64 locator
+     * when the archive is too large for the classic fields
+     */
+    static CentralDirectory readCentralDirectory(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int tailLength = (int) Math.min(size, 22 + 0xFFFF);
+        ByteBuffer tail = read(channel, size - tailLength, tailLength);
+
+        int end = -1;
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IllegalArgumentException("Not a ZIP archive");
+        }
+
+        long entryCount = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            long locatorPosition = size - tailLength + end - 20;
+            ByteBuffer locator = locatorPosition >= 0 ? read(channel, locatorPosition, 20) : null;
+            if (locator != null && locator.getInt(0) == ZIP64_LOCATOR) {
+                ByteBuffer zip64 = read(channel, locator.getLong(8), 56);
+                if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                    throw new IllegalArgumentException("Corrupt ZIP64 archive");
+                }
+                entryCount = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+
+        if (directoryOffset + directorySize > size) {
+            throw new IllegalArgumentException("Corrupt ZIP archive");
+        }
+        return new CentralDirectory(directoryOffset, directorySize, entryCount);
+    }
+
+    /**
+     * Read up to count central directory records, skipping the first from of them
+     */
+    static List<Entry> readEntries(FileChannel channel, CentralDirectory directory, int from, int count) throws IOException {
+        if (from < 0) {
+            throw new IllegalArgumentException("Entry must not be negative");
+        }
+        List<Entry> entries = new ArrayList<>();
+        long position = directory.offset;
+        long end = directory.offset + directory.size;
+        Window window = new Window(channel, end);
+
+        for (int index = 0; index < directory.entryCount && entries.size() < count && position + 46 <= end; index++) {
+            ByteBuffer header = window.get(position, 46);
+            if (header.getInt(0) != CENTRAL_HEADER) {
+                throw new IllegalArgumentException("Corrupt ZIP archive");
+            }
+            int nameLength = header.getShort(28) & 0xFFFF;
+            int extraLength = header.getShort(30) & 0xFFFF;
+            int commentLength = header.getShort(32) & 0xFFFF;
+
+            if (index >= from) {
+                ByteBuffer variable = window.get(position + 46, nameLength + extraLength);
+                byte[] name = new byte[nameLength];
+                variable.get(0, name);
+
+                long compressedSize = header.getInt(20) & 0xFFFFFFFFL;
+                long size = header.getInt(24) & 0xFFFFFFFFL;
+                long localHeaderOffset = header.getInt(42) & 0xFFFFFFFFL;
+
+                // ZIP64 values follow in this order, only for the fields that did not fit
+                for (int i = nameLength; i + 4 <= nameLength + extraLength; ) {
+                    int id = variable.getShort(i) & 0xFFFF;
+                    int length = variable.getShort(i + 2) & 0xFFFF;
+                    if (id == ZIP64_EXTRA) {
+                        int field = i + 4;
+                        if (size == 0xFFFFFFFFL && field + 8 <= i + 4 + length) {
+                            size = variable.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL && field + 8 <= i + 4 + length) {
+                            compressedSize = variable.getLong(field);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == 0xFFFFFFFFL && field + 8 <= i + 4 + length) {
+                            localHeaderOffset = variable.getLong(field);
+                        }
+                    }
+                    i += 4 + length;
+                }
+
+                int flags = header.getShort(8) & 0xFFFF;
+                entries.add(new Entry(index, decodeName(name, (flags & 0x800) != 0), size, compressedSize,
+                        dosTime(header.getShort(12) & 0xFFFF, header.getShort(14) & 0xFFFF),
+                        header.getShort(10) & 0xFFFF, flags, localHeaderOffset));
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Open the uncompressed content of an entry, reading only its own bytes from the archive
+     */
+    static InputStream openEntry(FileChannel channel, Entry entry) throws IOException {
+        if (entry.isDirectory()) {
+            throw new IllegalArgumentException("Folders cannot be extracted");
+        }
+        if ((entry.flags & 0x1) != 0) {
+            throw new IllegalStateException("Encrypted entries cannot be extracted");
+        }
+        if (!isReadableMethod(entry.method)) {
+            throw new IllegalStateException("Unsupported compression method " + entry.method);
+        }
+
+        ByteBuffer header = read(channel, entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new IllegalArgumentException("Corrupt ZIP archive");
+        }
+        // The local name and extra field may differ from the central directory's, so their own lengths are used
+        long dataStart = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        InputStream data = new ChannelInputStream(channel, dataStart, entry.getCompressedSize());
+        if (entry.method == STORED) {
+            return data;
+        }
+
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(data, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IllegalArgumentException("Corrupt ZIP archive");
+            }
+        }
+        return buffer.flip();
+    }
+
+    static String decodeName(byte[] name, boolean utf8) {
+        if (utf8) {
+            return new String(name, StandardCharsets.UTF_8);
+        }
+        try {
+            CharBuffer decoded = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(name));
+            return decoded.toString();
+        } catch (CharacterCodingException e) {
+            return new String(name, DOS_CHARSET);
+        }
+    }
+
+    static LocalDateTime dosTime(int time, int date) {
+        if (date == 0) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(1980 + (date >> 9), (date >> 5) & 0xF, date & 0x1F,
+                    time >> 11, (time >> 5) & 0x3F, (time & 0x1F) * 2);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the central directory through a buffer, so walking many small records takes few reads
+     */
+    private static class Window {
+        private final FileChannel channel;
+        private final long end;
+        private ByteBuffer buffer;
+        private long start;
+
+        Window(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+        }
+
+        ByteBuffer get(long position, int length) throws IOException {
+            if (buffer == null || position < start || position + length > start + buffer.limit()) {
+                if (position + length > end) {
+                    throw new IllegalArgumentException("Corrupt ZIP archive");
+                }
+                start = position;
+                buffer = read(channel, position, (int) Math.max(length, Math.min(BUFFER_SIZE, end - position)));
+            }
+            return buffer.slice((int) (position - start), length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Reads a range of a file with positional reads, so the channel can be shared
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (read <= 0) {
+                return -1;
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+    }
+
+    static class CentralDirectory {
+        final long offset;
+        final long size;
+        final long entryCount;
+
+        CentralDirectory(long offset, long size, long entryCount) {
+            this.offset = offset;
+            this.size = size;
+            this.entryCount = entryCount;
+        }
+    }
+
+    /**
+     * An entry of an archive, as recorded in its central directory
+     */
+    public static class Entry {
+        private final int index;
+        private final String name;
+        private final long size;
+        private final long compressedSize;
+        private final LocalDateTime modified;
+        final int method;
+        final int flags;
+        final long localHeaderOffset;
+
+        Entry(int index, String name, long size, long compressedSize, LocalDateTime modified,
+              int method, int flags, long localHeaderOffset) {
+            this.index = index;
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.modified = modified;
+            this.method = method;
+            this.flags = flags;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public int getIndex() { return index; }
+        public String getName() { return name; }
+        public long getSize() { return size; }
+        public long getCompressedSize() { return compressedSize; }
+        public LocalDateTime getModified() { return modified; }
+        public boolean isDirectory() { return name.endsWith("/"); }
+    }
+
+    /**
+     * A page of the entries of an archive
+     */
+    public static class EntryList {
+        private final int from;
+        private final List<Entry> entries;
+        private final long entryCount;
+
+        public EntryList(int from, List<Entry> entries, long entryCount) {
+            this.from = from;
+            this.entries = entries;
+            this.entryCount = entryCount;
+        }
+
+        public int getFrom() { return from; }
+        public List<Entry> getEntries() { return entries; }
+        public long getEntryCount() { return entryCount; }
+    }
+}
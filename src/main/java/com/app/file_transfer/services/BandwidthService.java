@@ -0,0 +1,260 @@
+package com.app.file_transfer.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shapes the bandwidth of file transfers against a rate per user and a global token bucket.
+ * While the global budget has room, transfers take what they need. Once it is used up, each transfer
+ * is paced to its weighted share of it, so interactive transfers (video, previews) keep flowing
+ * while bulk downloads and ZIPs split what is left. Bodies handed to sendfile cannot be shaped,
+ * so sendfile is not used while shaping is enabled.
+ */
+@Service
+public class BandwidthService {
+
+    private static final String USER_ATTR = BandwidthService.class.getName() + ".user";
+    private static final String PRIORITY_ATTR = BandwidthService.class.getName() + ".priority";
+
+    // Bytes written between two trips to the scheduler
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // Megabits per second; 0 means unlimited
+    @Value("${file-storage.bandwidth.global-mbps:0}")
+    private long globalMbps;
+
+    @Value("${file-storage.bandwidth.per-user-mbps:0}")
+    private long perUserMbps;
+
+    private Scheduler scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (globalMbps > 0 || perUserMbps > 0) {
+            scheduler = new Scheduler(globalMbps * 125_000, perUserMbps * 125_000);
+        }
+    }
+
+    public boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    /**
+     * Say who a response is for and how it should be prioritised. Untagged responses count as
+     * interactive, for the user signed in to the request.
+     */
+    public void tag(HttpServletRequest request, String username, Priority priority) {
+        request.setAttribute(USER_ATTR, username);
+        request.setAttribute(PRIORITY_ATTR, priority);
+    }
+
+    /**
+     * Shape a body by the tags of the request it answers
+     */
+    public StreamingResponseBody shape(HttpServletRequest request, StreamingResponseBody body) {
+        if (scheduler == null) {
+            return body;
+        }
+        Object username = request.getAttribute(USER_ATTR);
+        Object priority = request.getAttribute(PRIORITY_ATTR);
+        return shape(username != null ? (String) username : request.getRemoteUser(),
+                priority != null ? (Priority) priority : Priority.INTERACTIVE, body);
+    }
+
+    /**
+     * Shape a body written for a user
+     */
+    public StreamingResponseBody shape(String username, Priority priority, StreamingResponseBody body) {
+        if (scheduler == null) {
+            return body;
+        }
+        String user = username != null ? username : "";
+        return outputStream -> {
+            Transfer transfer = scheduler.open(user, priority);
+            try {
+                body.writeTo(new ShapedOutputStream(outputStream, scheduler, transfer));
+            } finally {
+                scheduler.close(transfer);
+            }
+        };
+    }
+
+    /**
+     * How a transfer shares the global budget when it is used up
+     */
+    public enum Priority {
+        // Video and previews, which stall visibly when starved
+        INTERACTIVE(4),
+        // Downloads and ZIPs, which only take longer
+        BULK(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    static final class Transfer {
+        private final String username;
+        private final int weight;
+
+        private Transfer(String username, int weight) {
+            this.username = username;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The global token bucket and per-user pacing. The bucket may go into debt: a transfer takes what it
+     * writes and then waits until the debt is paid back at its share of the rate.
+     */
+    static final class Scheduler {
+        // Budget that may build up while idle, in seconds of rate
+        private static final double BURST_SECONDS = 0.25;
+
+        private final double globalRate;
+        private final double userRate;
+        private final Bucket global;
+        private final Map<String, UserState> users = new HashMap<>();
+        private int activeWeight;
+
+        Scheduler(double globalRate, double userRate) {
+            this.globalRate = globalRate;
+            this.userRate = userRate;
+            this.global = globalRate > 0 ? new Bucket(globalRate, System.nanoTime()) : null;
+        }
+
+        synchronized Transfer open(String username, Priority priority) {
+            Transfer transfer = new Transfer(username, priority.weight);
+            activeWeight += transfer.weight;
+            UserState state = users.get(username);
+            if (state == null) {
+                state = new UserState(System.nanoTime() - userBurstNanos());
+                users.put(username, state);
+            }
+            state.transfers++;
+            return transfer;
+        }
+
+        synchronized void close(Transfer transfer) {
+            activeWeight -= transfer.weight;
+            UserState state = users.get(transfer.username);
+            if (--state.transfers == 0 && state.next <= System.nanoTime()) {
+                // Kept while in debt, so a user cannot reset their pace by reconnecting
+                users.remove(transfer.username);
+            }
+        }
+
+        /**
+         * Take the tokens for writing some bytes; returns how long to wait first, in nanoseconds
+         */
+        synchronized long reserve(Transfer transfer, long bytes, long now) {
+            long wait = 0;
+            if (global != null) {
+                global.refill(now);
+                boolean contended = global.tokens < bytes;
+                global.take(bytes);
+                if (contended) {
+                    double share = globalRate * transfer.weight / Math.max(activeWeight, transfer.weight);
+                    wait = (long) (bytes / share * 1e9);
+                }
+            }
+            UserState state = users.get(transfer.username);
+            if (state != null && userRate > 0) {
+                // All of a user's transfers queue behind the same point in time, so together they get the user
+                // rate; idle time earns at most one burst
+                state.next = Math.max(state.next, now - userBurstNanos()) + (long) (bytes / userRate * 1e9);
+                wait = Math.max(wait, state.next - now);
+            }
+            return wait;
+        }
+
+        private long userBurstNanos() {
+            return userRate > 0 ? (long) (Math.max(CHUNK_SIZE, userRate * BURST_SECONDS) / userRate * 1e9) : 0;
+        }
+    }
+
+    private static final class UserState {
+        // When the user's bytes so far have been paid for at their rate
+        private long next;
+        private int transfers;
+
+        private UserState(long next) {
+            this.next = next;
+        }
+    }
+
+    private static final class Bucket {
+        private final double rate;
+        private final double capacity;
+        private double tokens;
+        private long updated;
+
+        private Bucket(double rate, long now) {
+            this.rate = rate;
+            this.capacity = Math.max(CHUNK_SIZE, rate * Scheduler.BURST_SECONDS);
+            this.tokens = capacity;
+            this.updated = now;
+        }
+
+        private void refill(long now) {
+            // Another thread may have been here with a later time
+            if (now > updated) {
+                tokens = Math.min(capacity, tokens + (now - updated) / 1e9 * rate);
+                updated = now;
+            }
+        }
+
+        // Debt is capped, so a burst long ago does not keep everyone waiting
+        private void take(long bytes) {
+            tokens = Math.max(-capacity, tokens - bytes);
+        }
+    }
+
+    private static final class ShapedOutputStream extends FilterOutputStream {
+        private final Scheduler scheduler;
+        private final Transfer transfer;
+
+        private ShapedOutputStream(OutputStream out, Scheduler scheduler, Transfer transfer) {
+            super(out);
+            this.scheduler = scheduler;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE);
+                long wait = scheduler.reserve(transfer, count, System.nanoTime());
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while shaping a transfer");
+                    }
+                }
+                out.write(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+}
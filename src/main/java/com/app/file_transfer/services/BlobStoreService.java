@@ -0,0 +1,202 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.FileBlob;
+import com.app.file_transfer.repository.FileBlobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content-addressed storage: blobs are keyed by the SHA-256 of their content and shared
+ * between all files with identical bytes, with a reference count per blob.
+ */
+@Service
+public class BlobStoreService {
+
+    // Retries for two uploads of the same new content racing to create its blob row
+    private static final int MAX_ACQUIRE_ATTEMPTS = 3;
+
+    @Value("${file-storage.deduplication.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    private FileBlobRepository fileBlobRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    private final TransactionTemplate newTransaction;
+
+    public BlobStoreService(PlatformTransactionManager transactionManager) {
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Check if new uploads are stored deduplicated
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stream content into staging while hashing it, then store it as a blob or reuse an identical one
+     */
+    public FileBlob store(InputStream content) throws IOException {
+        Path staged = Files.createTempFile(fileStorageService.getStagingLocation(), "blob-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long size;
+            try (DigestInputStream in = new DigestInputStream(content, digest)) {
+                size = Files.copy(in, staged, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return acquire(HexFormat.of().formatHex(digest.digest()), size, staged);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Store an already assembled file (e.g. a finished chunked upload); the source is consumed
+     */
+    public FileBlob store(Path source) throws IOException {
+        try {
+            MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return acquire(HexFormat.of().formatHex(digest.digest()), Files.size(source), source);
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    /**
+     * Drop one reference to a blob. Once the last reference is gone and the surrounding
+     * transaction commits, the blob and its content are removed.
+     */
+    @Transactional
+    public void release(FileBlob blob) {
+        FileBlob locked = fileBlobRepository.findBySha256ForUpdate(blob.getSha256()).orElse(null);
+        if (locked == null) {
+            return;
+        }
+
+        if (dropReference(locked)) {
+            String sha256 = locked.getSha256();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    collect(sha256);
+                }
+            });
+        }
+    }
+
+    /**
+     * Remove unreferenced blobs left behind, e.g. by a crash between commit and cleanup
+     */
+    @Scheduled(fixedDelay = 60 * 60 * 1000)
+    public void collectUnreferencedBlobs() {
+        for (FileBlob blob : fileBlobRepository.findByRefCount(0)) {
+            collect(blob.getSha256());
+        }
+    }
+
+    private FileBlob acquire(String sha256, long size, Path content) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return newTransaction.execute(status -> {
+                    Path blobPath = fileStorageService.getBlobPath(sha256);
+                    FileBlob blob = fileBlobRepository.findBySha256ForUpdate(sha256).orElse(null);
+
+                    // Content may also be missing if a cleanup removed it but could not commit
+                    if (blob == null || !Files.exists(blobPath)) {
+                        moveIntoPlace(content, blobPath);
+                    }
+                    FileBlob referenced = addReference(blob, sha256, size);
+                    return blob == null ? fileBlobRepository.save(referenced) : referenced;
+                });
+            } catch (DataIntegrityViolationException | PessimisticLockingFailureException e) {
+                if (attempt >= MAX_ACQUIRE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Content is deleted while the row lock is held, so a concurrent acquire either
+    // sees the blob with its content or no blob at all
+    private void collect(String sha256) {
+        newTransaction.executeWithoutResult(status -> {
+            FileBlob blob = fileBlobRepository.findBySha256ForUpdate(sha256).orElse(null);
+            if (!isCollectable(blob)) {
+                return;
+            }
+            try {
+                fileStorageService.deleteBlob(sha256);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not delete blob " + sha256, e);
+            }
+            fileBlobRepository.delete(blob);
+        });
+    }
+
+    // One more file uses the content; a blob seen for the first time starts with this reference
+    static FileBlob addReference(FileBlob blob, String sha256, long size) {
+        if (blob == null) {
+            return new FileBlob(null, sha256, size, 1);
+        }
+        blob.setRefCount(blob.getRefCount() + 1);
+        return blob;
+    }
+
+    // One file less uses the content; true when it was the last one
+    static boolean dropReference(FileBlob blob) {
+        blob.setRefCount(Math.max(0, blob.getRefCount() - 1));
+        return blob.getRefCount() == 0;
+    }
+
+    // Checked again under the row lock: the blob may have been acquired since it was released
+    static boolean isCollectable(FileBlob blob) {
+        return blob != null && blob.getRefCount() == 0;
+    }
+
+    private void moveIntoPlace(Path content, Path blobPath) {
+        try {
+            Files.createDirectories(blobPath.getParent());
+            Files.move(content, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store blob " + blobPath.getFileName(), e);
+        }
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
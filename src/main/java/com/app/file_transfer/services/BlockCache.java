@@ -0,0 +1,217 @@
+package com.app.file_transfer.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of fixed-size blocks held in direct (off-heap) buffers, with TinyLFU admission: a
+ * block that is not cached only replaces the least recently used one if it has been asked for more
+ * often. Access counts are kept in a small count-min sketch whose counters are halved periodically,
+ * so popularity fades. Blocks read once, as in a bulk download, cannot push out popular ones.
+ * Blocks are pinned while they are being written out and never evicted or reused while pinned.
+ */
+final class BlockCache {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+
+    private final int maxBlocks;
+    private final int blockSize;
+
+    // Access-ordered LinkedHashMap: iteration starts at the least recently used block
+    private final Map<String, Block> blocks = new LinkedHashMap<>(64, 0.75f, true);
+    private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private int allocated;
+
+    private final byte[][] sketch;
+    private final int sketchMask;
+    private final int resetAfter;
+    private int additions;
+
+    BlockCache(int maxBlocks, int blockSize) {
+        this.maxBlocks = maxBlocks;
+        this.blockSize = blockSize;
+        int width = Integer.highestOneBit(Math.max(64, maxBlocks * 8) - 1) << 1;
+        this.sketch = new byte[SKETCH_DEPTH][width];
+        this.sketchMask = width - 1;
+        this.resetAfter = Math.max(100, maxBlocks * 10);
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    static String key(String file, long index) {
+        return file + "#" + index;
+    }
+
+    /**
+     * Get a cached block, pinned; the caller must release it. Counts as an access.
+     */
+    synchronized Block get(String key) {
+        record(key);
+        Block block = blocks.get(key);
+        if (block != null) {
+            block.pins++;
+        }
+        return block;
+    }
+
+    synchronized boolean contains(String key) {
+        return blocks.containsKey(key);
+    }
+
+    /**
+     * Count an access to a block without reading it
+     */
+    synchronized void record(String key) {
+        long hash = hash(key);
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int column = column(hash, row);
+            if (sketch[row][column] < MAX_COUNT) {
+                sketch[row][column]++;
+            }
+        }
+        if (++additions >= resetAfter) {
+            age();
+        }
+    }
+
+    synchronized int frequency(String key) {
+        long hash = hash(key);
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            frequency = Math.min(frequency, sketch[row][column(hash, row)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Load a block that is not cached, if admitted: when there is room, or when it has been asked for
+     * more often than the block it would evict. Returns the block pinned, or null if not admitted.
+     */
+    Block admit(String key, Loader loader) throws IOException {
+        ByteBuffer buffer;
+        synchronized (this) {
+            Block cached = blocks.get(key);
+            if (cached != null) {
+                cached.pins++;
+                return cached;
+            }
+            buffer = reserve(key);
+            if (buffer == null) {
+                return null;
+            }
+        }
+
+        // Read outside the lock; the buffer belongs to no block until it is inserted
+        int length;
+        try {
+            buffer.clear();
+            length = loader.load(buffer);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                freeBuffers.push(buffer);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            Block cached = blocks.get(key);
+            if (cached != null) {
+                // Loaded concurrently by another request
+                freeBuffers.push(buffer);
+                cached.pins++;
+                return cached;
+            }
+            Block block = new Block(buffer, length);
+            block.pins++;
+            blocks.put(key, block);
+            return block;
+        }
+    }
+
+    synchronized void release(Block block) {
+        block.pins--;
+    }
+
+    synchronized int size() {
+        return blocks.size();
+    }
+
+    // A buffer to load a block into: a free one, a new one while under the limit, or the victim's
+    private ByteBuffer reserve(String key) {
+        if (!freeBuffers.isEmpty()) {
+            return freeBuffers.pop();
+        }
+        if (allocated < maxBlocks) {
+            allocated++;
+            return ByteBuffer.allocateDirect(blockSize);
+        }
+
+        Iterator<Map.Entry<String, Block>> eldest = blocks.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<String, Block> victim = eldest.next();
+            if (victim.getValue().pins > 0) {
+                continue;
+            }
+            if (frequency(key) <= frequency(victim.getKey())) {
+                return null;
+            }
+            eldest.remove();
+            return victim.getValue().buffer;
+        }
+        return null;
+    }
+
+    // Halve every counter, so blocks that were popular a while ago can be replaced by new ones
+    private void age() {
+        for (byte[] row : sketch) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >> 1);
+            }
+        }
+        additions /= 2;
+    }
+
+    private int column(long hash, int row) {
+        long mixed = hash * (0x9E3779B97F4A7C15L + 2L * row);
+        return (int) (mixed >>> 40) & sketchMask;
+    }
+
+    private static long hash(String key) {
+        long h = key.hashCode() * 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 31);
+    }
+
+    @FunctionalInterface
+    interface Loader {
+        // Fill the buffer with the block's bytes and return how many there are
+        int load(ByteBuffer buffer) throws IOException;
+    }
+
+    static final class Block {
+        private final ByteBuffer buffer;
+        private final int length;
+        private int pins;
+
+        private Block(ByteBuffer buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        // A view of part of the block, for writing out while it is pinned
+        ByteBuffer slice(int offset, int count) {
+            return buffer.slice(offset, count);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.app.file_transfer.services;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps hot parts of stored files in memory for range requests, such as the start of popular videos
+ * that every player asks for. Files are cut into fixed-size blocks kept off-heap in a size-bounded
+ * {@link BlockCache}; a block only displaces another if it is asked for more often, so bulk downloads
+ * that read each block once leave the popular ones in place.
+ */
+@Service
+public class BlockCacheService {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    // Blocks at the start of a region served from memory; the rest is copied from the file. A full-file
+    // GET of a video whose first block is hot should not read gigabytes through the cache.
+    private static final int MAX_BLOCKS_PER_REGION = 8;
+
+    // The cache may take at most this share of the direct memory the JVM allows
+    private static final int DIRECT_MEMORY_DIVISOR = 2;
+
+    @Value("${file-storage.block-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file-storage.block-cache.size-mb:256}")
+    private int sizeMb;
+
+    private BlockCache cache;
+
+    @PostConstruct
+    public void init() {
+        if (enabled && sizeMb > 0) {
+            long size = (long) sizeMb * 1024 * 1024;
+            long allowed = maxDirectMemory() / DIRECT_MEMORY_DIVISOR;
+            if (size > allowed) {
+                System.out.println("Block cache limited to " + allowed / (1024 * 1024) + " MB of direct memory, "
+                        + "raise -XX:MaxDirectMemorySize for " + sizeMb + " MB");
+                size = allowed;
+            }
+            if (size >= BLOCK_SIZE) {
+                cache = new BlockCache((int) (size / BLOCK_SIZE), BLOCK_SIZE);
+            }
+        }
+    }
+
+    // -XX:MaxDirectMemorySize if given; otherwise the JVM allows as much direct memory as heap
+    private static long maxDirectMemory() {
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-XX:MaxDirectMemorySize=")) {
+                long size = parseSize(argument.substring("-XX:MaxDirectMemorySize=".length()));
+                if (size > 0) {
+                    return size;
+                }
+            }
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    static long parseSize(String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+        long unit = switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            case 't' -> 1024L * 1024 * 1024 * 1024;
+            default -> 1;
+        };
+        try {
+            return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Check if a region should be served through the cache: its first block is cached or has been
+     * asked for before. Regions seen for the first time are only counted, and left to sendfile.
+     */
+    public boolean shouldServe(Path path, long fileSize, long lastModified, long start) {
+        if (cache == null) {
+            return false;
+        }
+        String key = BlockCache.key(fileKey(path, fileSize, lastModified), start / BLOCK_SIZE);
+        if (cache.contains(key) || cache.frequency(key) > 0) {
+            return true;
+        }
+        cache.record(key);
+        return false;
+    }
+
+    /**
+     * Write a region of a file, taking its leading blocks from memory while they are cached or admitted,
+     * and copying the rest from disk
+     */
+    public void write(Path path, long fileSize, long lastModified, long start, long length,
+                      WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            writeRegion(cache, channel, fileKey(path, fileSize, lastModified), start, length, target, MAX_BLOCKS_PER_REGION);
+        }
+    }
+
+    // Blocks are named after the file's path and version, so a replaced file never gets stale blocks
+    private static String fileKey(Path path, long fileSize, long lastModified) {
+        return path.toAbsolutePath() + ":" + fileSize + ":" + lastModified;
+    }
+
+    static void writeRegion(BlockCache cache, FileChannel channel, String fileKey,
+                            long start, long length, WritableByteChannel target, int maxBlocks) throws IOException {
+        int blockSize = cache.getBlockSize();
+        long position = start;
+        long end = start + length;
+        for (int blocks = 0; blocks < maxBlocks && position < end; blocks++) {
+            long index = position / blockSize;
+            long blockStart = index * blockSize;
+            int offset = (int) (position - blockStart);
+            int count = (int) Math.min(blockSize - offset, end - position);
+
+            String key = BlockCache.key(fileKey, index);
+            BlockCache.Block block = cache.get(key);
+            if (block == null) {
+                block = cache.admit(key, buffer -> readBlock(channel, blockStart, buffer));
+            }
+
+            if (block == null) {
+                // Not admitted: the rest goes straight from the file, as without the cache
+                break;
+            }
+            try {
+                if (offset + count > block.getLength()) {
+                    throw new IOException("File truncated while serving range at position " + position);
+                }
+                ByteBuffer slice = block.slice(offset, count);
+                while (slice.hasRemaining()) {
+                    target.write(slice);
+                }
+            } finally {
+                cache.release(block);
+            }
+            position += count;
+        }
+        if (position < end) {
+            transfer(channel, position, end - position, target);
+        }
+    }
+
+    private static int readBlock(FileChannel channel, long blockStart, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, blockStart + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private static void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new IOException("File truncated while serving range at position " + position);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import com.app.file_transfer.model.Folder;
+import com.app.file_transfer.model.User;
+import com.app.file_transfer.repository.FolderRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Resumable uploads split into fixed-size chunks. Chunks may arrive in any order and in parallel;
+ * each one is written at its own offset of a pre-sized staging file, which is moved into storage on completion.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024; // 8MB
+    private static final long MIN_CHUNK_SIZE = 256L * 1024;
+    private static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    // Sessions (and staging files) idle for longer than this are discarded
+    private static final Duration SESSION_TTL = Duration.ofHours(24);
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private StorageUsageService storageUsageService;
+
+    @Autowired
+    private UserCacheService userCacheService;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Start a new upload session and reserve the staging file for it
+     */
+    public UploadSession createSession(String username, String originalFileName, long fileSize,
+                                       String contentType, Long folderId, Long requestedChunkSize) throws IOException {
+        String fileName = StringUtils.getFilename(StringUtils.cleanPath(originalFileName == null ? "" : originalFileName));
+        if (!StringUtils.hasText(fileName)) {
+            throw new IllegalArgumentException("File name is required");
+        }
+        if (fileSize <= 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+
+        User user = userCacheService.getUser(username);
+        if (folderId != null) {
+            Folder folder = folderRepository.findById(folderId)
+                    .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+            if (!folder.getUser().getId().equals(user.getId())) {
+                throw new SecurityException("User does not have permission to upload to this folder.");
+            }
+        }
+
+        // Space stays reserved for the whole session so parallel uploads cannot exceed the limit together
+        StorageUsageService.Reservation reservation = storageUsageService.reserve(username, fileSize);
+        if (reservation == null) {
+            throw new IllegalStateException("Storage limit exceeded. Remaining space: " +
+                    storageUsageService.formatBytes(storageUsageService.getRemainingStorage(username)));
+        }
+
+        long chunkSize = requestedChunkSize == null ? DEFAULT_CHUNK_SIZE
+                : Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, requestedChunkSize));
+
+        String uploadId = UUID.randomUUID().toString();
+        Path partPath = fileStorageService.getStagingLocation().resolve(uploadId + ".part");
+
+        // Pre-size the staging file so chunks can be written at their offsets in any order
+        try (RandomAccessFile partFile = new RandomAccessFile(partPath.toFile(), "rw")) {
+            partFile.setLength(fileSize);
+        } catch (IOException e) {
+            storageUsageService.release(reservation);
+            Files.deleteIfExists(partPath);
+            throw e;
+        }
+
+        UploadSession session = new UploadSession(uploadId, username, fileName,
+                StringUtils.hasText(contentType) ? contentType : "application/octet-stream",
+                fileSize, chunkSize, folderId, partPath, reservation);
+        sessions.put(uploadId, session);
+        return session;
+    }
+
+    /**
+     * Write one chunk at its offset. Chunks of the same session can be written concurrently.
+     */
+    public void writeChunk(String uploadId, String username, int index, InputStream body) throws IOException {
+        writeChunk(getSession(uploadId, username), index, body);
+    }
+
+    static void writeChunk(UploadSession session, int index, InputStream body) throws IOException {
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new IllegalArgumentException("Chunk index out of range: " + index);
+        }
+
+        long position = index * session.getChunkSize();
+        long expected = session.getChunkLength(index);
+
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                throw new IllegalStateException("Upload is already finished");
+            }
+
+            // A channel per chunk, so idle sessions hold no file descriptors; positional transfers
+            // never touch a shared file position
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(session.partPath, StandardOpenOption.WRITE)) {
+                ReadableByteChannel source = Channels.newChannel(body);
+                while (written < expected) {
+                    long transferred = channel.transferFrom(source, position + written, expected - written);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    written += transferred;
+                }
+            }
+
+            if (written != expected || body.read() != -1) {
+                throw new IllegalArgumentException("Chunk " + index + " must be exactly " + expected + " bytes");
+            }
+
+            session.markReceived(index);
+        } finally {
+            session.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the current state of an upload, including the chunks still missing
+     */
+    public UploadSession getStatus(String uploadId, String username) {
+        return getSession(uploadId, username);
+    }
+
+    /**
+     * Finish an upload once every chunk has arrived and register it as a file. If storing fails the
+     * session stays as it was, so the client can call this again.
+     */
+    public File complete(String uploadId, String username) throws IOException {
+        UploadSession session = getSession(uploadId, username);
+
+        User uploader = userCacheService.getUser(username);
+        Folder folder = session.getFolderId() == null ? null
+                : folderRepository.findById(session.getFolderId()).orElse(null);
+
+        // Content is hashed once here: chunks arrive out of order, so it cannot be hashed while streaming
+        File file = complete(session, staged -> fileService.storeUploadedFile(staged, session.getFileName(),
+                session.getContentType(), session.getFileSize(), uploader, folder));
+
+        sessions.remove(uploadId);
+        storageUsageService.commit(session.reservation);
+        Files.deleteIfExists(session.partPath);
+        return file;
+    }
+
+    /**
+     * Close a session and hand its assembled file to the store, which consumes what it is given. The store
+     * gets a hard link to the staging file, so the staging file survives a failed store and the session is
+     * reopened for another attempt.
+     */
+    static <T> T complete(UploadSession session, StagedFileStore<T> store) throws IOException {
+        close(session);
+        try {
+            Path handoff = session.partPath.resolveSibling(session.getUploadId() + ".complete");
+            Files.deleteIfExists(handoff);
+            try {
+                Files.createLink(handoff, session.partPath);
+            } catch (UnsupportedOperationException e) {
+                Files.copy(session.partPath, handoff);
+            }
+            try {
+                return store.store(handoff);
+            } finally {
+                Files.deleteIfExists(handoff);
+            }
+        } catch (IOException | RuntimeException e) {
+            reopen(session);
+            throw e;
+        }
+    }
+
+    // Waits for chunks being written, then refuses new ones; only a session with every chunk can be closed
+    static void close(UploadSession session) throws IOException {
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                throw new IllegalStateException("Upload is already finished");
+            }
+            if (!session.getMissingChunks().isEmpty()) {
+                throw new IllegalStateException("Upload is incomplete: " + session.getMissingChunks().size() + " chunk(s) missing");
+            }
+            session.closed = true;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    private static void reopen(UploadSession session) {
+        session.lock.writeLock().lock();
+        try {
+            session.closed = false;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Abort an upload and discard its partial data
+     */
+    public void cancel(String uploadId, String username) throws IOException {
+        UploadSession session = getSession(uploadId, username);
+        discard(session);
+    }
+
+    /**
+     * Remove abandoned sessions and leftover staging files (e.g. from before a restart)
+     */
+    @Scheduled(fixedDelay = 60 * 60 * 1000)
+    public void purgeExpiredSessions() {
+        Instant cutoff = Instant.now().minus(SESSION_TTL);
+
+        for (UploadSession session : sessions.values()) {
+            if (session.lastActivity.isBefore(cutoff)) {
+                try {
+                    discard(session);
+                } catch (IOException e) {
+                    System.err.println("Could not discard expired upload " + session.getUploadId() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        try (Stream<Path> staged = Files.list(fileStorageService.getStagingLocation())) {
+            staged.filter(path -> isStagingFile(path.getFileName().toString()))
+                  .filter(path -> !sessions.containsKey(uploadIdOf(path.getFileName().toString())))
+                  .filter(path -> isOlderThan(path, cutoff))
+                  .forEach(path -> {
+                      try {
+                          Files.deleteIfExists(path);
+                      } catch (IOException e) {
+                          System.err.println("Could not delete staging file " + path + ": " + e.getMessage());
+                      }
+                  });
+        } catch (IOException e) {
+            System.err.println("Could not clean staging directory: " + e.getMessage());
+        }
+    }
+
+    private UploadSession getSession(String uploadId, String username) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            throw new IllegalArgumentException("Upload not found");
+        }
+        if (!session.getUsername().equals(username)) {
+            throw new SecurityException("User does not have permission to access this upload.");
+        }
+        session.lastActivity = Instant.now();
+        return session;
+    }
+
+    private void discard(UploadSession session) throws IOException {
+        session.lock.writeLock().lock();
+        try {
+            session.closed = true;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        sessions.remove(session.getUploadId());
+        storageUsageService.release(session.reservation);
+        Files.deleteIfExists(session.partPath);
+    }
+
+    // Staging files are <uploadId>.part, plus <uploadId>.complete while an upload is being stored
+    private static boolean isStagingFile(String name) {
+        return name.endsWith(".part") || name.endsWith(".complete");
+    }
+
+    private static String uploadIdOf(String name) {
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    private boolean isOlderThan(Path path, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Consumes the assembled file of an upload, e.g. FileService.storeUploadedFile
+    @FunctionalInterface
+    interface StagedFileStore<T> {
+        T store(Path staged) throws IOException;
+    }
+
+    /**
+     * State of one chunked upload
+     */
+    public static class UploadSession {
+        private final String uploadId;
+        private final String username;
+        private final String fileName;
+        private final String contentType;
+        private final long fileSize;
+        private final long chunkSize;
+        private final int totalChunks;
+        private final Long folderId;
+        private final Path partPath;
+        private final StorageUsageService.Reservation reservation;
+        private final BitSet receivedChunks;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile Instant lastActivity = Instant.now();
+        private volatile boolean closed;
+
+        UploadSession(String uploadId, String username, String fileName, String contentType, long fileSize,
+                      long chunkSize, Long folderId, Path partPath, StorageUsageService.Reservation reservation) {
+            this.uploadId = uploadId;
+            this.username = username;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.fileSize = fileSize;
+            this.chunkSize = chunkSize;
+            this.totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+            this.folderId = folderId;
+            this.partPath = partPath;
+            this.reservation = reservation;
+            this.receivedChunks = new BitSet(totalChunks);
+        }
+
+        // Getters
+        public String getUploadId() { return uploadId; }
+        public String getUsername() { return username; }
+        public String getFileName() { return fileName; }
+        public String getContentType() { return contentType; }
+        public long getFileSize() { return fileSize; }
+        public long getChunkSize() { return chunkSize; }
+        public int getTotalChunks() { return totalChunks; }
+        public Long getFolderId() { return folderId; }
+
+        public long getChunkLength(int index) {
+            return Math.min(chunkSize, fileSize - index * chunkSize);
+        }
+
+        public synchronized List<Integer> getMissingChunks() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = receivedChunks.nextClearBit(0); i < totalChunks; i = receivedChunks.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        }
+
+        public synchronized long getReceivedBytes() {
+            long received = 0;
+            for (int i = receivedChunks.nextSetBit(0); i >= 0; i = receivedChunks.nextSetBit(i + 1)) {
+                received += getChunkLength(i);
+            }
+            return received;
+        }
+
+        synchronized void markReceived(int index) {
+            receivedChunks.set(index);
+        }
+    }
+}
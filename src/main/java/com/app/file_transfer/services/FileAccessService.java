@@ -0,0 +1,131 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.repository.FileRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers "is this user a recipient of this file" with an indexed EXISTS query on file_recipients,
+ * behind a bounded LRU cache of recent decisions. Video seeks and previews repeat the same check
+ * many times per second, so most of them never reach the database.
+ */
+@Service
+public class FileAccessService {
+
+    private static final int MAX_FILES = 5_000;
+
+    // Decisions kept per file; a file checked by more users than this starts over
+    private static final int MAX_USERS_PER_FILE = 64;
+
+    // Upper bound on how long a decision can be stale, e.g. after a share on another instance
+    private static final long TTL_MILLIS = 60 * 1000;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    // Decisions by file, then by user, so a file's decisions are dropped in one step.
+    // Access-ordered LinkedHashMap: the least recently checked file is evicted first
+    private final Map<Long, Map<Long, Decision>> decisions = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Map<Long, Decision>> eldest) {
+            return size() > MAX_FILES;
+        }
+    };
+
+    // Bumped by every invalidation; a lookup that raced with one does not cache its result
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Check if a user is one of the recipients of a file
+     */
+    public boolean isRecipient(Long fileId, Long userId) {
+        long now = now();
+
+        synchronized (decisions) {
+            Map<Long, Decision> users = decisions.get(fileId);
+            Decision cached = users != null ? users.get(userId) : null;
+            if (cached != null && cached.expiresAt > now) {
+                return cached.allowed;
+            }
+        }
+
+        long generation = invalidations.get();
+        boolean allowed = load(fileId, userId);
+
+        synchronized (decisions) {
+            if (invalidations.get() == generation) {
+                Map<Long, Decision> users = decisions.computeIfAbsent(fileId, key -> new HashMap<>());
+                if (users.size() >= MAX_USERS_PER_FILE) {
+                    users.clear();
+                }
+                users.put(userId, new Decision(allowed, now + TTL_MILLIS));
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Forget the decisions for a file whose recipients changed or which is being deleted.
+     * Inside a transaction this is repeated after commit, so checks that ran before the commit
+     * cannot leave the old state behind.
+     */
+    public void invalidate(Long fileId) {
+        invalidate(List.of(fileId));
+    }
+
+    /**
+     * Like {@link #invalidate(Long)} for many files at once, e.g. all files of a deleted folder
+     */
+    public void invalidate(Collection<Long> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        evict(fileIds);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(fileIds);
+                }
+            });
+        }
+    }
+
+    // Read of a decision on a cache miss
+    boolean load(Long fileId, Long userId) {
+        return fileRepository.existsRecipient(fileId, userId) > 0;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void evict(Collection<Long> fileIds) {
+        invalidations.incrementAndGet();
+        synchronized (decisions) {
+            for (Long fileId : fileIds) {
+                decisions.remove(fileId);
+            }
+        }
+    }
+
+    private static class Decision {
+        private final boolean allowed;
+        private final long expiresAt;
+
+        Decision(boolean allowed, long expiresAt) {
+            this.allowed = allowed;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.app.file_transfer.services;
 
 import com.app.file_transfer.model.File;
+import com.app.file_transfer.model.FileBlob;
 import com.app.file_transfer.model.Folder;
 import com.app.file_transfer.model.User;
 import com.app.file_transfer.repository.FileRepository;
@@ -10,7 +11,15 @@ import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,6 +32,9 @@ public class FileService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserCacheService userCacheService;
+
     @Autowired
     private FolderRepository folderRepository;
 
@@ -32,25 +44,153 @@ public class FileService {
     @Autowired
     private FileStorageService fileStorageService;
 
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private StorageUsageService storageUsageService;
+
+    @Autowired
+    private FileAccessService fileAccessService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private VideoIndexService videoIndexService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Store an uploaded file, reusing identical content already in storage
+    public File storeUploadedFile(MultipartFile file, User uploader, Folder folder) {
+        if (!blobStoreService.isEnabled()) {
+            String fileName = fileStorageService.storeFile(file);
+            return saveUploadedFile(fileName, file.getContentType(), file.getSize(), uploader, folder);
+        }
+
+        try {
+            FileBlob blob = blobStoreService.store(file.getInputStream());
+            return saveDeduplicatedFile(cleanFileName(file.getOriginalFilename()), file.getContentType(), uploader, folder, blob);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file " + file.getOriginalFilename() + ". Please try again!", ex);
+        }
+    }
+
+    // Store a fully assembled upload (e.g. a finished chunked upload); the source file is consumed
+    public File storeUploadedFile(Path source, String originalFileName, String fileType, long fileSize,
+                                  User uploader, Folder folder) {
+        if (!blobStoreService.isEnabled()) {
+            String fileName = fileStorageService.storeFile(source, originalFileName);
+            return saveUploadedFile(fileName, fileType, fileSize, uploader, folder);
+        }
+
+        try {
+            FileBlob blob = blobStoreService.store(source);
+            return saveDeduplicatedFile(cleanFileName(originalFileName), fileType, uploader, folder, blob);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file " + originalFileName + ". Please try again!", ex);
+        }
+    }
+
+    // Record a newly stored upload
+    public File saveUploadedFile(String fileName, String fileType, long fileSize, User uploader, Folder folder) {
+        return saveFile(fileName, fileType, fileSize, fileStorageService.getStoredFilePath(fileName), null, uploader, folder);
+    }
+
+    // Release the stored content of a file that is being deleted; physical removal happens after commit
+    public void releaseStoredContent(File file) {
+        if (file.getBlob() != null) {
+            blobStoreService.release(file.getBlob());
+            return;
+        }
+
+        String fileName = file.getFileName();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fileStorageService.deleteFile(fileName);
+            }
+        });
+    }
+
+    private File saveDeduplicatedFile(String fileName, String fileType, User uploader, Folder folder, FileBlob blob) {
+        try {
+            return saveFile(fileName, fileType, blob.getSize(), fileStorageService.getStoredBlobPath(blob.getSha256()),
+                    blob, uploader, folder);
+        } catch (RuntimeException ex) {
+            // Drop the reference taken for this upload, otherwise the blob would never be collected
+            blobStoreService.release(blob);
+            throw ex;
+        }
+    }
+
+    private File saveFile(String fileName, String fileType, long fileSize, String filePath, FileBlob blob,
+                          User uploader, Folder folder) {
+        File newFile = new File();
+        newFile.setFileName(fileName);
+        newFile.setFileType(fileType);
+        newFile.setFileSize(fileSize);
+        newFile.setFilePath(filePath);
+        newFile.setBlob(blob);
+        newFile.setUploader(uploader);
+
+        if (folder != null) {
+            newFile.setFolder(folder);
+        }
+
+        // The record and the usage counters change together; content is already stored, so no connection is held during I/O
+        File saved = new TransactionTemplate(transactionManager).execute(status -> {
+            File file = fileRepository.save(newFile);
+            storageUsageService.recordFileAdded(file);
+            return file;
+        });
+
+        thumbnailService.scheduleThumbnails(saved);
+        videoIndexService.scheduleIndexing(saved);
+        return saved;
+    }
+
+    private String cleanFileName(String originalFileName) {
+        String fileName = StringUtils.getFilename(StringUtils.cleanPath(originalFileName == null ? "" : originalFileName));
+        return StringUtils.hasText(fileName) ? fileName : "file";
+    }
+
     // Get all files uploaded by a specific user
     public List<File> getFilesUploadedByUser(String username) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         return fileRepository.findByUploader(user);
     }
 
     // Get all files shared with a specific user
     public List<File> getFilesReceivedByUser(String username) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         return fileRepository.findByRecipientsContains(user);
     }
 
+    // Check if a user may read a file: its uploader or one of its recipients.
+    // Compares ids, so it works on detached entities and lazy proxies without loading the recipients.
+    public boolean canAccess(File file, User user) {
+        return canAccess(file.getId(), file.getUploader().getId(), user);
+    }
+
+    public boolean canAccess(Long fileId, Long uploaderId, User user) {
+        if (user == null) {
+            return false;
+        }
+        if (uploaderId.equals(user.getId())) {
+            return true;
+        }
+        return fileAccessService.isRecipient(fileId, user.getId());
+    }
+
     // Set or update password for a file
     public void setFilePassword(Long fileId, String password, String username) {
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
-        if (!file.getUploader().equals(user)) {
+        if (!file.getUploader().getId().equals(user.getId())) {
             throw new SecurityException("User does not have permission to set password for this file.");
         }
 
@@ -71,37 +211,49 @@ public class FileService {
     }
 
     // Share a file with multiple users
+    @Transactional
     public void shareFile(Long fileId, List<String> recipientUsernames, String senderUsername) {
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
-        User sender = userRepository.findByUsername(senderUsername);
+        User sender = userCacheService.getUser(senderUsername);
 
-        if (!file.getUploader().equals(sender)) {
+        if (!file.getUploader().getId().equals(sender.getId())) {
             throw new SecurityException("User does not have permission to share this file.");
         }
 
+        boolean wasShared = !file.getRecipients().isEmpty();
+        fileAccessService.invalidate(fileId);
+
         for (String username : recipientUsernames) {
             User recipient = userRepository.findByUsername(username);
-            if (recipient != null && !file.getRecipients().contains(recipient)) {
+            if (recipient != null && file.getRecipients().stream().noneMatch(r -> r.getId().equals(recipient.getId()))) {
                 file.getRecipients().add(recipient);
                 recipient.getReceivedFiles().add(file);
                 userRepository.save(recipient);
             }
         }
+        if (!wasShared && !file.getRecipients().isEmpty()) {
+            storageUsageService.recordFileShared(file);
+        }
         fileRepository.save(file);
     }
 
     // Delete a file
+    @Transactional
     public void deleteFile(Long fileId, String username) {
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
         // Check if user has permission to delete this file
-        if (!file.getUploader().equals(user)) {
+        if (!file.getUploader().getId().equals(user.getId())) {
             throw new SecurityException("User does not have permission to delete this file.");
         }
 
+        // Update usage counters while the file's recipients are still known
+        storageUsageService.recordFileRemoved(file);
+        fileAccessService.invalidate(fileId);
+
         // Remove file from recipients
         for (User recipient : file.getRecipients()) {
             recipient.getReceivedFiles().remove(file);
@@ -113,24 +265,21 @@ public class FileService {
             file.getFolder().getFiles().remove(file);
         }
 
-        // Delete file from database
+        // Release the stored content, then delete file from database
+        releaseStoredContent(file);
         fileRepository.delete(file);
     }
 
     // Delete multiple files
     @Transactional(rollbackOn = Exception.class)
     public void deleteFiles(List<Long> fileIds, String username) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         List<String> errors = new ArrayList<>();
 
         for (Long fileId : fileIds) {
             try {
-                File file = fileRepository.findById(fileId)
-                        .orElseThrow(() -> new IllegalArgumentException("File not found: " + fileId));
-                String fileName = file.getFileName();
+                // Physical content is released by deleteFile once the transaction commits
                 deleteFile(fileId, username);
-                // Ensure physical deletion
-               fileStorageService.deleteFile(fileName);
 
             } catch (Exception e) {
                 errors.add("Error deleting file " + fileId + ": " + e.getMessage());
@@ -147,10 +296,10 @@ public class FileService {
     public void moveFile(Long fileId, Long targetFolderId, String username) {
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
         // Check if user has permission to move this file
-        if (!file.getUploader().equals(user)) {
+        if (!file.getUploader().getId().equals(user.getId())) {
             throw new SecurityException("User does not have permission to move this file.");
         }
 
@@ -160,7 +309,7 @@ public class FileService {
                     .orElseThrow(() -> new IllegalArgumentException("Target folder not found"));
 
             // Check if user owns the target folder
-            if (!targetFolder.getUser().equals(user)) {
+            if (!targetFolder.getUser().getId().equals(user.getId())) {
                 throw new SecurityException("User does not have permission to move file to this folder.");
             }
         }
@@ -1,5 +1,6 @@
 package com.app.file_transfer.services;
 
+import com.app.file_transfer.model.File;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -12,58 +13,330 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HexFormat;
+
+/**
+ * Stores uploads, blobs and avatars in a two-level hashed fan-out ({@code ab/cd/<key>}) so no
+ * directory grows past a few thousand entries. Files written before the fan-out still live flat
+ * in their directory; lookups fall back to that location until the migration has moved them.
+ * Artifacts derived from stored content (thumbnails, renditions) live under {@code derived/}, one
+ * directory per content, and are removed together with that content.
+ */
 @Service
 public class FileStorageService {
     private final Path fileStorageLocation;
-
+    private final Path stagingLocation;
+    private final Path blobLocation;
+    private final Path avatarLocation;
+    private final Path derivedLocation;
 
     public FileStorageService() {
-        this.fileStorageLocation = Paths.get("./uploads").toAbsolutePath().normalize();
+        this(Paths.get("./uploads"));
+    }
+
+    // Storage rooted elsewhere, e.g. in a temporary directory
+    FileStorageService(Path root) {
+        this.fileStorageLocation = root.toAbsolutePath().normalize();
+        this.stagingLocation = this.fileStorageLocation.resolve(".staging");
+        this.blobLocation = this.fileStorageLocation.resolve("blobs");
+        this.avatarLocation = this.fileStorageLocation.resolve("avatars");
+        this.derivedLocation = this.fileStorageLocation.resolve("derived");
         try {
             Files.createDirectories(this.fileStorageLocation);
+            Files.createDirectories(this.stagingLocation);
+            Files.createDirectories(this.blobLocation);
+            Files.createDirectories(this.avatarLocation);
+            Files.createDirectories(this.derivedLocation);
         } catch (Exception ex) {
             throw new RuntimeException("Could not create the directory where the uploaded files will be stored.", ex);
         }
     }
 
     public String storeFile(MultipartFile file) {
-    String originalFileName = file.getOriginalFilename();
+        String newFileName = resolveUniqueFileName(file.getOriginalFilename());
+        Path targetLocation = getShardedPath(this.fileStorageLocation, newFileName, hashKey(newFileName));
+
+        try {
+            Files.createDirectories(targetLocation.getParent());
+            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+            return newFileName;
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file " + newFileName + ". Please try again!", ex);
+        }
+    }
+
+    /**
+     * Move a fully assembled file (e.g. a finished chunked upload) into storage
+     */
+    public String storeFile(Path source, String originalFileName) {
+        while (true) {
+            String newFileName = resolveUniqueFileName(originalFileName);
+            Path targetLocation = getShardedPath(this.fileStorageLocation, newFileName, hashKey(newFileName));
+            try {
+                Files.createDirectories(targetLocation.getParent());
+                Files.move(source, targetLocation);
+                return newFileName;
+            } catch (FileAlreadyExistsException ex) {
+                // Another upload claimed the same name in the meantime, pick the next one
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not store file " + newFileName + ". Please try again!", ex);
+            }
+        }
+    }
+
+    /**
+     * Get the directory used to stage partial uploads, on the same file system as the storage
+     */
+    public Path getStagingLocation() {
+        return this.stagingLocation;
+    }
+
+    /**
+     * Get the location of a content-addressed blob: where it currently is, or where it belongs if it does not exist yet
+     */
+    public Path getBlobPath(String sha256) {
+        return locate(this.blobLocation, sha256, sha256);
+    }
+
+    /**
+     * Delete a blob's content from either layout
+     */
+    public void deleteBlob(String sha256) throws IOException {
+        Files.deleteIfExists(getShardedPath(this.blobLocation, sha256, sha256));
+        Files.deleteIfExists(this.blobLocation.resolve(sha256));
+        deleteDerived(blobContentKey(sha256));
+    }
+
+    /**
+     * Get a key identifying a file's content: files sharing a blob share the key, and so their derived artifacts
+     */
+    public String getContentKey(File file) {
+        return file.getBlob() != null ? blobContentKey(file.getBlob().getSha256()) : "file:" + file.getFileName();
+    }
+
+    /**
+     * Get a strong ETag for content: its hash for blobs, or null for files stored under their own name,
+     * whose ETag is derived from size and modification time
+     */
+    public String getContentEtag(String contentKey) {
+        return contentKey.startsWith("blob:") ? "\"" + contentKey.substring("blob:".length()) + "\"" : null;
+    }
+
+    /**
+     * Get the stored content for a key from {@link #getContentKey}, or null if it no longer exists
+     */
+    public Path getContentPath(String contentKey) {
+        Path path;
+        if (contentKey.startsWith("blob:")) {
+            path = getBlobPath(contentKey.substring("blob:".length()));
+        } else if (contentKey.startsWith("file:")) {
+            String fileName = contentKey.substring("file:".length());
+            path = locate(this.fileStorageLocation, fileName, hashKey(fileName));
+        } else {
+            throw new IllegalArgumentException("Unknown content key " + contentKey);
+        }
+        return Files.exists(path) ? path : null;
+    }
+
+    /**
+     * Get the location of an artifact derived from some content, e.g. a thumbnail. The variant is a fixed
+     * file name chosen by the caller (such as {@code thumb-320.jpg}), never user input.
+     */
+    public Path getDerivedPath(String contentKey, String variant) {
+        String hash = hashKey(contentKey);
+        return getShardedPath(this.derivedLocation, hash, hash).resolve(variant).normalize();
+    }
+
+    /**
+     * Get a strong ETag for an artifact derived from some content, which changes with the variant
+     */
+    public String getDerivedEtag(String contentKey, String variant) {
+        return "\"" + hashKey(contentKey) + "-" + variant + "\"";
+    }
+
+    /**
+     * Store an artifact derived from some content. It is written next to its final location and moved
+     * into place, so readers never see a partial artifact.
+     */
+    public Path writeDerived(String contentKey, String variant, byte[] content) throws IOException {
+        return writeDerived(contentKey, variant, temp -> Files.write(temp, content));
+    }
+
+    /**
+     * Store an artifact derived from some content that is too large to hold in memory; the writer fills
+     * a temporary file, which is then moved into place
+     */
+    public Path writeDerived(String contentKey, String variant, DerivedWriter writer) throws IOException {
+        Path target = getDerivedPath(contentKey, variant);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "derived-", ".tmp");
+        try {
+            writer.writeTo(temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target;
+    }
 
-    // Tách tên file và phần mở rộng
-    String fileName = "";
-    String extension = "";
-    int dotIndex = originalFileName.lastIndexOf('.');
-    if (dotIndex > 0) {
-        fileName = originalFileName.substring(0, dotIndex);
-        extension = originalFileName.substring(dotIndex);
-    } else {
-        fileName = originalFileName;
-        extension = "";
+    @FunctionalInterface
+    public interface DerivedWriter {
+        void writeTo(Path temp) throws IOException;
     }
 
-    String newFileName = originalFileName;
-    Path targetLocation = this.fileStorageLocation.resolve(newFileName);
-    int count = 0;
+    /**
+     * Get the content key of an avatar; avatar file names are unique, so their derived artifacts never go stale
+     */
+    public String getAvatarContentKey(String avatarFileName) {
+        return "avatar:" + avatarFileName;
+    }
+
+    /**
+     * Delete every artifact derived from some content
+     */
+    public void deleteDerived(String contentKey) throws IOException {
+        String hash = hashKey(contentKey);
+        Path directory = getShardedPath(this.derivedLocation, hash, hash);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(directory)) {
+            for (Path artifact : artifacts) {
+                Files.deleteIfExists(artifact);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Get the location of an avatar: where it currently is, or where it belongs if it does not exist yet
+     */
+    public Path getAvatarPath(String avatarFileName) {
+        return locate(this.avatarLocation, avatarFileName, hashKey(avatarFileName));
+    }
 
-    // Kiểm tra file đã tồn tại, nếu có thì thêm (count)
-    while (Files.exists(targetLocation)) {
-        count++;
-        newFileName = fileName + "(" + count + ")" + extension;
-        targetLocation = this.fileStorageLocation.resolve(newFileName);
+    /**
+     * Get the value stored in File.filePath for a file stored under its own name
+     */
+    public String getStoredFilePath(String fileName) {
+        return toStoredPath(getShardedPath(this.fileStorageLocation, fileName, hashKey(fileName)));
     }
 
-    try {
-        Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Get the value stored in File.filePath for a file backed by a blob
+     */
+    public String getStoredBlobPath(String sha256) {
+        return toStoredPath(getShardedPath(this.blobLocation, sha256, sha256));
+    }
+
+    /**
+     * Move up to {@code limit} files still stored flat (uploads, blobs and avatars) into the hashed fan-out.
+     * Returns the number of files moved; 0 once nothing is left to migrate.
+     */
+    public int migrateToShardedLayout(int limit) throws IOException {
+        int moved = migrateDirectory(this.fileStorageLocation, limit, false);
+        moved += migrateDirectory(this.blobLocation, limit - moved, true);
+        moved += migrateDirectory(this.avatarLocation, limit - moved, false);
+        return moved;
+    }
+
+    private int migrateDirectory(Path directory, int limit, boolean contentAddressed) throws IOException {
+        int moved = 0;
+        // DirectoryStream reads entries lazily, so huge flat directories are never listed in full
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (moved >= limit) {
+                    break;
+                }
+                if (!Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+
+                String name = entry.getFileName().toString();
+                Path target = getShardedPath(directory, name, contentAddressed ? name : hashKey(name));
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(entry, target);
+                    moved++;
+                } catch (FileAlreadyExistsException ex) {
+                    if (contentAddressed) {
+                        // Same hash, same content: the flat copy is redundant
+                        Files.deleteIfExists(entry);
+                        moved++;
+                    } else {
+                        System.err.println("Cannot migrate " + entry + ": " + target + " already exists");
+                    }
+                }
+            }
+        }
+        return moved;
+    }
+
+    // Prefer the sharded location, fall back to the flat one for files not migrated yet
+    private Path locate(Path root, String key, String hash) {
+        Path sharded = getShardedPath(root, key, hash);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path flat = root.resolve(key).normalize();
+        return Files.exists(flat) ? flat : sharded;
+    }
+
+    private Path getShardedPath(Path root, String key, String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(key).normalize();
+    }
+
+    private String blobContentKey(String sha256) {
+        return "blob:" + sha256;
+    }
+
+    private String toStoredPath(Path path) {
+        return "uploads/" + this.fileStorageLocation.relativize(path).toString().replace('\\', '/');
+    }
+
+    private String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private String resolveUniqueFileName(String originalFileName) {
+        // Tách tên file và phần mở rộng
+        String fileName = "";
+        String extension = "";
+        int dotIndex = originalFileName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            fileName = originalFileName.substring(0, dotIndex);
+            extension = originalFileName.substring(dotIndex);
+        } else {
+            fileName = originalFileName;
+            extension = "";
+        }
+
+        String newFileName = originalFileName;
+        int count = 0;
+
+        // Kiểm tra file đã tồn tại, nếu có thì thêm (count)
+        while (Files.exists(locate(this.fileStorageLocation, newFileName, hashKey(newFileName)))) {
+            count++;
+            newFileName = fileName + "(" + count + ")" + extension;
+        }
         return newFileName;
-    } catch (IOException ex) {
-        throw new RuntimeException("Could not store file " + newFileName + ". Please try again!", ex);
     }
-}
 
 
     public Resource loadFileAsResource(String fileName) {
@@ -80,10 +353,42 @@ public class FileStorageService {
         }
     }
 
+    public Resource loadAvatarAsResource(String avatarFileName) {
+        if (avatarFileName.contains("/") || avatarFileName.contains("\\") || avatarFileName.contains("..")) {
+            throw new RuntimeException("File not found " + avatarFileName);
+        }
+        try {
+            Resource resource = new UrlResource(getAvatarPath(avatarFileName).toUri());
+            if (resource.exists()) {
+                return resource;
+            } else {
+                throw new RuntimeException("File not found " + avatarFileName);
+            }
+        } catch (MalformedURLException ex) {
+            throw new RuntimeException("File not found " + avatarFileName, ex);
+        }
+    }
+
+    /**
+     * Resolve the location of a stored file on disk
+     */
+    public Path getFilePath(File file) {
+        Path filePath = file.getBlob() != null
+                ? getBlobPath(file.getBlob().getSha256())
+                : locate(this.fileStorageLocation, file.getFileName(), hashKey(file.getFileName()));
+        if (!Files.exists(filePath)) {
+            throw new RuntimeException("File not found " + file.getFileName());
+        }
+        return filePath;
+    }
+
     public boolean deleteFile(String fileName) {
         try {
-            Path filePath = this.fileStorageLocation.resolve(fileName).normalize();
-            return Files.deleteIfExists(filePath);
+            // Remove from both layouts in case the migration moved it in the meantime
+            boolean deleted = Files.deleteIfExists(getShardedPath(this.fileStorageLocation, fileName, hashKey(fileName)));
+            deleted = Files.deleteIfExists(this.fileStorageLocation.resolve(fileName).normalize()) || deleted;
+            deleteDerived("file:" + fileName);
+            return deleted;
         } catch (IOException ex) {
             throw new RuntimeException("Could not delete file " + fileName, ex);
         }
@@ -1,14 +1,15 @@
 package com.app.file_transfer.services;
 
+import com.app.file_transfer.model.File;
 import com.app.file_transfer.model.Folder;
 import com.app.file_transfer.model.User;
 import com.app.file_transfer.repository.FolderRepository;
-import com.app.file_transfer.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,19 +21,28 @@ public class FolderService {
     private FolderRepository folderRepository;
 
     @Autowired
-    private UserRepository userRepository;
+    private UserCacheService userCacheService;
 
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private StorageUsageService storageUsageService;
+
+    @Autowired
+    private FileAccessService fileAccessService;
+
     public Folder createFolder(String name, Long parentId, String username, String password) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         Folder parentFolder = null;
         if (parentId != null) {
             parentFolder = folderRepository.findById(parentId)
                     .orElseThrow(() -> new IllegalArgumentException("Parent folder not found"));
             // Ensure the user owns the parent folder
-            if (!parentFolder.getUser().equals(user)) {
+            if (!parentFolder.getUser().getId().equals(user.getId())) {
                 throw new SecurityException("User does not have permission to create a folder here.");
             }
         }
@@ -46,11 +56,11 @@ public class FolderService {
     }
 
     public List<Folder> getSubFolders(Long parentId, String username) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         Folder parentFolder = (parentId == null) ? null : folderRepository.findById(parentId)
                 .orElseThrow(() -> new IllegalArgumentException("Parent folder not found"));
 
-        if (parentId != null && !parentFolder.getUser().equals(user)) {
+        if (parentId != null && !parentFolder.getUser().getId().equals(user.getId())) {
             throw new SecurityException("User does not have permission to view this folder.");
         }
 
@@ -61,9 +71,9 @@ public class FolderService {
     public void setFolderPassword(Long folderId, String password, String username) {
         Folder folder = folderRepository.findById(folderId)
                 .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
-        if (!folder.getUser().equals(user)) {
+        if (!folder.getUser().getId().equals(user.getId())) {
             throw new SecurityException("User does not have permission to set password for this folder.");
         }
 
@@ -87,21 +97,37 @@ public class FolderService {
     public void deleteFolder(Long folderId, String username) {
         Folder folder = folderRepository.findById(folderId)
                 .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
         // Check if user has permission to delete this folder
-        if (!folder.getUser().equals(user)) {
+        if (!folder.getUser().getId().equals(user.getId())) {
             throw new SecurityException("User does not have permission to delete this folder.");
         }
 
+        // Files are removed by cascade, so update usage and release their stored content first
+        List<Long> fileIds = new ArrayList<>();
+        releaseStoredContent(folder, fileIds);
+        fileAccessService.invalidate(fileIds);
+
         // Delete folder from database
         // Note: Due to cascade settings, this will also delete all subfolders and files
         folderRepository.delete(folder);
     }
 
+    private void releaseStoredContent(Folder folder, List<Long> fileIds) {
+        for (File file : folder.getFiles()) {
+            storageUsageService.recordFileRemoved(file);
+            fileIds.add(file.getId());
+            fileService.releaseStoredContent(file);
+        }
+        for (Folder subFolder : folder.getSubFolders()) {
+            releaseStoredContent(subFolder, fileIds);
+        }
+    }
+
     // Delete multiple folders
     public void deleteFolders(List<Long> folderIds, String username) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
 
         for (Long folderId : folderIds) {
             try {
@@ -0,0 +1,240 @@
+package com.app.file_transfer.services;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JPEG renditions of images resized to a requested width and quality, for previews and avatars.
+ * Each rendition is computed once and stored as a derived artifact of its content, with the most
+ * recently used ones kept in memory up to a byte budget. Concurrent requests for the same rendition
+ * share a single decode.
+ */
+@Service
+public class ImageRenditionService {
+
+    // Requested widths are rounded up to one of these, so odd sizes cannot fill the caches with near-duplicates
+    public static final int[] WIDTHS = {64, 128, 256, 480, 720, 1080, 1440, 1920};
+    public static final int DEFAULT_QUALITY = 80;
+
+    private static final int MIN_QUALITY = 30;
+    private static final int MAX_QUALITY = 95;
+
+    // How long a request waits for a rendition before answering "busy, retry later"
+    private static final long WAIT_SECONDS = 20;
+
+    private static final long MAX_MEMORY_BYTES = 64L * 1024 * 1024;
+
+    // Larger renditions are served from disk only, so a few of them cannot push everything else out
+    private static final int MAX_ENTRY_BYTES = 2 * 1024 * 1024;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private RangeRequestService rangeRequestService;
+
+    // Decodes run on the preview pool, so large images cannot tie up request threads
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // Access-ordered LinkedHashMap: the least recently used renditions are evicted first
+    private final Map<String, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+
+    // One decode per rendition at a time; later requests for it wait for the same result
+    private final Map<String, CompletableFuture<Rendition>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Get a rendition of an image, computing it if needed. Returns null if the image cannot be decoded.
+     *
+     * @throws IoSchedulingService.SaturatedException if it must be computed and the preview pool is busy
+     */
+    public Rendition getRendition(String contentKey, Path source, Integer width, Integer quality) {
+        int targetWidth = normalizeWidth(width);
+        int targetQuality = normalizeQuality(quality);
+        String variant = variant(targetWidth, targetQuality);
+        String key = contentKey + "|" + variant;
+
+        byte[] cached = getFromMemory(key);
+        if (cached != null) {
+            return rendition(contentKey, variant, fileStorageService.getDerivedPath(contentKey, variant), cached);
+        }
+
+        try {
+            return ioSchedulingService.call(() -> render(key, contentKey, variant, source, targetWidth, targetQuality),
+                    WAIT_SECONDS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not resize " + source.getFileName(), e);
+        }
+    }
+
+    private Rendition render(String key, String contentKey, String variant, Path source, int targetWidth, int targetQuality) {
+        CompletableFuture<Rendition> own = new CompletableFuture<>();
+        CompletableFuture<Rendition> running = inFlight.putIfAbsent(key, own);
+        if (running != null) {
+            return join(running);
+        }
+
+        try {
+            Rendition rendition = load(key, contentKey, variant, source, targetWidth, targetQuality);
+            own.complete(rendition);
+            return rendition;
+        } catch (IOException e) {
+            own.completeExceptionally(e);
+            throw new UncheckedIOException("Could not resize " + source.getFileName(), e);
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Write a rendition from memory when it is cached there, otherwise from disk with Range support.
+     * Either way a matching If-None-Match is answered with a 304.
+     */
+    public void write(Rendition rendition, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (rendition.getContent() == null) {
+            rangeRequestService.serve(request, response, rendition.getPath(), MediaType.IMAGE_JPEG, rendition.getEtag());
+            return;
+        }
+
+        if (new ServletWebRequest(request, response).checkNotModified(rendition.getEtag())) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, rendition.getEtag());
+        response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+        response.setContentLength(rendition.getContent().length);
+        if (!"HEAD".equals(request.getMethod())) {
+            response.getOutputStream().write(rendition.getContent());
+        }
+    }
+
+    /**
+     * Round a requested width up to the closest fixed width
+     */
+    public static int normalizeWidth(Integer width) {
+        if (width == null) {
+            return WIDTHS[WIDTHS.length - 1];
+        }
+        for (int candidate : WIDTHS) {
+            if (candidate >= width) {
+                return candidate;
+            }
+        }
+        return WIDTHS[WIDTHS.length - 1];
+    }
+
+    /**
+     * Clamp a requested JPEG quality (percent) and round it to a multiple of 5
+     */
+    public static int normalizeQuality(Integer quality) {
+        if (quality == null) {
+            return DEFAULT_QUALITY;
+        }
+        int clamped = Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+        return Math.round(clamped / 5.0f) * 5;
+    }
+
+    private Rendition load(String key, String contentKey, String variant, Path source,
+                           int width, int quality) throws IOException {
+        // Computed earlier, possibly before a restart
+        Path stored = fileStorageService.getDerivedPath(contentKey, variant);
+        if (Files.exists(stored)) {
+            byte[] content = Files.size(stored) <= MAX_ENTRY_BYTES ? Files.readAllBytes(stored) : null;
+            putInMemory(key, content);
+            return rendition(contentKey, variant, stored, content);
+        }
+
+        BufferedImage image = ThumbnailService.readSubsampled(source, width, Integer.MAX_VALUE);
+        if (image == null) {
+            return null;
+        }
+
+        byte[] content = ThumbnailService.encodeJpeg(ThumbnailService.resize(image, width, Integer.MAX_VALUE), quality / 100f);
+        Path path = fileStorageService.writeDerived(contentKey, variant, content);
+        if (content.length > MAX_ENTRY_BYTES) {
+            return rendition(contentKey, variant, path, null);
+        }
+        putInMemory(key, content);
+        return rendition(contentKey, variant, path, content);
+    }
+
+    private Rendition rendition(String contentKey, String variant, Path path, byte[] content) {
+        return new Rendition(path, content, fileStorageService.getDerivedEtag(contentKey, variant));
+    }
+
+    private byte[] getFromMemory(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    private void putInMemory(String key, byte[] content) {
+        if (content == null) {
+            return;
+        }
+        synchronized (memory) {
+            byte[] previous = memory.put(key, content);
+            memoryBytes += content.length - (previous != null ? previous.length : 0);
+
+            Iterator<byte[]> eldest = memory.values().iterator();
+            while (memoryBytes > MAX_MEMORY_BYTES && eldest.hasNext()) {
+                memoryBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static Rendition join(CompletableFuture<Rendition> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    private static String variant(int width, int quality) {
+        return "w" + width + "-q" + quality + ".jpg";
+    }
+
+    /**
+     * A stored rendition, with its bytes when they are cached in memory and an ETag for its content and variant
+     */
+    public static class Rendition {
+        private final Path path;
+        private final byte[] content;
+        private final String etag;
+
+        public Rendition(Path path, byte[] content, String etag) {
+            this.path = path;
+            this.content = content;
+            this.etag = etag;
+        }
+
+        public Path getPath() { return path; }
+        public byte[] getContent() { return content; }
+        public String getEtag() { return etag; }
+    }
+}
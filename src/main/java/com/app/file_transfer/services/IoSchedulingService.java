@@ -0,0 +1,283 @@
+package com.app.file_transfer.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps kinds of I/O work apart, so one kind cannot take the whole server down with it. Preview work
+ * (PDF pages, image renditions, document, text and archive previews, thumbnails made on request) and
+ * background work (thumbnails and video preparation after upload) each get a small bounded pool.
+ * Streamed responses run on the async executor, but only so many streams and bulk archives may run at
+ * once, with a share per user. The caps count bodies written by the JVM only: a region handed to
+ * Tomcat's sendfile holds no thread, and Tomcat says nothing when it is done, so its slot is given back
+ * as soon as the handoff is made. Work that does not fit is refused straight away: a {@link SaturatedException}, answered with 503 (or 429 for a user over their share)
+ * and Retry-After. Background work is dropped instead; it is redone on request.
+ */
+@Service
+public class IoSchedulingService {
+
+    public static final int RETRY_AFTER_SECONDS = 5;
+
+    // A user may hold at most this fraction of a class's stream slots
+    private static final int USER_SHARE_DIVISOR = 4;
+
+    @Value("${file-storage.io.preview.threads:4}")
+    private int previewThreads;
+
+    @Value("${file-storage.io.preview.queue:32}")
+    private int previewQueue;
+
+    @Value("${file-storage.io.streaming.max-active:150}")
+    private int streamingSlots;
+
+    @Value("${file-storage.io.bulk.max-active:16}")
+    private int bulkSlots;
+
+    @Value("${file-storage.io.background.threads:2}")
+    private int backgroundThreads;
+
+    @Value("${file-storage.io.background.queue:1000}")
+    private int backgroundQueue;
+
+    private ThreadPoolExecutor previewExecutor;
+    private ThreadPoolExecutor backgroundExecutor;
+    private Slots streaming;
+    private Slots bulk;
+
+    @PostConstruct
+    public void init() {
+        previewExecutor = pool("io-preview-", previewThreads, previewQueue, new ThreadPoolExecutor.AbortPolicy());
+        backgroundExecutor = pool("io-background-", backgroundThreads, backgroundQueue, new ThreadPoolExecutor.DiscardPolicy());
+        streaming = new Slots(IoClass.STREAMING, streamingSlots);
+        bulk = new Slots(IoClass.BULK, bulkSlots);
+    }
+
+    /**
+     * Kinds of I/O work, from most to least latency-sensitive
+     */
+    public enum IoClass {
+        // Renders a user is looking at a spinner for
+        PREVIEW,
+        // Video and single file downloads
+        STREAMING,
+        // ZIP archives of many files
+        BULK,
+        // Work after upload that nobody waits for
+        BACKGROUND
+    }
+
+    /**
+     * Executor for preview or background work. The preview one throws RejectedExecutionException when
+     * full; the background one silently drops the task.
+     */
+    public Executor executor(IoClass ioClass) {
+        return switch (ioClass) {
+            case PREVIEW -> previewExecutor;
+            case BACKGROUND -> backgroundExecutor;
+            default -> throw new IllegalArgumentException(ioClass + " work is not run on a pool of its own");
+        };
+    }
+
+    /**
+     * Run preview work and wait for its result
+     *
+     * @throws SaturatedException if the preview pool is full, or the work takes longer than the timeout
+     */
+    public <T> T call(Callable<T> work, long timeoutSeconds) throws IOException {
+        FutureTask<T> task = new FutureTask<>(work);
+        try {
+            previewExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new SaturatedException(IoClass.PREVIEW, false);
+        }
+
+        try {
+            return task.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // Left to finish; work caches its result for the retry
+            throw new SaturatedException(IoClass.PREVIEW, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SaturatedException(IoClass.PREVIEW, false);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Preview work failed", cause);
+        }
+    }
+
+    /**
+     * Admit a streamed response. The response is prepared while holding a slot of the class, which is
+     * given back once the returned body has been written, or right away if there is none (headers only,
+     * or handed to sendfile).
+     *
+     * @throws SaturatedException if the class, or the user's share of it, is full
+     */
+    public StreamingResponseBody stream(IoClass ioClass, String username, BodySupplier supplier) throws IOException {
+        Slots slots = switch (ioClass) {
+            case STREAMING -> streaming;
+            case BULK -> bulk;
+            default -> throw new IllegalArgumentException(ioClass + " work is not streamed");
+        };
+        return admit(slots, username, supplier);
+    }
+
+    static StreamingResponseBody admit(Slots slots, String username, BodySupplier supplier) throws IOException {
+        String user = username != null ? username : "";
+        slots.acquire(user);
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                slots.release(user);
+            }
+        };
+
+        StreamingResponseBody body;
+        try {
+            body = supplier.get();
+        } catch (IOException | RuntimeException e) {
+            release.run();
+            throw e;
+        }
+        if (body == null) {
+            release.run();
+            return null;
+        }
+        return outputStream -> {
+            try {
+                body.writeTo(outputStream);
+            } finally {
+                release.run();
+            }
+        };
+    }
+
+    /**
+     * Check if work of a class is waiting, so maintenance can hold back
+     */
+    public boolean isBusy(IoClass ioClass) {
+        return switch (ioClass) {
+            case PREVIEW -> !previewExecutor.getQueue().isEmpty();
+            case STREAMING -> streaming.isBusy();
+            case BULK -> bulk.isBusy();
+            case BACKGROUND -> !backgroundExecutor.getQueue().isEmpty();
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        previewExecutor.shutdownNow();
+        backgroundExecutor.shutdownNow();
+    }
+
+    private static ThreadPoolExecutor pool(String name, int threads, int queue, RejectedExecutionHandler handler) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)), daemonThreads(name), handler);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    public interface BodySupplier {
+        StreamingResponseBody get() throws IOException;
+    }
+
+    /**
+     * Counts of running streams of a class, overall and per user
+     */
+    static final class Slots {
+        private final IoClass ioClass;
+        private final int limit;
+        private final int perUserLimit;
+        private final Map<String, Integer> perUser = new HashMap<>();
+        private int active;
+
+        Slots(IoClass ioClass, int limit) {
+            this.ioClass = ioClass;
+            this.limit = limit;
+            this.perUserLimit = Math.max(1, limit / USER_SHARE_DIVISOR);
+        }
+
+        synchronized void acquire(String username) {
+            if (active >= limit) {
+                throw new SaturatedException(ioClass, false);
+            }
+            int held = perUser.getOrDefault(username, 0);
+            if (held >= perUserLimit) {
+                throw new SaturatedException(ioClass, true);
+            }
+            active++;
+            perUser.put(username, held + 1);
+        }
+
+        synchronized void release(String username) {
+            active--;
+            int held = perUser.getOrDefault(username, 1) - 1;
+            if (held > 0) {
+                perUser.put(username, held);
+            } else {
+                perUser.remove(username);
+            }
+        }
+
+        // Three quarters full: close enough to refusing work that maintenance should wait
+        synchronized boolean isBusy() {
+            return active * 4 >= limit * 3;
+        }
+    }
+
+    /**
+     * Work refused because its class is full; answered with 503, or 429 when it is the user's share
+     * that is full, and Retry-After
+     */
+    public static class SaturatedException extends RejectedExecutionException {
+        private static final long serialVersionUID = 1L;
+
+        private final IoClass ioClass;
+        private final boolean perUser;
+
+        public SaturatedException(IoClass ioClass, boolean perUser) {
+            super(perUser ? "Too many " + ioClass.name().toLowerCase() + " requests for this user"
+                    : "The server is busy with " + ioClass.name().toLowerCase() + " work");
+            this.ioClass = ioClass;
+            this.perUser = perUser;
+        }
+
+        public IoClass getIoClass() { return ioClass; }
+        public boolean isPerUser() { return perUser; }
+    }
+}
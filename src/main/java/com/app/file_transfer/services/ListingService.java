@@ -0,0 +1,183 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import com.app.file_transfer.model.Folder;
+import com.app.file_transfer.model.User;
+import com.app.file_transfer.repository.FileRepository;
+import com.app.file_transfer.repository.FolderRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Cursor-based pages of files and folders, newest first. A cursor holds the (createdAt, id) of the last
+ * row returned, so each page is one index range scan whatever the size of the account.
+ */
+@Service
+public class ListingService {
+
+    public static final int PAGE_SIZE = 50;
+
+    // Start of every listing: after the newest possible row (MySQL DATETIME ends at year 9999)
+    private static final LocalDateTime FIRST_CREATED_AT = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    /**
+     * Get a page of the files directly in a folder (or in the root when folder is null)
+     */
+    public CursorPage<File> getFolderFiles(User user, Folder folder, String cursor) {
+        Cursor position = decodeCursor(cursor);
+        List<File> rows = folder == null
+                ? fileRepository.findRootPage(user, position.createdAt, position.id, nextPage())
+                : fileRepository.findFolderPage(user, folder, position.createdAt, position.id, nextPage());
+        return toPage(rows, File::getCreatedAt, File::getId);
+    }
+
+    /**
+     * Get a page of the subfolders of a folder (or of the root when parent is null)
+     */
+    public CursorPage<Folder> getSubFolders(User user, Folder parent, String cursor) {
+        Cursor position = decodeCursor(cursor);
+        List<Folder> rows = parent == null
+                ? folderRepository.findRootPage(user, position.createdAt, position.id, nextPage())
+                : folderRepository.findChildPage(user, parent, position.createdAt, position.id, nextPage());
+        return toPage(rows, Folder::getCreatedAt, Folder::getId);
+    }
+
+    /**
+     * Get a page of all folders of a user, e.g. as move targets
+     */
+    public CursorPage<Folder> getAllFolders(User user, String cursor) {
+        Cursor position = decodeCursor(cursor);
+        return toPage(folderRepository.findUserPage(user, position.createdAt, position.id, nextPage()),
+                Folder::getCreatedAt, Folder::getId);
+    }
+
+    /**
+     * Get a page of all files uploaded by a user
+     */
+    public CursorPage<File> getUploadedFiles(User user, String cursor) {
+        Cursor position = decodeCursor(cursor);
+        return toPage(fileRepository.findUploadedPage(user, position.createdAt, position.id, nextPage()),
+                File::getCreatedAt, File::getId);
+    }
+
+    /**
+     * Get a page of the files shared with a user
+     */
+    public CursorPage<File> getReceivedFiles(User user, String cursor) {
+        Cursor position = decodeCursor(cursor);
+        return toPage(fileRepository.findReceivedPage(user, position.createdAt, position.id, nextPage()),
+                File::getCreatedAt, File::getId);
+    }
+
+    /**
+     * Count the subfolders and files of each folder with two grouped queries, instead of loading
+     * both collections of every folder. Folders without items are left out.
+     */
+    public Map<Long, Long> countFolderItems(List<Folder> folders) {
+        Map<Long, Long> counts = new HashMap<>();
+        if (folders.isEmpty()) {
+            return counts;
+        }
+
+        List<Long> folderIds = folders.stream().map(Folder::getId).collect(Collectors.toList());
+        for (Object[] row : folderRepository.countByParentIds(folderIds)) {
+            counts.merge((Long) row[0], (Long) row[1], Long::sum);
+        }
+        for (Object[] row : fileRepository.countByFolderIds(folderIds)) {
+            counts.merge((Long) row[0], (Long) row[1], Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Encode the position after a row as an opaque, URL-safe cursor
+     */
+    public static String encodeCursor(LocalDateTime createdAt, Long id) {
+        String value = createdAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor; an empty cursor means the first page
+     */
+    static Cursor decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return new Cursor(FIRST_CREATED_AT, Long.MAX_VALUE);
+        }
+
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new Cursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.parseLong(value.substring(separator + 1)));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    // One extra row tells whether there is a next page without a count query
+    private Pageable nextPage() {
+        return PageRequest.of(0, PAGE_SIZE + 1);
+    }
+
+    private <T> CursorPage<T> toPage(List<T> rows, Function<T, LocalDateTime> createdAt, Function<T, Long> id) {
+        if (rows.size() <= PAGE_SIZE) {
+            return new CursorPage<>(rows, null);
+        }
+
+        List<T> items = rows.subList(0, PAGE_SIZE);
+        T last = items.get(PAGE_SIZE - 1);
+        return new CursorPage<>(items, encodeCursor(createdAt.apply(last), id.apply(last)));
+    }
+
+    /**
+     * Position in a listing
+     */
+    static class Cursor {
+        final LocalDateTime createdAt;
+        final Long id;
+
+        Cursor(LocalDateTime createdAt, Long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+    }
+
+    /**
+     * One page of a listing with the cursor of the next page, or null when this is the last one
+     */
+    public static class CursorPage<T> {
+        private final List<T> items;
+        private final String nextCursor;
+
+        public CursorPage(List<T> items, String nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<T> getItems() { return items; }
+        public String getNextCursor() { return nextCursor; }
+        public boolean hasNext() { return nextCursor != null; }
+    }
+}
@@ -0,0 +1,341 @@
+package com.app.file_transfer.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal MP4 (ISO base media file) reader, enough for streaming: where the top-level boxes are, the
+ * sample tables of the movie box ({@code moov}), and a "faststart" copy with the movie box moved in
+ * front of the media data. Only the movie box is read into memory; media data is copied channel to
+ * channel. Fragmented files ({@code moof}) are not rewritten.
+ */
+final class Mp4File {
+
+    // Movie boxes larger than this are not read into memory
+    static final int MAX_MOOV_BYTES = 64 * 1024 * 1024;
+
+    // Without a sync sample table every sample is a keyframe; keep about one per second of them
+    private static final long MIN_KEYFRAME_GAP_MS = 1000;
+
+    private Mp4File() {
+    }
+
+    /**
+     * Read the type, offset and size of each top-level box
+     */
+    static List<Box> readBoxes(FileChannel channel) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        while (position + 8 <= size) {
+            ByteBuffer header = read(channel, position, (int) Math.min(16, size - position));
+            long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+            String type = type(header, 4);
+            int headerLength = 8;
+            if (boxSize == 1 && header.limit() >= 16) {
+                boxSize = header.getLong(8);
+                headerLength = 16;
+            } else if (boxSize == 0) {
+                boxSize = size - position;
+            }
+            if (boxSize < headerLength || position + boxSize > size) {
+                throw new IllegalArgumentException("Corrupt MP4 file");
+            }
+            boxes.add(new Box(type, position, boxSize));
+            position += boxSize;
+        }
+        return boxes;
+    }
+
+    static Box find(List<Box> boxes, String type) {
+        for (Box box : boxes) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the movie box comes after the media data, so a player has to fetch the end of the
+     * file before it can start
+     */
+    static boolean needsFaststart(List<Box> boxes) {
+        Box moov = find(boxes, "moov");
+        Box mdat = find(boxes, "mdat");
+        return moov != null && mdat != null && find(boxes, "moof") == null && moov.offset > mdat.offset
+                && (boxes.get(0).type.equals("ftyp") || boxes.get(0) == mdat);
+    }
+
+    static ByteBuffer readBox(FileChannel channel, Box box) throws IOException {
+        if (box.size > MAX_MOOV_BYTES) {
+            throw new IllegalArgumentException("Movie box too large");
+        }
+        return read(channel, box.offset, (int) box.size);
+    }
+
+    /**
+     * Add shift to every chunk offset of every track, as when the movie box is moved in front of the
+     * media data. Fails if a 32-bit offset table would overflow.
+     */
+    static void shiftChunkOffsets(ByteBuffer moov, long shift) {
+        for (Child trak : children(moov, root(moov), "trak")) {
+            Child stbl = path(moov, trak, "mdia", "minf", "stbl");
+            if (stbl == null) {
+                continue;
+            }
+            Child stco = child(moov, stbl, "stco");
+            Child co64 = child(moov, stbl, "co64");
+            if (stco != null) {
+                int count = moov.getInt(stco.content + 4);
+                for (int i = 0; i < count; i++) {
+                    int at = stco.content + 8 + i * 4;
+                    long offset = (moov.getInt(at) & 0xFFFFFFFFL) + shift;
+                    if (offset > 0xFFFFFFFFL) {
+                        throw new IllegalStateException("Chunk offsets do not fit in 32 bits once moved");
+                    }
+                    moov.putInt(at, (int) offset);
+                }
+            } else if (co64 != null) {
+                int count = moov.getInt(co64.content + 4);
+                for (int i = 0; i < count; i++) {
+                    int at = co64.content + 8 + i * 8;
+                    moov.putLong(at, moov.getLong(at) + shift);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the file with the given movie box right after the file type box, followed by every other
+     * box in its original order
+     */
+    static void writeFaststart(FileChannel in, List<Box> boxes, ByteBuffer moov, FileChannel out) throws IOException {
+        Box first = boxes.get(0);
+        if (first.type.equals("ftyp")) {
+            copy(in, first, out);
+        }
+        ByteBuffer movie = moov.duplicate().clear();
+        while (movie.hasRemaining()) {
+            out.write(movie);
+        }
+        for (Box box : boxes) {
+            if (!box.type.equals("moov") && !(box == first && box.type.equals("ftyp"))) {
+                copy(in, box, out);
+            }
+        }
+    }
+
+    private static void copy(FileChannel in, Box box, FileChannel out) throws IOException {
+        long copied = 0;
+        while (copied < box.size) {
+            long transferred = in.transferTo(box.offset + copied, box.size - copied, out);
+            if (transferred <= 0) {
+                throw new IOException("Could not copy " + box.type + " box");
+            }
+            copied += transferred;
+        }
+    }
+
+    /**
+     * Times and byte offsets of the keyframes of the first video track; null if there is none or its
+     * sample tables cannot be read. Times are decoding times, which is what seeking lands on.
+     */
+    static VideoIndexService.KeyframeIndex keyframes(ByteBuffer moov) {
+        Child root = root(moov);
+        long durationMs = 0;
+        Child mvhd = child(moov, root, "mvhd");
+        if (mvhd != null) {
+            boolean v1 = moov.get(mvhd.content) == 1;
+            long timescale = moov.getInt(mvhd.content + (v1 ? 20 : 12)) & 0xFFFFFFFFL;
+            long duration = v1 ? moov.getLong(mvhd.content + 24) : moov.getInt(mvhd.content + 16) & 0xFFFFFFFFL;
+            durationMs = timescale > 0 ? duration * 1000 / timescale : 0;
+        }
+
+        for (Child trak : children(moov, root, "trak")) {
+            Child mdia = child(moov, trak, "mdia");
+            Child hdlr = mdia != null ? child(moov, mdia, "hdlr") : null;
+            if (hdlr == null || !type(moov, hdlr.content + 8).equals("vide")) {
+                continue;
+            }
+            Child mdhd = child(moov, mdia, "mdhd");
+            Child stbl = path(moov, mdia, "minf", "stbl");
+            if (mdhd == null || stbl == null) {
+                return null;
+            }
+            boolean v1 = moov.get(mdhd.content) == 1;
+            long timescale = moov.getInt(mdhd.content + (v1 ? 20 : 12)) & 0xFFFFFFFFL;
+            if (timescale == 0) {
+                return null;
+            }
+            return keyframes(moov, stbl, timescale, durationMs);
+        }
+        return null;
+    }
+
+    private static VideoIndexService.KeyframeIndex keyframes(ByteBuffer moov, Child stbl, long timescale, long durationMs) {
+        Child stts = child(moov, stbl, "stts");
+        Child stsc = child(moov, stbl, "stsc");
+        Child stsz = child(moov, stbl, "stsz");
+        Child stss = child(moov, stbl, "stss");
+        Child stco = child(moov, stbl, "stco");
+        Child co64 = child(moov, stbl, "co64");
+        if (stts == null || stsc == null || stsz == null || (stco == null && co64 == null)) {
+            return null;
+        }
+
+        int uniformSize = moov.getInt(stsz.content + 4);
+        int sampleCount = moov.getInt(stsz.content + 8);
+        int chunkCount = moov.getInt((stco != null ? stco : co64).content + 4);
+        int stscCount = moov.getInt(stsc.content + 4);
+        int sttsCount = moov.getInt(stts.content + 4);
+        int stssCount = stss != null ? moov.getInt(stss.content + 4) : 0;
+
+        long[] times = new long[64];
+        long[] offsets = new long[64];
+        int keyframes = 0;
+
+        int sample = 0;
+        int nextSync = 0;
+        long time = 0;
+        int sttsEntry = 0;
+        long sttsLeft = sttsCount > 0 ? moov.getInt(stts.content + 8) & 0xFFFFFFFFL : 0;
+        int stscEntry = 0;
+
+        for (int chunk = 1; chunk <= chunkCount && sample < sampleCount; chunk++) {
+            while (stscEntry + 1 < stscCount && moov.getInt(stsc.content + 8 + (stscEntry + 1) * 12) <= chunk) {
+                stscEntry++;
+            }
+            int samplesInChunk = moov.getInt(stsc.content + 8 + stscEntry * 12 + 4);
+            long offset = stco != null
+                    ? moov.getInt(stco.content + 8 + (chunk - 1) * 4) & 0xFFFFFFFFL
+                    : moov.getLong(co64.content + 8 + (chunk - 1) * 8);
+
+            for (int i = 0; i < samplesInChunk && sample < sampleCount; i++) {
+                // Sync sample numbers start at 1
+                boolean sync;
+                if (stss == null) {
+                    sync = keyframes == 0 || (time * 1000 / timescale) - times[keyframes - 1] >= MIN_KEYFRAME_GAP_MS;
+                } else {
+                    while (nextSync < stssCount && moov.getInt(stss.content + 8 + nextSync * 4) < sample + 1) {
+                        nextSync++;
+                    }
+                    sync = nextSync < stssCount && moov.getInt(stss.content + 8 + nextSync * 4) == sample + 1;
+                }
+                if (sync) {
+                    if (keyframes == times.length) {
+                        times = Arrays.copyOf(times, keyframes * 2);
+                        offsets = Arrays.copyOf(offsets, keyframes * 2);
+                    }
+                    times[keyframes] = time * 1000 / timescale;
+                    offsets[keyframes] = offset;
+                    keyframes++;
+                }
+
+                offset += uniformSize != 0 ? uniformSize : moov.getInt(stsz.content + 12 + sample * 4) & 0xFFFFFFFFL;
+                while (sttsLeft == 0 && sttsEntry + 1 < sttsCount) {
+                    sttsEntry++;
+                    sttsLeft = moov.getInt(stts.content + 8 + sttsEntry * 8) & 0xFFFFFFFFL;
+                }
+                time += moov.getInt(stts.content + 8 + sttsEntry * 8 + 4) & 0xFFFFFFFFL;
+                sttsLeft--;
+                sample++;
+            }
+        }
+        return new VideoIndexService.KeyframeIndex(durationMs, Arrays.copyOf(times, keyframes), Arrays.copyOf(offsets, keyframes));
+    }
+
+    // Boxes inside the movie box, addressed by their position in its buffer
+
+    static class Child {
+        final String type;
+        final int content;
+        final int end;
+
+        Child(String type, int content, int end) {
+            this.type = type;
+            this.content = content;
+            this.end = end;
+        }
+    }
+
+    private static Child root(ByteBuffer moov) {
+        int headerLength = moov.getInt(0) == 1 ? 16 : 8;
+        return new Child("moov", headerLength, moov.limit());
+    }
+
+    private static List<Child> children(ByteBuffer moov, Child parent, String type) {
+        List<Child> found = new ArrayList<>();
+        int position = parent.content;
+        while (position + 8 <= parent.end) {
+            long size = moov.getInt(position) & 0xFFFFFFFFL;
+            int headerLength = 8;
+            if (size == 1 && position + 16 <= parent.end) {
+                size = moov.getLong(position + 8);
+                headerLength = 16;
+            } else if (size == 0) {
+                size = parent.end - position;
+            }
+            if (size < headerLength || position + size > parent.end) {
+                throw new IllegalArgumentException("Corrupt MP4 movie box");
+            }
+            if (type(moov, position + 4).equals(type)) {
+                found.add(new Child(type, position + headerLength, (int) (position + size)));
+            }
+            position += (int) size;
+        }
+        return found;
+    }
+
+    private static Child child(ByteBuffer moov, Child parent, String type) {
+        List<Child> found = children(moov, parent, type);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private static Child path(ByteBuffer moov, Child parent, String... types) {
+        Child current = parent;
+        for (String type : types) {
+            current = child(moov, current, type);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    private static String type(ByteBuffer buffer, int at) {
+        byte[] type = new byte[4];
+        buffer.get(at, type);
+        return new String(type, StandardCharsets.ISO_8859_1);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IllegalArgumentException("Corrupt MP4 file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * A top-level box
+     */
+    static class Box {
+        final String type;
+        final long offset;
+        final long size;
+
+        Box(String type, long offset, long size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,759 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Lightweight HTML previews of Word, Excel and PowerPoint files (docx, xlsx, pptx). These are zip
+ * archives of XML parts, which are read with a streaming (StAX) parser that stops as soon as it has
+ * enough to show: the first rows of each sheet, the first slides, the start of a document. Memory
+ * stays bounded whatever the size of the file. Each preview is made once and stored as a derived
+ * artifact of the content. The older binary formats (doc, xls, ppt) are not supported.
+ */
+@Service
+public class OfficePreviewService {
+
+    static final int MAX_ROWS = 200;
+    static final int MAX_COLUMNS = 50;
+    static final int MAX_SHEETS = 5;
+    static final int MAX_SLIDES = 100;
+    static final int MAX_TEXT_CHARS = 200_000;
+
+    // Longest cell or shared string kept; the rest is cut
+    private static final int MAX_VALUE_CHARS = 1_000;
+
+    // Bump when the markup changes, so previews made by an older version are not served
+    private static final String VARIANT = "office-v1.html";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    // How long a request waits for a conversion before answering "busy, retry later"
+    private static final long WAIT_SECONDS = 20;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // Conversions run on the preview pool, so large documents cannot tie up request threads
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // One conversion per content at a time; concurrent requests wait for the same result
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Check if a file is in one of the formats previewed as HTML
+     */
+    public boolean isSupported(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".docx") || name.endsWith(".xlsx") || name.endsWith(".pptx");
+    }
+
+    /**
+     * Get the HTML preview of a document, making it if needed. Returns null if the file is not a
+     * supported document or cannot be read.
+     *
+     * @throws IoSchedulingService.SaturatedException if it must be made and the preview pool is busy
+     */
+    public Path getPreview(File file) {
+        if (!isSupported(file.getFileName())) {
+            return null;
+        }
+        String contentKey = fileStorageService.getContentKey(file);
+        Path stored = fileStorageService.getDerivedPath(contentKey, VARIANT);
+        if (Files.exists(stored)) {
+            return stored;
+        }
+
+        try {
+            return ioSchedulingService.call(() -> convert(file, contentKey), WAIT_SECONDS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Path convert(File file, String contentKey) {
+        CompletableFuture<Path> own = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(contentKey, own);
+        if (running != null) {
+            return running.join();
+        }
+
+        Path preview = null;
+        try {
+            String html = render(fileStorageService.getFilePath(file), file.getFileName());
+            preview = fileStorageService.writeDerived(contentKey, VARIANT, html.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            System.err.println("Could not preview " + file.getFileName() + ": " + e.getMessage());
+        } finally {
+            inFlight.remove(contentKey);
+            own.complete(preview);
+        }
+        return preview;
+    }
+
+    /**
+     * Convert a document to a standalone HTML page
+     */
+    static String render(Path source, String fileName) throws IOException, XMLStreamException {
+        StringBuilder body = new StringBuilder();
+        try (ZipFile zip = new ZipFile(source.toFile())) {
+            String name = fileName.toLowerCase();
+            if (name.endsWith(".xlsx")) {
+                renderWorkbook(zip, body);
+            } else if (name.endsWith(".pptx")) {
+                renderPresentation(zip, body);
+            } else {
+                renderDocument(zip, body);
+            }
+        }
+        return "<!DOCTYPE html><html><head><meta charset=\"utf-8\"><style>" + STYLE + "</style></head><body>"
+                + body + "</body></html>";
+    }
+
+    private static final String STYLE = "body{font-family:system-ui,sans-serif;font-size:14px;color:#1f2937;margin:16px;line-height:1.5}"
+            + "table{border-collapse:collapse;margin-bottom:16px}td,th{border:1px solid #e5e7eb;padding:2px 6px;"
+            + "white-space:pre-wrap;vertical-align:top}th{background:#f9fafb;color:#6b7280;font-weight:normal}"
+            + "h2{font-size:16px;margin:16px 0 8px}section{border:1px solid #e5e7eb;border-radius:8px;padding:12px;"
+            + "margin-bottom:12px}.note{color:#6b7280;font-style:italic}";
+
+    // Spreadsheets
+
+    private static void renderWorkbook(ZipFile zip, StringBuilder html) throws IOException, XMLStreamException {
+        Map<String, String> relations = readRelationships(zip, "xl/_rels/workbook.xml.rels", "xl/");
+        List<String[]> sheets = new ArrayList<>();
+        XMLStreamReader reader = open(zip, "xl/workbook.xml");
+        try {
+            while (reader.hasNext() && sheets.size() < MAX_SHEETS) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "sheet".equals(reader.getLocalName())) {
+                    String target = relations.get(relationshipId(reader));
+                    if (target != null) {
+                        sheets.add(new String[]{reader.getAttributeValue(null, "name"), target});
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        // Rows first, then only the shared strings they use: the string table can be far larger than a preview
+        List<Sheet> read = new ArrayList<>();
+        Set<Integer> sharedIndexes = new HashSet<>();
+        for (String[] sheet : sheets) {
+            Sheet rows = readSheet(zip, sheet[0], sheet[1]);
+            rows.collectSharedIndexes(sharedIndexes);
+            read.add(rows);
+        }
+        Map<Integer, String> sharedStrings = readSharedStrings(zip, sharedIndexes);
+        Set<Integer> dateStyles = readDateStyles(zip);
+
+        for (Sheet sheet : read) {
+            sheet.render(html, sharedStrings, dateStyles);
+        }
+        if (read.isEmpty()) {
+            html.append("<p class=\"note\">This workbook has no sheets.</p>");
+        }
+    }
+
+    static Sheet readSheet(ZipFile zip, String name, String path) throws IOException, XMLStreamException {
+        Sheet sheet = new Sheet(name);
+        if (zip.getEntry(path) == null) {
+            return sheet;
+        }
+        XMLStreamReader reader = open(zip, path);
+        try {
+            Map<Integer, Cell> row = null;
+            int rowNumber = 0;
+            Cell cell = null;
+            int column = -1;
+            StringBuilder text = null;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "row":
+                            if (sheet.rows.size() == MAX_ROWS) {
+                                sheet.truncated = true;
+                                return sheet;
+                            }
+                            String r = reader.getAttributeValue(null, "r");
+                            rowNumber = r != null ? Integer.parseInt(r) : rowNumber + 1;
+                            row = new TreeMap<>();
+                            column = -1;
+                            break;
+                        case "c":
+                            String reference = reader.getAttributeValue(null, "r");
+                            column = reference != null ? columnIndex(reference) : column + 1;
+                            cell = new Cell(reader.getAttributeValue(null, "t"), reader.getAttributeValue(null, "s"));
+                            break;
+                        case "v":
+                        case "t":
+                            text = new StringBuilder();
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (text != null && text.length() < MAX_VALUE_CHARS) {
+                        text.append(reader.getText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "v":
+                        case "t":
+                            if (cell != null && text != null) {
+                                cell.value = cell.value == null ? text.toString() : cell.value + text;
+                            }
+                            text = null;
+                            break;
+                        case "c":
+                            if (row != null && cell != null && cell.value != null && column < MAX_COLUMNS) {
+                                row.put(column, cell);
+                                sheet.columns = Math.max(sheet.columns, column + 1);
+                            }
+                            cell = null;
+                            break;
+                        case "row":
+                            if (row != null) {
+                                sheet.rows.add(new Row(rowNumber, row));
+                            }
+                            row = null;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return sheet;
+    }
+
+    private static Map<Integer, String> readSharedStrings(ZipFile zip, Set<Integer> wanted) throws IOException, XMLStreamException {
+        Map<Integer, String> strings = new HashMap<>();
+        if (wanted.isEmpty() || zip.getEntry("xl/sharedStrings.xml") == null) {
+            return strings;
+        }
+        int last = wanted.stream().mapToInt(Integer::intValue).max().orElse(-1);
+
+        XMLStreamReader reader = open(zip, "xl/sharedStrings.xml");
+        try {
+            int index = -1;
+            int phonetic = 0;
+            StringBuilder text = null;
+            boolean inText = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("si".equals(element)) {
+                        index++;
+                        if (index > last) {
+                            break;
+                        }
+                        text = wanted.contains(index) ? new StringBuilder() : null;
+                    } else if ("rPh".equals(element)) {
+                        // Phonetic guides are not part of the displayed text
+                        phonetic++;
+                    } else if ("t".equals(element)) {
+                        inText = phonetic == 0;
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (inText && text != null && text.length() < MAX_VALUE_CHARS) {
+                        text.append(reader.getText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("t".equals(element)) {
+                        inText = false;
+                    } else if ("rPh".equals(element)) {
+                        phonetic--;
+                    } else if ("si".equals(element) && text != null) {
+                        strings.put(index, text.toString());
+                        text = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return strings;
+    }
+
+    /**
+     * Indexes of the cell styles that format numbers as dates, so their serial numbers can be shown as dates
+     */
+    private static Set<Integer> readDateStyles(ZipFile zip) throws IOException, XMLStreamException {
+        Set<Integer> dateStyles = new HashSet<>();
+        if (zip.getEntry("xl/styles.xml") == null) {
+            return dateStyles;
+        }
+        Set<Integer> dateFormats = new HashSet<>();
+        XMLStreamReader reader = open(zip, "xl/styles.xml");
+        try {
+            boolean inCellFormats = false;
+            int style = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("numFmt".equals(element) && isDateFormat(reader.getAttributeValue(null, "formatCode"))) {
+                        dateFormats.add(Integer.parseInt(reader.getAttributeValue(null, "numFmtId")));
+                    } else if ("cellXfs".equals(element)) {
+                        inCellFormats = true;
+                    } else if ("xf".equals(element) && inCellFormats) {
+                        String format = reader.getAttributeValue(null, "numFmtId");
+                        int id = format != null ? Integer.parseInt(format) : 0;
+                        if (isBuiltInDateFormat(id) || dateFormats.contains(id)) {
+                            dateStyles.add(style);
+                        }
+                        style++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "cellXfs".equals(reader.getLocalName())) {
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return dateStyles;
+    }
+
+    // 27-36 and 50-58 are the locale-specific date formats of East Asian versions
+    private static boolean isBuiltInDateFormat(int id) {
+        return (id >= 14 && id <= 22) || (id >= 27 && id <= 36) || (id >= 45 && id <= 47) || (id >= 50 && id <= 58);
+    }
+
+    // A custom format is a date if it has day, month or year codes outside quoted text and [color] sections
+    static boolean isDateFormat(String formatCode) {
+        if (formatCode == null) {
+            return false;
+        }
+        String codes = formatCode.replaceAll("\"[^\"]*\"|\\[[^\\]]*\\]|\\\\.", "").toLowerCase();
+        return codes.contains("d") || codes.contains("m") || codes.contains("y");
+    }
+
+    /**
+     * Show a spreadsheet date serial number (days since 1899-12-30) as an ISO date, with the time if it has one
+     */
+    static String formatDate(String serial) {
+        try {
+            double value = Double.parseDouble(serial);
+            if (value < 0 || value > 2_958_465) {
+                return serial;
+            }
+            long days = (long) Math.floor(value);
+            long seconds = Math.round((value - days) * 86_400);
+            LocalDateTime dateTime = LocalDate.of(1899, 12, 30).plusDays(days).atStartOfDay().plusSeconds(seconds);
+            return seconds == 0 ? dateTime.toLocalDate().toString() : dateTime.toString().replace('T', ' ');
+        } catch (NumberFormatException e) {
+            return serial;
+        }
+    }
+
+    /**
+     * Zero-based column of a cell reference such as "AB12"
+     */
+    static int columnIndex(String reference) {
+        int column = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = Character.toUpperCase(reference.charAt(i));
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    /**
+     * Letters of a zero-based column, e.g. 27 is "AB"
+     */
+    static String columnName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int n = column + 1; n > 0; n = (n - 1) / 26) {
+            name.insert(0, (char) ('A' + (n - 1) % 26));
+        }
+        return name.toString();
+    }
+
+    static class Sheet {
+        final String name;
+        final List<Row> rows = new ArrayList<>();
+        int columns;
+        boolean truncated;
+
+        Sheet(String name) {
+            this.name = name;
+        }
+
+        void collectSharedIndexes(Set<Integer> indexes) {
+            for (Row row : rows) {
+                for (Cell cell : row.cells.values()) {
+                    if ("s".equals(cell.type)) {
+                        try {
+                            indexes.add(Integer.parseInt(cell.value.trim()));
+                        } catch (NumberFormatException e) {
+                            // Not a valid index; shown as is
+                        }
+                    }
+                }
+            }
+        }
+
+        void render(StringBuilder html, Map<Integer, String> sharedStrings, Set<Integer> dateStyles) {
+            html.append("<h2>").append(escape(name)).append("</h2>");
+            if (rows.isEmpty()) {
+                html.append("<p class=\"note\">This sheet is empty.</p>");
+                return;
+            }
+            html.append("<table><tr><th></th>");
+            for (int column = 0; column < columns; column++) {
+                html.append("<th>").append(columnName(column)).append("</th>");
+            }
+            html.append("</tr>");
+            for (Row row : rows) {
+                html.append("<tr><th>").append(row.number).append("</th>");
+                for (int column = 0; column < columns; column++) {
+                    Cell cell = row.cells.get(column);
+                    html.append("<td>").append(cell != null ? escape(cell.display(sharedStrings, dateStyles)) : "").append("</td>");
+                }
+                html.append("</tr>");
+            }
+            html.append("</table>");
+            if (truncated) {
+                html.append("<p class=\"note\">Showing the first ").append(MAX_ROWS).append(" rows.</p>");
+            }
+        }
+    }
+
+    static class Row {
+        final int number;
+        final Map<Integer, Cell> cells;
+
+        Row(int number, Map<Integer, Cell> cells) {
+            this.number = number;
+            this.cells = cells;
+        }
+    }
+
+    static class Cell {
+        final String type;
+        final String style;
+        String value;
+
+        Cell(String type, String style) {
+            this.type = type;
+            this.style = style;
+        }
+
+        String display(Map<Integer, String> sharedStrings, Set<Integer> dateStyles) {
+            if ("s".equals(type)) {
+                try {
+                    String shared = sharedStrings.get(Integer.parseInt(value.trim()));
+                    return shared != null ? shared : "";
+                } catch (NumberFormatException e) {
+                    return value;
+                }
+            }
+            if ("b".equals(type)) {
+                return "1".equals(value) ? "TRUE" : "FALSE";
+            }
+            if ((type == null || "n".equals(type)) && style != null && dateStyles.contains(parseStyle(style))) {
+                return formatDate(value);
+            }
+            return value;
+        }
+
+        private static int parseStyle(String style) {
+            try {
+                return Integer.parseInt(style);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    // Word documents
+
+    private static void renderDocument(ZipFile zip, StringBuilder html) throws IOException, XMLStreamException {
+        XMLStreamReader reader = open(zip, "word/document.xml");
+        try {
+            int tableDepth = 0;
+            StringBuilder paragraph = null;
+            String style = null;
+            int written = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "tbl":
+                            if (++tableDepth == 1) {
+                                html.append("<table>");
+                            }
+                            break;
+                        case "tr":
+                            if (tableDepth == 1) {
+                                html.append("<tr>");
+                            }
+                            break;
+                        case "tc":
+                            if (tableDepth == 1) {
+                                html.append("<td>");
+                            }
+                            break;
+                        case "p":
+                            paragraph = new StringBuilder();
+                            style = null;
+                            break;
+                        case "pStyle":
+                            style = reader.getAttributeValue(reader.getNamespaceURI(), "val");
+                            break;
+                        case "tab":
+                            if (paragraph != null) {
+                                paragraph.append('\t');
+                            }
+                            break;
+                        case "br":
+                        case "cr":
+                            if (paragraph != null) {
+                                paragraph.append('\n');
+                            }
+                            break;
+                        case "t":
+                            if (paragraph != null) {
+                                paragraph.append(reader.getElementText());
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "p":
+                            if (paragraph != null) {
+                                written += paragraph.length();
+                                appendParagraph(html, paragraph.toString(), style, tableDepth > 0);
+                            }
+                            paragraph = null;
+                            break;
+                        case "tc":
+                            if (tableDepth == 1) {
+                                html.append("</td>");
+                            }
+                            break;
+                        case "tr":
+                            if (tableDepth == 1) {
+                                html.append("</tr>");
+                            }
+                            break;
+                        case "tbl":
+                            if (tableDepth-- == 1) {
+                                html.append("</table>");
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    if (written >= MAX_TEXT_CHARS && tableDepth == 0) {
+                        html.append("<p class=\"note\">Showing the beginning of the document.</p>");
+                        return;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void appendParagraph(StringBuilder html, String text, String style, boolean inTable) {
+        if (inTable) {
+            // Paragraphs of a cell are lines within it
+            html.append(escape(text)).append("<br>");
+            return;
+        }
+        int level = headingLevel(style);
+        String tag = level > 0 ? "h" + Math.min(level + 1, 6) : "p";
+        html.append('<').append(tag).append('>').append(escape(text)).append("</").append(tag).append('>');
+    }
+
+    // "Heading1", "heading 2" and "Title" are headings; any other style is body text
+    private static int headingLevel(String style) {
+        if (style == null) {
+            return 0;
+        }
+        String normalized = style.replace(" ", "").toLowerCase();
+        if (normalized.equals("title")) {
+            return 1;
+        }
+        if (normalized.startsWith("heading") && normalized.length() > 7 && Character.isDigit(normalized.charAt(7))) {
+            return normalized.charAt(7) - '0';
+        }
+        return 0;
+    }
+
+    // Presentations
+
+    private static void renderPresentation(ZipFile zip, StringBuilder html) throws IOException, XMLStreamException {
+        Map<String, String> relations = readRelationships(zip, "ppt/_rels/presentation.xml.rels", "ppt/");
+        List<String> slides = new ArrayList<>();
+        XMLStreamReader reader = open(zip, "ppt/presentation.xml");
+        try {
+            while (reader.hasNext() && slides.size() < MAX_SLIDES) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "sldId".equals(reader.getLocalName())) {
+                    String target = relations.get(relationshipId(reader));
+                    if (target != null) {
+                        slides.add(target);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        int number = 0;
+        for (String slide : slides) {
+            number++;
+            html.append("<section><h2>Slide ").append(number).append("</h2>");
+            if (zip.getEntry(slide) != null) {
+                appendSlideText(zip, slide, html);
+            }
+            html.append("</section>");
+        }
+        if (slides.isEmpty()) {
+            html.append("<p class=\"note\">This presentation has no slides.</p>");
+        }
+    }
+
+    private static void appendSlideText(ZipFile zip, String path, StringBuilder html) throws IOException, XMLStreamException {
+        XMLStreamReader reader = open(zip, path);
+        try {
+            StringBuilder paragraph = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if ("p".equals(element)) {
+                        paragraph = new StringBuilder();
+                    } else if ("t".equals(element) && paragraph != null) {
+                        paragraph.append(reader.getElementText());
+                    } else if ("br".equals(element) && paragraph != null) {
+                        paragraph.append('\n');
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "p".equals(reader.getLocalName())) {
+                    if (paragraph != null && !paragraph.toString().isBlank()) {
+                        html.append("<p>").append(escape(paragraph.toString())).append("</p>");
+                    }
+                    paragraph = null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Package parts
+
+    /**
+     * Read a relationships part into a map from relationship id to the full name of the target part
+     */
+    private static Map<String, String> readRelationships(ZipFile zip, String path, String baseDirectory)
+            throws IOException, XMLStreamException {
+        Map<String, String> targets = new HashMap<>();
+        if (zip.getEntry(path) == null) {
+            return targets;
+        }
+        XMLStreamReader reader = open(zip, path);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "Relationship".equals(reader.getLocalName())) {
+                    String target = reader.getAttributeValue(null, "Target");
+                    if (target != null && !"External".equals(reader.getAttributeValue(null, "TargetMode"))) {
+                        targets.put(reader.getAttributeValue(null, "Id"), resolvePartName(baseDirectory, target));
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return targets;
+    }
+
+    /**
+     * Resolve a relationship target against the directory of its source part, e.g.
+     * ("xl/", "worksheets/sheet1.xml") is "xl/worksheets/sheet1.xml"; targets starting with / are absolute
+     */
+    static String resolvePartName(String baseDirectory, String target) {
+        String path = target.startsWith("/") ? target.substring(1) : baseDirectory + target;
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static String relationshipId(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if ("id".equals(reader.getAttributeLocalName(i)) && reader.getAttributeNamespace(i) != null) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static XMLStreamReader open(ZipFile zip, String path) throws IOException, XMLStreamException {
+        ZipEntry entry = zip.getEntry(path);
+        if (entry == null) {
+            throw new IOException("Missing part " + path);
+        }
+        InputStream in = zip.getInputStream(entry);
+        // The entry stream is closed with the zip file
+        return XML_INPUT_FACTORY.createXMLStreamReader(in);
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Documents come from users: no DTDs and no external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    private static String escape(String text) {
+        return HtmlUtils.htmlEscape(text, StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,233 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Page-by-page previews of PDFs as JPEG images, so a viewer can show page 1 without downloading the
+ * whole document. Pages are rendered with PDFBox at the requested width; a page that fails to render
+ * gets no rendition and the viewer falls back to the PDF itself. All PDF work runs on a small bounded
+ * pool, so heavy documents cannot tie up request threads.
+ */
+@Service
+public class PdfPreviewService {
+
+    // Largest page rendered, whatever its declared size, e.g. a very tall strip asked for at full width
+    private static final long MAX_RENDER_PIXELS = 20L * 1000 * 1000;
+
+    private static final float JPEG_QUALITY = 0.8f;
+
+    // How long a request waits for its page before answering "busy, retry later"
+    private static final long WAIT_SECONDS = 20;
+
+    private static final int MAX_CACHED_ENTRIES = 2_000;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // Renders run on the preview pool, which rejects new work when full instead of queueing without bound
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // One job per page rendition or page count at a time; later requests wait for the same result
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    // Page counts by content key, 0 for documents that cannot be read
+    private final Map<String, Integer> pageCounts = lruMap();
+
+    // Pages that failed to render, by content key and page number
+    private final Map<String, Boolean> failedPages = lruMap();
+
+    /**
+     * Number of pages of a PDF, or 0 if it cannot be read
+     */
+    public int getPageCount(File file) throws IOException {
+        String contentKey = fileStorageService.getContentKey(file);
+        synchronized (pageCounts) {
+            Integer cached = pageCounts.get(contentKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Path source = fileStorageService.getFilePath(file);
+        int count = run(contentKey + "|pages", () -> countPages(source));
+        synchronized (pageCounts) {
+            pageCounts.put(contentKey, count);
+        }
+        return count;
+    }
+
+    /**
+     * Get a page (numbered from 1) as a JPEG image of the requested width, rendering it if needed.
+     * Returns null if the page cannot be rendered.
+     *
+     * @throws IllegalArgumentException if the document has no such page
+     * @throws RejectedExecutionException if the render pool is busy
+     */
+    public Path getPage(File file, int page, Integer width) throws IOException {
+        if (page < 1 || page > getPageCount(file)) {
+            throw new IllegalArgumentException("Page " + page + " does not exist");
+        }
+
+        String contentKey = fileStorageService.getContentKey(file);
+        String variant = variant(page, ImageRenditionService.normalizeWidth(width));
+        Path stored = fileStorageService.getDerivedPath(contentKey, variant);
+        if (Files.exists(stored)) {
+            return stored;
+        }
+        synchronized (failedPages) {
+            if (failedPages.containsKey(contentKey + "|" + page)) {
+                return null;
+            }
+        }
+
+        Path source = fileStorageService.getFilePath(file);
+        int targetWidth = ImageRenditionService.normalizeWidth(width);
+        return run(contentKey + "|" + variant, () -> renderPage(contentKey, source, page, targetWidth, variant));
+    }
+
+    static int countPages(Path source) {
+        try (PDDocument document = load(source)) {
+            return document.getNumberOfPages();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not read PDF " + source.getFileName() + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private Path renderPage(String contentKey, Path source, int page, int width, String variant) throws IOException {
+        Path stored = fileStorageService.getDerivedPath(contentKey, variant);
+        if (Files.exists(stored)) {
+            return stored;
+        }
+
+        BufferedImage image;
+        try {
+            image = render(source, page, width);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not render page " + page + " of " + source.getFileName() + ": " + e.getMessage());
+            synchronized (failedPages) {
+                failedPages.put(contentKey + "|" + page, Boolean.TRUE);
+            }
+            return null;
+        }
+        return fileStorageService.writeDerived(contentKey, variant, ThumbnailService.encodeJpeg(image, JPEG_QUALITY));
+    }
+
+    /**
+     * Render a page (numbered from 1) the given number of pixels wide, upright as the page's /Rotate asks
+     */
+    static BufferedImage render(Path source, int page, int width) throws IOException {
+        try (PDDocument document = load(source)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            // Large embedded images are read subsampled when the page is drawn smaller than they are
+            renderer.setSubsamplingAllowed(true);
+            float dpi = dpiFor(document.getPage(page - 1), width);
+            return renderer.renderImageWithDPI(page - 1, dpi, ImageType.RGB);
+        }
+    }
+
+    /**
+     * Resolution at which a page comes out the given width, lowered for pages that would be too large
+     */
+    static float dpiFor(PDPage page, int width) {
+        PDRectangle box = page.getCropBox();
+        int rotation = ((page.getRotation() % 360) + 360) % 360;
+        boolean quarter = rotation == 90 || rotation == 270;
+        double pageWidth = quarter ? box.getHeight() : box.getWidth();
+        double pageHeight = quarter ? box.getWidth() : box.getHeight();
+        if (pageWidth <= 0 || pageHeight <= 0) {
+            throw new IllegalArgumentException("Page has no area");
+        }
+
+        double scale = width / pageWidth;
+        double pixels = pageWidth * scale * pageHeight * scale;
+        if (pixels > MAX_RENDER_PIXELS) {
+            scale *= Math.sqrt(MAX_RENDER_PIXELS / pixels);
+        }
+        return (float) (scale * 72);
+    }
+
+    // Parsed objects are buffered in temp files rather than on the heap, whatever the document holds
+    private static PDDocument load(Path source) throws IOException {
+        return Loader.loadPDF(source.toFile(), IOUtils.createTempFileOnlyStreamCache());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T run(String key, Callable<T> work) throws IOException {
+        CompletableFuture<Object> own = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, own);
+        if (running == null) {
+            running = own;
+            try {
+                ioSchedulingService.executor(IoSchedulingService.IoClass.PREVIEW).execute(() -> {
+                    try {
+                        own.complete(work.call());
+                    } catch (Throwable e) {
+                        own.completeExceptionally(e);
+                    } finally {
+                        inFlight.remove(key, own);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key, own);
+                own.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return (T) running.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // The job keeps running and caches its result for the retry
+            throw new RejectedExecutionException("PDF preview is still being prepared");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for PDF preview");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not prepare PDF preview", cause);
+        }
+    }
+
+    private static String variant(int page, int width) {
+        return "pdf-p" + page + "-w" + width + ".jpg";
+    }
+
+    private static <V> Map<String, V> lruMap() {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_CACHED_ENTRIES;
+            }
+        };
+    }
+}
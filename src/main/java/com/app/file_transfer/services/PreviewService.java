@@ -3,19 +3,22 @@ package com.app.file_transfer.services;
 import com.app.file_transfer.model.File;
 import com.app.file_transfer.model.User;
 import com.app.file_transfer.repository.FileRepository;
-import com.app.file_transfer.repository.UserRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 public class PreviewService {
@@ -24,18 +27,56 @@ public class PreviewService {
     private FileRepository fileRepository;
 
     @Autowired
-    private UserRepository userRepository;
+    private UserCacheService userCacheService;
 
     @Autowired
     private FileStorageService fileStorageService;
 
+    @Autowired
+    private RangeRequestService rangeRequestService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private ImageRenditionService imageRenditionService;
+
+    @Autowired
+    private PdfPreviewService pdfPreviewService;
+
+    @Autowired
+    private OfficePreviewService officePreviewService;
+
+    @Autowired
+    private TextPreviewService textPreviewService;
+
+    @Autowired
+    private ArchivePreviewService archivePreviewService;
+
+    @Autowired
+    private VideoIndexService videoIndexService;
+
+    @Autowired
+    private SignedUrlService signedUrlService;
+
+    @Autowired
+    private BandwidthService bandwidthService;
+
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
     /**
      * Check if a file can be previewed
      */
     public boolean isPreviewable(String fileName) {
         return fileStorageService.isImage(fileName) ||
                fileStorageService.isPreviewableDocument(fileName) ||
-               fileStorageService.isStreamableVideo(fileName);
+               fileStorageService.isStreamableVideo(fileName) ||
+               textPreviewService.isSupported(fileName) ||
+               archivePreviewService.isSupported(fileName);
     }
 
     /**
@@ -50,6 +91,10 @@ public class PreviewService {
             return PreviewType.VIDEO;
         } else if (fileStorageService.isPreviewableDocument(fileName)) {
             return PreviewType.DOCUMENT;
+        } else if (textPreviewService.isSupported(fileName)) {
+            return PreviewType.TEXT;
+        } else if (archivePreviewService.isSupported(fileName)) {
+            return PreviewType.ARCHIVE;
         }
         return PreviewType.UNSUPPORTED;
     }
@@ -61,7 +106,7 @@ public class PreviewService {
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
 
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         
         // Check permissions
         if (!hasPreviewPermission(file, user)) {
@@ -74,68 +119,374 @@ public class PreviewService {
             throw new IllegalArgumentException("This file type cannot be previewed");
         }
 
+        // Videos prepared for streaming are played from their faststart copy; the URL pins which file
+        // a player reads, so it never switches files halfway through a playback. It is signed, so the
+        // player's many range requests skip the session and permission lookups.
+        String previewUrl = getPreviewUrl(fileId, previewType);
+        if (previewType == PreviewType.VIDEO) {
+            previewUrl = signedUrlService.sign(file, username, videoIndexService.getFaststartPath(file) != null, false);
+        }
+
         return new PreviewInfo(
                 file.getId(),
                 file.getFileName(),
                 file.getFileType(),
                 file.getFileSize(),
                 previewType,
-                getPreviewUrl(fileId, previewType),
+                previewUrl,
                 getThumbnailUrl(fileId, previewType)
         );
     }
 
     /**
-     * Generate preview response for a file
+     * Write the preview content for a file, with Range support for seeking in PDFs and media.
+     * Images are resized when a width or quality is requested. Large bodies are returned for Spring MVC
+     * to write on the streaming executor, holding a streaming slot; null when the response is complete.
+     *
+     * @throws IoSchedulingService.SaturatedException if streams, or the user's share of them, are full
      */
-    public ResponseEntity<Resource> generatePreviewResponse(Long fileId, String username) {
-        try {
-            File file = fileRepository.findById(fileId)
-                    .orElseThrow(() -> new IllegalArgumentException("File not found"));
+    public StreamingResponseBody generatePreviewResponse(Long fileId, Integer width, Integer quality, String username,
+                                                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        }
 
-            User user = userRepository.findByUsername(username);
-            
-            if (!hasPreviewPermission(file, user)) {
-                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-            }
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return null;
+        }
+
+        if (!isPreviewable(file.getFileName())) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return null;
+        }
 
-            if (!isPreviewable(file.getFileName())) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        if ((width != null || quality != null) && fileStorageService.isImage(file.getFileName())) {
+            ImageRenditionService.Rendition rendition;
+            try {
+                rendition = imageRenditionService.getRendition(
+                        fileStorageService.getContentKey(file), fileStorageService.getFilePath(file), width, quality);
+            } catch (RejectedExecutionException e) {
+                sendBusy(response);
+                return null;
+            }
+            if (rendition != null) {
+                // A file's content never changes, so its renditions can be cached for good
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+                imageRenditionService.write(rendition, request, response);
+                return null;
             }
+        }
 
-            Resource resource = fileStorageService.loadFileAsResource(file.getFileName());
+        // Admitted before any header is set, so a busy server answers with a plain 503 or 429
+        return ioSchedulingService.stream(IoSchedulingService.IoClass.STREAMING, username, () -> {
             MediaType mediaType = fileStorageService.getMediaTypeForFileName(file.getFileName());
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(mediaType);
-
             // Properly encode filename for Content-Disposition header to handle Unicode characters
             String encodedFileName = encodeFilenameForHeader(file.getFileName());
-            headers.set(HttpHeaders.CONTENT_DISPOSITION,
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
                     "inline; filename*=UTF-8''" + encodedFileName);
 
-            // Add cache headers for better performance
-            headers.setCacheControl("public, max-age=3600");
-            
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(resource);
+            // Add cache headers for better performance; once stale, the ETag lets browsers revalidate with a 304
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=3600");
 
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            return rangeRequestService.serveAsync(request, response, fileStorageService.getFilePath(file), mediaType,
+                    fileStorageService.getContentEtag(fileStorageService.getContentKey(file)));
+        });
+    }
+
+    /**
+     * Write a JPEG thumbnail of an image. Falls back to the full preview for images that cannot be decoded.
+     */
+    public void generateThumbnailResponse(Long fileId, Integer size, String username,
+                                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+
+        Path thumbnail;
+        try {
+            thumbnail = thumbnailService.getThumbnail(file, size);
+        } catch (RejectedExecutionException e) {
+            sendBusy(response);
+            return;
+        }
+        if (thumbnail == null) {
+            response.sendRedirect(request.getContextPath() + getPreviewUrl(fileId, PreviewType.IMAGE));
+            return;
         }
+
+        // A file's content never changes, so its thumbnails can be cached for good
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        rangeRequestService.serve(request, response, thumbnail, MediaType.IMAGE_JPEG);
     }
 
     /**
-     * Get file metadata for preview
+     * Get the number of pages of a PDF that can be previewed page by page; 0 if it cannot be read
      */
-    public Map<String, Object> getFileMetadata(Long fileId, String username) {
+    public int getPdfPageCount(Long fileId, String username) throws IOException {
         File file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
 
-        User user = userRepository.findByUsername(username);
-        
+        User user = userCacheService.getUser(username);
+
         if (!hasPreviewPermission(file, user)) {
+            throw new SecurityException("You don't have permission to preview this file");
+        }
+        if (!isPdfFile(file.getFileName())) {
+            throw new IllegalArgumentException("This file is not a PDF");
+        }
+        return pdfPreviewService.getPageCount(file);
+    }
+
+    /**
+     * Write one page of a PDF as a JPEG image. Answers 404 for pages that fail to render,
+     * so the viewer falls back to the PDF itself, and 503 while the render pool is busy.
+     */
+    public void generatePdfPageResponse(Long fileId, int page, Integer width, String username,
+                                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+
+        if (!isPdfFile(file.getFileName())) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        Path image;
+        try {
+            image = pdfPreviewService.getPage(file, page, width);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        } catch (RejectedExecutionException e) {
+            sendBusy(response);
+            return;
+        }
+        if (image == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        // A file's content never changes, so its page images can be cached for good
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        rangeRequestService.serve(request, response, image, MediaType.IMAGE_JPEG);
+    }
+
+    /**
+     * Write the HTML preview of a Word, Excel or PowerPoint file. Answers 404 when there is none,
+     * e.g. for the older binary formats, so the viewer offers the download instead. Large previews are
+     * returned for Spring MVC to write on the streaming executor; null when the response is complete.
+     */
+    public StreamingResponseBody generateDocumentPreviewResponse(Long fileId, String username,
+                                                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        }
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return null;
+        }
+
+        Path preview;
+        try {
+            preview = officePreviewService.getPreview(file);
+        } catch (RejectedExecutionException e) {
+            sendBusy(response);
+            return null;
+        }
+        if (preview == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        }
+
+        // The markup is made from user content: no scripts, no external loads, no sniffing
+        response.setHeader("Content-Security-Policy", "default-src 'none'; style-src 'unsafe-inline'");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        return rangeRequestService.serveAsync(request, response, preview,
+                new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Get a window of lines of a text file, numbered from 0
+     */
+    public TextPreviewService.TextWindow getTextLines(Long fileId, long from, int count, String username) throws IOException {
+        return textPreviewService.getLines(getTextFile(fileId, username), from, count);
+    }
+
+    /**
+     * Search a text file from a line on, or from a byte offset within it; the result tells where to continue
+     */
+    public TextPreviewService.SearchResult searchText(Long fileId, String query, long from, long offset,
+                                                      String username) throws IOException {
+        return textPreviewService.search(getTextFile(fileId, username), query, from, offset);
+    }
+
+    private File getTextFile(Long fileId, String username) {
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            throw new SecurityException("You don't have permission to preview this file");
+        }
+        if (!textPreviewService.isSupported(file.getFileName())) {
+            throw new IllegalArgumentException("This file is not a text file");
+        }
+        return file;
+    }
+
+    /**
+     * List the entries of a ZIP archive from its central directory, numbered from 0
+     */
+    public ArchivePreviewService.EntryList getArchiveEntries(Long fileId, int from, int count, String username) throws IOException {
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            throw new SecurityException("You don't have permission to preview this file");
+        }
+        if (!archivePreviewService.isSupported(file.getFileName())) {
+            throw new IllegalArgumentException("This file is not a ZIP archive");
+        }
+        return archivePreviewService.listEntries(file, from, count);
+    }
+
+    /**
+     * Download a single entry of a ZIP archive, inflated on the fly. Answers 404 for unknown entries
+     * and folders, and 415 for encrypted entries or compression methods that cannot be read. The body
+     * is returned for Spring MVC to write on the streaming executor, holding a bulk slot; null when
+     * the response is already complete.
+     *
+     * @throws IoSchedulingService.SaturatedException if bulk transfers, or the user's share of them, are full
+     */
+    public StreamingResponseBody generateArchiveEntryResponse(Long fileId, int index, String username,
+                                                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        }
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return null;
+        }
+
+        if (!archivePreviewService.isSupported(file.getFileName())) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return null;
+        }
+
+        ArchivePreviewService.Entry entry;
+        try {
+            entry = archivePreviewService.getEntry(file, index);
+            if (entry.isDirectory()) {
+                response.setStatus(HttpStatus.NOT_FOUND.value());
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        } catch (RejectedExecutionException e) {
+            sendBusy(response);
+            return null;
+        }
+        if (!archivePreviewService.isExtractable(entry)) {
+            response.setStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value());
+            return null;
+        }
+
+        // Admitted before any header is set, so a busy server answers with a plain 503 or 429
+        return ioSchedulingService.stream(IoSchedulingService.IoClass.BULK, username, () -> {
+            String name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+            response.setContentType(fileStorageService.getMediaTypeForFileName(name).toString());
+            response.setContentLengthLong(entry.getSize());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodeFilenameForHeader(name));
+            response.setHeader("X-Content-Type-Options", "nosniff");
+            // A file's content never changes, so neither do its entries
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+            if ("HEAD".equals(request.getMethod())) {
+                return null;
+            }
+
+            StreamingResponseBody shaped = bandwidthService.shape(username, BandwidthService.Priority.BULK,
+                    out -> archivePreviewService.writeEntry(file, entry, out));
+            return out -> {
+                try {
+                    shaped.writeTo(out);
+                } catch (IOException e) {
+                    // A corrupt entry must not leave its Content-Length behind for the error response; once
+                    // committed, the error aborts the connection instead of ending a short body cleanly
+                    if (!response.isCommitted()) {
+                        response.reset();
+                    }
+                    throw e;
+                }
+            };
+        });
+    }
+
+    /**
+     * Get the keyframe index of a video, or null while it is being prepared
+     */
+    public VideoIndexService.KeyframeIndex getVideoKeyframes(Long fileId, String username) throws IOException {
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+
+        User user = userCacheService.getUser(username);
+
+        if (!hasPreviewPermission(file, user)) {
+            throw new SecurityException("You don't have permission to preview this file");
+        }
+        return videoIndexService.getKeyframes(file);
+    }
+
+    /**
+     * Get file metadata for preview
+     */
+    public Map<String, Object> getFileMetadata(Long fileId, String username) {
+        // Projection: the file and its uploader's name in one query, without loading entities
+        FileRepository.FileDetails file = fileRepository.findDetailsById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+
+        User user = userCacheService.getUser(username);
+
+        if (!fileService.canAccess(file.getId(), file.getUploaderId(), user)) {
             throw new SecurityException("You don't have permission to access this file");
         }
 
@@ -147,7 +498,7 @@ public class PreviewService {
         metadata.put("fileSizeFormatted", formatFileSize(file.getFileSize()));
         metadata.put("previewType", getPreviewType(file.getFileName()).toString().toLowerCase());
         metadata.put("isPreviewable", isPreviewable(file.getFileName()));
-        metadata.put("uploader", file.getUploader().getUsername());
+        metadata.put("uploader", file.getUploaderUsername());
 
 
         return metadata;
@@ -155,7 +506,13 @@ public class PreviewService {
 
     // Helper methods
     private boolean hasPreviewPermission(File file, User user) {
-        return file.getUploader().equals(user) || file.getRecipients().contains(user);
+        return fileService.canAccess(file, user);
+    }
+
+    // Work refused by a full pool: the client may retry shortly
+    private static void sendBusy(HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(IoSchedulingService.RETRY_AFTER_SECONDS));
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
     }
 
     private boolean isPdfFile(String fileName) {
@@ -178,6 +535,8 @@ public class PreviewService {
             case IMAGE:
             case PDF:
             case DOCUMENT:
+            case TEXT:
+            case ARCHIVE:
                 return "/files/preview/" + fileId;
             default:
                 return null;
@@ -185,8 +544,7 @@ public class PreviewService {
     }
 
     private String getThumbnailUrl(Long fileId, PreviewType previewType) {
-        // For now, return null. Can be implemented later for thumbnail generation
-        return null;
+        return previewType == PreviewType.IMAGE ? "/files/thumbnail/" + fileId : null;
     }
 
     private String formatFileSize(long bytes) {
@@ -211,7 +569,7 @@ public class PreviewService {
 
     // Enums and inner classes
     public enum PreviewType {
-        IMAGE, PDF, VIDEO, DOCUMENT, UNSUPPORTED
+        IMAGE, PDF, VIDEO, DOCUMENT, TEXT, ARCHIVE, UNSUPPORTED
     }
 
     public static class PreviewInfo {
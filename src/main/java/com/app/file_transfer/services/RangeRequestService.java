@@ -0,0 +1,357 @@
+package com.app.file_transfer.services;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Serves stored files with HTTP Range support (single, multiple and suffix ranges, If-Range).
+ * Bytes are handed to Tomcat's sendfile when available and otherwise copied with FileChannel.transferTo,
+ * so file content never passes through a heap buffer of ours. Single regions of files that are asked
+ * for repeatedly are served from the {@link BlockCacheService} instead. Bodies are paced by the
+ * {@link BandwidthService} when bandwidth shaping is enabled.
+ */
+@Service
+public class RangeRequestService {
+
+    // Tomcat request attributes for zero-copy sendfile
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Same default as Tomcat's DefaultServlet: small bodies are cheaper to write directly
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    // Bodies at least this large are written asynchronously when returned to Spring MVC
+    private static final long ASYNC_THRESHOLD = 1024 * 1024;
+
+    // Requests asking for more ranges than this are answered with the full content
+    private static final int MAX_RANGES = 32;
+
+    @Autowired
+    private BlockCacheService blockCacheService;
+
+    @Autowired
+    private BandwidthService bandwidthService;
+
+    /**
+     * Write the file to the response, honouring conditional (If-None-Match, If-Modified-Since)
+     * and Range and If-Range request headers.
+     * Callers set Content-Disposition and caching headers before calling this.
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response,
+                      Path path, MediaType mediaType) throws IOException {
+        serve(request, response, path, mediaType, null);
+    }
+
+    /**
+     * Like {@link #serve(HttpServletRequest, HttpServletResponse, Path, MediaType)}, with a strong ETag
+     * known from the content (e.g. its hash); null derives one from size and modification time
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response,
+                      Path path, MediaType mediaType, String etag) throws IOException {
+        StreamingResponseBody body = serveAsync(request, response, path, mediaType, etag);
+        if (body != null) {
+            body.writeTo(response.getOutputStream());
+        }
+    }
+
+    /**
+     * Like {@link #serve}, but large bodies that cannot go to sendfile are returned for the caller to
+     * hand back to Spring MVC, which writes them on the async executor instead of the request thread.
+     * Returns null when the response is already complete: headers only, sendfile, or a small body.
+     */
+    public StreamingResponseBody serveAsync(HttpServletRequest request, HttpServletResponse response,
+                                            Path path, MediaType mediaType, String etag) throws IOException {
+        long fileSize = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        if (etag == null) {
+            etag = buildEtag(fileSize, lastModified);
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        // If-None-Match / If-Modified-Since: answered with 304 from the validators, without opening the file
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return null;
+        }
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+        List<ByteRange> ranges = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isIfRangeSatisfied(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            ranges = parseRanges(rangeHeader, fileSize);
+        }
+
+        boolean writeBody = !"HEAD".equalsIgnoreCase(request.getMethod());
+
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(mediaType.toString());
+            response.setContentLengthLong(fileSize);
+            return writeBody ? writeSingleRegion(request, response, path, fileSize, lastModified, 0, fileSize) : null;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            response.setContentLength(0);
+            return null;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setContentType(mediaType.toString());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(fileSize));
+            response.setContentLengthLong(range.getLength());
+            return writeBody
+                    ? writeSingleRegion(request, response, path, fileSize, lastModified, range.getStart(), range.getLength())
+                    : null;
+        }
+
+        return writeMultipleRegions(request, response, path, mediaType, ranges, fileSize, writeBody);
+    }
+
+    /**
+     * Parse a Range header against the given content length.
+     * Returns null when the header is malformed or should be ignored, and an empty list when no range is satisfiable.
+     * Overlapping and adjacent ranges are merged.
+     */
+    public static List<ByteRange> parseRanges(String rangeHeader, long length) {
+        String header = rangeHeader.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            int dashIndex = spec.indexOf('-');
+            if (dashIndex < 0) {
+                return null;
+            }
+
+            try {
+                String first = spec.substring(0, dashIndex).trim();
+                String last = spec.substring(dashIndex + 1).trim();
+                long start;
+                long end;
+
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength == 0 || length == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffixLength);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start >= length) {
+                        continue;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+
+                ranges.add(new ByteRange(start, end));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        List<ByteRange> merged = mergeRanges(ranges);
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    /**
+     * Build the validator used for If-Range, derived from size and modification time
+     */
+    public static String buildEtag(long fileSize, long lastModified) {
+        return "\"" + Long.toHexString(fileSize) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    private boolean isIfRangeSatisfied(String ifRange, String etag, long lastModified) {
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // If-Range requires a strong comparison, so weak validators never match
+            return value.equals(etag);
+        }
+
+        try {
+            long ifRangeSeconds = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return ifRangeSeconds == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private StreamingResponseBody writeSingleRegion(HttpServletRequest request, HttpServletResponse response,
+                                                    Path path, long fileSize, long lastModified,
+                                                    long start, long length) throws IOException {
+        StreamingResponseBody body;
+        if (blockCacheService.shouldServe(path, fileSize, lastModified, start)) {
+            body = outputStream -> {
+                blockCacheService.write(path, fileSize, lastModified, start, length, Channels.newChannel(outputStream));
+                outputStream.flush();
+            };
+        } else if (length >= SENDFILE_THRESHOLD && !bandwidthService.isEnabled()
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // Tomcat streams the region with sendfile after the handler returns, without holding a thread
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+            return null;
+        } else {
+            body = outputStream -> {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    transferRegion(channel, start, length, Channels.newChannel(outputStream));
+                    outputStream.flush();
+                }
+            };
+        }
+        return respond(request, response, body, length);
+    }
+
+    private StreamingResponseBody writeMultipleRegions(HttpServletRequest request, HttpServletResponse response,
+                                                       Path path, MediaType mediaType, List<ByteRange> ranges,
+                                                       long fileSize, boolean writeBody) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            String partHeader = "\r\n--" + boundary + "\r\n" +
+                    HttpHeaders.CONTENT_TYPE + ": " + mediaType + "\r\n" +
+                    HttpHeaders.CONTENT_RANGE + ": " + range.toContentRange(fileSize) + "\r\n\r\n";
+            byte[] headerBytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(headerBytes);
+            contentLength += headerBytes.length + range.getLength();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (!writeBody) {
+            return null;
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                for (int i = 0; i < ranges.size(); i++) {
+                    ByteRange range = ranges.get(i);
+                    outputStream.write(partHeaders.get(i));
+                    transferRegion(channel, range.getStart(), range.getLength(), target);
+                }
+                outputStream.write(closing);
+                outputStream.flush();
+            }
+        };
+        return respond(request, response, body, contentLength);
+    }
+
+    // Small bodies are written right away; an async dispatch would cost more than it saves
+    private StreamingResponseBody respond(HttpServletRequest request, HttpServletResponse response,
+                                          StreamingResponseBody body, long length) throws IOException {
+        body = bandwidthService.shape(request, body);
+        if (length < ASYNC_THRESHOLD) {
+            body.writeTo(response.getOutputStream());
+            return null;
+        }
+        return body;
+    }
+
+    private void transferRegion(FileChannel channel, long start, long length, WritableByteChannel target) throws IOException {
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new IOException("File truncated while serving range at position " + position);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private static List<ByteRange> mergeRanges(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::getStart));
+
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++) {
+            ByteRange next = sorted.get(i);
+            if (next.getStart() <= current.getEnd() + 1) {
+                current = new ByteRange(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * An inclusive byte range within a file
+     */
+    public static class ByteRange {
+        private final long start;
+        private final long end;
+
+        public ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() { return start; }
+        public long getEnd() { return end; }
+        public long getLength() { return end - start + 1; }
+
+        public String toContentRange(long fileSize) {
+            return "bytes " + start + "-" + end + "/" + fileSize;
+        }
+    }
+}
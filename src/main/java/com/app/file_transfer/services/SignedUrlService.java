@@ -0,0 +1,236 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import com.app.file_transfer.model.User;
+import com.app.file_transfer.repository.FileRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Issues short-lived signed URLs for downloading and streaming files. Access is checked once, when the
+ * URL is issued; the token in it carries the file, user, expiry and storage key under an HMAC-SHA256
+ * signature, so requests made with it (e.g. a video player's range requests) are verified without the
+ * session or the database. A token stays valid until it expires, even if access is revoked meanwhile.
+ */
+@Service
+public class SignedUrlService {
+
+    public static final String URL_PREFIX = "/signed/";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int TOKEN_VERSION = 1;
+
+    // Empty: a random key per start, so URLs issued before a restart stop working
+    @Value("${file-storage.signed-urls.secret:}")
+    private String secret;
+
+    @Value("${file-storage.signed-urls.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserCacheService userCacheService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private VideoIndexService videoIndexService;
+
+    private byte[] key;
+
+    @PostConstruct
+    public void init() {
+        if (secret == null || secret.isBlank()) {
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            System.out.println("No file-storage.signed-urls.secret set; signed URLs will not survive a restart");
+        } else {
+            key = secret.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Check access to a file and issue a signed URL for it
+     */
+    public SignedUrl issue(Long fileId, String username, Boolean faststart, boolean attachment) {
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+        User user = userCacheService.getUser(username);
+
+        if (!fileService.canAccess(file, user)) {
+            throw new SecurityException("You don't have permission to access this file");
+        }
+        boolean hasFaststart = videoIndexService.getFaststartPath(file) != null;
+        if (Boolean.TRUE.equals(faststart) && !hasFaststart) {
+            throw new IllegalArgumentException("This video has no faststart copy");
+        }
+
+        // Left open, the copy a preview would play; players renewing an expired URL reload from there
+        Grant grant = grant(file, username, faststart != null ? faststart : hasFaststart, attachment);
+        return new SignedUrl(URL_PREFIX + encode(grant, key), grant.getExpiresAt());
+    }
+
+    /**
+     * Sign a URL for a file the caller has already checked access to
+     */
+    public String sign(File file, String username, boolean faststart, boolean attachment) {
+        return URL_PREFIX + encode(grant(file, username, faststart, attachment), key);
+    }
+
+    /**
+     * Verify a token from a signed URL. Throws SecurityException if it is forged, altered or expired.
+     */
+    public Grant verify(String token) {
+        return decode(token, key, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Get the stored file a grant is for, or null if it no longer exists
+     */
+    public Path resolve(Grant grant) {
+        return grant.isFaststart()
+                ? videoIndexService.getFaststartPath(grant.getContentKey())
+                : fileStorageService.getContentPath(grant.getContentKey());
+    }
+
+    private Grant grant(File file, String username, boolean faststart, boolean attachment) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        return new Grant(file.getId(), username, expiresAt, fileStorageService.getContentKey(file),
+                file.getFileName(), faststart, attachment);
+    }
+
+    static String encode(Grant grant, byte[] key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(TOKEN_VERSION);
+            out.writeLong(grant.getFileId());
+            out.writeUTF(grant.getUsername());
+            out.writeLong(grant.getExpiresAt());
+            out.writeUTF(grant.getContentKey());
+            out.writeUTF(grant.getFileName());
+            out.writeBoolean(grant.isFaststart());
+            out.writeBoolean(grant.isAttachment());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode signed URL", e);
+        }
+        byte[] payload = bytes.toByteArray();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(hmac(payload, key));
+    }
+
+    static Grant decode(String token, byte[] key, long now) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            throw new SecurityException("Malformed signed URL");
+        }
+
+        byte[] payload;
+        byte[] signature;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(token.substring(0, dot));
+            signature = decoder.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            throw new SecurityException("Malformed signed URL");
+        }
+        // Constant-time comparison, so the signature cannot be guessed byte by byte
+        if (!MessageDigest.isEqual(signature, hmac(payload, key))) {
+            throw new SecurityException("Invalid signature");
+        }
+
+        Grant grant;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != TOKEN_VERSION) {
+                throw new SecurityException("Unsupported signed URL version");
+            }
+            grant = new Grant(in.readLong(), in.readUTF(), in.readLong(), in.readUTF(), in.readUTF(),
+                    in.readBoolean(), in.readBoolean());
+        } catch (IOException e) {
+            throw new SecurityException("Malformed signed URL");
+        }
+        if (grant.getExpiresAt() < now) {
+            throw new SecurityException("Signed URL has expired");
+        }
+        return grant;
+    }
+
+    private static byte[] hmac(byte[] payload, byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    /**
+     * What a signed URL gives access to
+     */
+    public static class Grant {
+        private final long fileId;
+        private final String username;
+        private final long expiresAt;
+        private final String contentKey;
+        private final String fileName;
+        private final boolean faststart;
+        private final boolean attachment;
+
+        public Grant(long fileId, String username, long expiresAt, String contentKey, String fileName,
+                     boolean faststart, boolean attachment) {
+            this.fileId = fileId;
+            this.username = username;
+            this.expiresAt = expiresAt;
+            this.contentKey = contentKey;
+            this.fileName = fileName;
+            this.faststart = faststart;
+            this.attachment = attachment;
+        }
+
+        public long getFileId() { return fileId; }
+        public String getUsername() { return username; }
+        public long getExpiresAt() { return expiresAt; }
+        public String getContentKey() { return contentKey; }
+        public String getFileName() { return fileName; }
+        public boolean isFaststart() { return faststart; }
+        public boolean isAttachment() { return attachment; }
+    }
+
+    /**
+     * A signed URL and when it expires, in seconds since the epoch
+     */
+    public static class SignedUrl {
+        private final String url;
+        private final long expiresAt;
+
+        public SignedUrl(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUrl() { return url; }
+        public long getExpiresAt() { return expiresAt; }
+    }
+}
@@ -0,0 +1,120 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.repository.FileRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Moves files stored before the hashed fan-out into it, a batch at a time, while the app keeps serving.
+ * Lookups find files in either layout, so moving on disk and updating File.filePath need not happen together.
+ */
+@Service
+public class StorageMigrationService {
+
+    @Value("${file-storage.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file-storage.migration.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // Keyset position of the File.filePath pass; starts over after a restart
+    private volatile long lastCheckedFileId = 0;
+    private volatile boolean recordsMigrated;
+    private volatile boolean finished;
+
+    public StorageMigrationService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Migrate one batch of files on disk and one batch of File.filePath values
+     */
+    @Scheduled(initialDelay = 30 * 1000, fixedDelayString = "${file-storage.migration.interval-ms:5000}")
+    public void migrateBatch() {
+        if (!enabled || finished) {
+            return;
+        }
+        // Moving files competes for the same disks; leave them to users while previews or streams pile up.
+        // Ranges on sendfile are not counted as streams, so this only sees load the JVM itself is writing.
+        if (ioSchedulingService.isBusy(IoSchedulingService.IoClass.PREVIEW)
+                || ioSchedulingService.isBusy(IoSchedulingService.IoClass.STREAMING)) {
+            return;
+        }
+
+        try {
+            int moved = fileStorageService.migrateToShardedLayout(batchSize);
+            if (!recordsMigrated) {
+                updateFilePaths();
+            }
+
+            if (moved == 0 && recordsMigrated) {
+                finished = true;
+                System.out.println("Storage layout migration finished");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Storage layout migration batch failed, will retry: " + e.getMessage());
+        }
+    }
+
+    private void updateFilePaths() {
+        Integer updated = transactionTemplate.execute(status -> {
+            List<Object[]> locations = fileRepository.findStorageLocationsAfter(lastCheckedFileId, PageRequest.of(0, batchSize));
+            if (locations.isEmpty()) {
+                recordsMigrated = true;
+                return 0;
+            }
+
+            int count = updateBatch(locations, (fileName, sha256) -> sha256 != null
+                    ? fileStorageService.getStoredBlobPath(sha256)
+                    : fileStorageService.getStoredFilePath(fileName), fileRepository::updateFilePath);
+            // Moved on only once the whole page went through, so a failed page is checked again
+            lastCheckedFileId = (Long) locations.get(locations.size() - 1)[0];
+            return count;
+        });
+
+        if (updated != null && updated > 0) {
+            System.out.println("Storage layout migration updated " + updated + " file path(s)");
+        }
+    }
+
+    /**
+     * Point the File.filePath of one page of [id, fileName, filePath, sha256] rows at where their content
+     * belongs now; returns how many rows were changed
+     */
+    static int updateBatch(List<Object[]> locations, BiFunction<String, String, String> expectedPath,
+                           PathUpdater updater) {
+        int count = 0;
+        for (Object[] location : locations) {
+            String expected = expectedPath.apply((String) location[1], (String) location[3]);
+            if (!expected.equals(location[2])) {
+                count += updater.update((Long) location[0], expected);
+            }
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    interface PathUpdater {
+        int update(Long fileId, String filePath);
+    }
+}
@@ -1,15 +1,25 @@
 package com.app.file_transfer.services;
 
 import com.app.file_transfer.model.File;
+import com.app.file_transfer.model.StorageUsage;
 import com.app.file_transfer.model.User;
 import com.app.file_transfer.repository.FileRepository;
-import com.app.file_transfer.repository.UserRepository;
+import com.app.file_transfer.repository.StorageUsageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
 @Service
 public class StorageUsageService {
@@ -18,74 +28,140 @@ public class StorageUsageService {
     private FileRepository fileRepository;
 
     @Autowired
-    private UserRepository userRepository;
+    private UserCacheService userCacheService;
+
+    @Autowired
+    private StorageUsageRepository storageUsageRepository;
 
     // Storage limit in bytes (5GB default)
     private static final long DEFAULT_STORAGE_LIMIT = 5L * 1024 * 1024 * 1024; // 5GB
 
+    // Usage categories
+    static final int DOCUMENTS = 0;
+    static final int IMAGES = 1;
+    static final int VIDEOS = 2;
+    static final int AUDIO = 3;
+    static final int OTHERS = 4;
+    static final int CATEGORY_COUNT = 5;
+
+    private final TransactionTemplate newTransaction;
+
+    // Bytes reserved by uploads in progress, per username; a user's entry is dropped once it is back to 0
+    private final ConcurrentMap<String, Long> reservedBytes = new ConcurrentHashMap<>();
+
+    public StorageUsageService(PlatformTransactionManager transactionManager) {
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
     /**
-     * Get storage usage statistics for a user
+     * Get storage usage statistics for a user, read from the persisted counters
      */
     public StorageUsageStats getStorageUsageStats(String username) {
-        User user = userRepository.findByUsername(username);
+        User user = userCacheService.getUser(username);
         if (user == null) {
             throw new IllegalArgumentException("User not found");
         }
 
-        List<File> userFiles = fileRepository.findByUploader(user);
-        
-        long totalUsedBytes = 0;
-        long documentBytes = 0;
-        long imageBytes = 0;
-        long videoBytes = 0;
-        long audioBytes = 0;
-        long otherBytes = 0;
-        int totalFiles = userFiles.size();
-        int sharedFiles = 0;
-
-        for (File file : userFiles) {
-            long fileSize = file.getFileSize();
-            totalUsedBytes += fileSize;
-
-            // Count shared files
-            if (!file.getRecipients().isEmpty()) {
-                sharedFiles++;
-            }
-
-            // Categorize by file type
-            String fileType = file.getFileType();
-            if (fileType != null) {
-                fileType = fileType.toLowerCase();
-                
-                if (isDocumentType(fileType)) {
-                    documentBytes += fileSize;
-                } else if (isImageType(fileType)) {
-                    imageBytes += fileSize;
-                } else if (isVideoType(fileType)) {
-                    videoBytes += fileSize;
-                } else if (isAudioType(fileType)) {
-                    audioBytes += fileSize;
-                } else {
-                    otherBytes += fileSize;
-                }
-            } else {
-                otherBytes += fileSize;
-            }
-        }
-
+        StorageUsage usage = getUsage(user);
         return new StorageUsageStats(
-                totalUsedBytes,
+                usage.getTotalBytes(),
                 DEFAULT_STORAGE_LIMIT,
-                documentBytes,
-                imageBytes,
-                videoBytes,
-                audioBytes,
-                otherBytes,
-                totalFiles,
-                sharedFiles
+                usage.getDocumentBytes(),
+                usage.getImageBytes(),
+                usage.getVideoBytes(),
+                usage.getAudioBytes(),
+                usage.getOtherBytes(),
+                (int) usage.getFileCount(),
+                (int) usage.getSharedCount()
         );
     }
 
+    /**
+     * Count a newly stored file; runs in the caller's transaction
+     */
+    @Transactional
+    public void recordFileAdded(File file) {
+        applyDelta(file.getUploader(), file.getFileType(), file.getFileSize(), 1, 0);
+    }
+
+    /**
+     * Uncount a file that is being deleted; call before the file is removed
+     */
+    @Transactional
+    public void recordFileRemoved(File file) {
+        applyDelta(file.getUploader(), file.getFileType(), -file.getFileSize(), -1, file.getRecipients().isEmpty() ? 0 : -1);
+    }
+
+    /**
+     * Count a file that has just been shared for the first time
+     */
+    @Transactional
+    public void recordFileShared(File file) {
+        applyDelta(file.getUploader(), file.getFileType(), 0, 0, 1);
+    }
+
+    private void applyDelta(User user, String fileType, long bytes, long files, long shared) {
+        if (!storageUsageRepository.existsByUserId(user.getId())) {
+            rebuildUsage(user);
+        }
+
+        long[] categoryBytes = categoryDelta(fileType, bytes);
+        storageUsageRepository.applyDelta(user.getId(), bytes,
+                categoryBytes[DOCUMENTS], categoryBytes[IMAGES], categoryBytes[VIDEOS], categoryBytes[AUDIO],
+                categoryBytes[OTHERS], files, shared);
+    }
+
+    private StorageUsage getUsage(User user) {
+        return storageUsageRepository.findByUserId(user.getId())
+                .orElseGet(() -> {
+                    rebuildUsage(user);
+                    return storageUsageRepository.findByUserId(user.getId())
+                            .orElseThrow(() -> new IllegalStateException("Storage usage missing for " + user.getUsername()));
+                });
+    }
+
+    // Users without counters yet (e.g. from before they existed) get them computed once from their files.
+    // Runs in its own transaction so the caller's uncommitted change is applied on top as a delta.
+    private void rebuildUsage(User user) {
+        try {
+            newTransaction.executeWithoutResult(status -> {
+                StorageUsage usage = tally(fileRepository.sumFileSizesByType(user));
+                usage.setUserId(user.getId());
+                usage.setSharedCount(fileRepository.countSharedByUploader(user));
+
+                storageUsageRepository.save(usage);
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Another request created the counters first
+        }
+    }
+
+    // Bytes per category for a change of one file, indexed by DOCUMENTS..OTHERS
+    static long[] categoryDelta(String fileType, long bytes) {
+        long[] categoryBytes = new long[CATEGORY_COUNT];
+        categoryBytes[categoryOf(fileType)] = bytes;
+        return categoryBytes;
+    }
+
+    // Counters from (file type, summed size, file count) rows
+    static StorageUsage tally(List<Object[]> rows) {
+        StorageUsage usage = new StorageUsage();
+        long[] categoryBytes = new long[CATEGORY_COUNT];
+        for (Object[] row : rows) {
+            long bytes = row[1] == null ? 0 : ((Number) row[1]).longValue();
+            categoryBytes[categoryOf((String) row[0])] += bytes;
+            usage.setTotalBytes(usage.getTotalBytes() + bytes);
+            usage.setFileCount(usage.getFileCount() + ((Number) row[2]).longValue());
+        }
+        usage.setDocumentBytes(categoryBytes[DOCUMENTS]);
+        usage.setImageBytes(categoryBytes[IMAGES]);
+        usage.setVideoBytes(categoryBytes[VIDEOS]);
+        usage.setAudioBytes(categoryBytes[AUDIO]);
+        usage.setOtherBytes(categoryBytes[OTHERS]);
+        return usage;
+    }
+
     /**
      * Get storage usage breakdown by file type
      */
@@ -129,19 +205,82 @@ public class StorageUsageService {
     }
 
     /**
-     * Check if user can upload a file of given size
+     * Check if user can upload a file of given size, counting space reserved by uploads in progress
      */
     public boolean canUploadFile(String username, long fileSize) {
-        StorageUsageStats stats = getStorageUsageStats(username);
-        return (stats.getTotalUsedBytes() + fileSize) <= stats.getStorageLimitBytes();
+        return fileSize <= getRemainingStorage(username);
     }
 
     /**
-     * Get remaining storage space
+     * Get remaining storage space, counting space reserved by uploads in progress
      */
     public long getRemainingStorage(String username) {
         StorageUsageStats stats = getStorageUsageStats(username);
-        return Math.max(0, stats.getStorageLimitBytes() - stats.getTotalUsedBytes());
+        return Math.max(0, stats.getStorageLimitBytes() - stats.getTotalUsedBytes() - reservedBytes.getOrDefault(username, 0L));
+    }
+
+    /**
+     * Reserve space for an upload before storing it. Returns null if the upload would exceed the limit.
+     * Concurrent uploads of the same user each claim their bytes with a compare-and-set, so together they never
+     * overshoot the limit. The reservation must be committed or released once the upload finishes.
+     */
+    public Reservation reserve(String username, long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Cannot reserve a negative size");
+        }
+        return reserve(reservedBytes, () -> getStorageUsageStats(username).getTotalUsedBytes(),
+                DEFAULT_STORAGE_LIMIT, username, bytes);
+    }
+
+    // The usage read before the claim may miss an upload that was recorded and then released in between;
+    // it is read again once the claim is visible to everyone, and the claim is taken back if it no longer fits.
+    // Reserved bytes are read before usage, so bytes moving from one to the other are counted at least once.
+    // Claims and releases update the user's entry atomically, so dropping an entry at 0 cannot lose a claim.
+    static Reservation reserve(ConcurrentMap<String, Long> reserved, LongSupplier usedBytes, long limit,
+                               String username, long bytes) {
+        long used = usedBytes.getAsLong();
+        boolean[] fits = new boolean[1];
+        reserved.compute(username, (key, current) -> {
+            long value = current != null ? current : 0;
+            fits[0] = used + value + bytes <= limit;
+            return fits[0] ? adjust(value, bytes) : current;
+        });
+        if (!fits[0]) {
+            return null;
+        }
+
+        long claimed = reserved.getOrDefault(username, 0L);
+        if (usedBytes.getAsLong() + claimed > limit) {
+            release(reserved, username, bytes);
+            return null;
+        }
+        return new Reservation(username, bytes);
+    }
+
+    static void release(ConcurrentMap<String, Long> reserved, String username, long bytes) {
+        reserved.computeIfPresent(username, (key, current) -> adjust(current, -bytes));
+    }
+
+    private static Long adjust(long current, long delta) {
+        long value = current + delta;
+        return value != 0 ? value : null;
+    }
+
+    /**
+     * Finish a reservation whose file has been recorded; call after the file's transaction has committed,
+     * so the bytes are counted by the usage counters before they stop being counted as reserved
+     */
+    public void commit(Reservation reservation) {
+        release(reservation);
+    }
+
+    /**
+     * Give back the space of an upload that failed or was cancelled. Safe to call more than once.
+     */
+    public void release(Reservation reservation) {
+        if (reservation != null && reservation.finished.compareAndSet(false, true)) {
+            release(reservedBytes, reservation.getUsername(), reservation.getBytes());
+        }
     }
 
     /**
@@ -156,7 +295,19 @@ public class StorageUsageService {
     }
 
     // Helper methods to categorize file types
-    private boolean isDocumentType(String mimeType) {
+    static int categoryOf(String fileType) {
+        if (fileType == null) {
+            return OTHERS;
+        }
+        String mimeType = fileType.toLowerCase();
+        if (isDocumentType(mimeType)) return DOCUMENTS;
+        if (isImageType(mimeType)) return IMAGES;
+        if (isVideoType(mimeType)) return VIDEOS;
+        if (isAudioType(mimeType)) return AUDIO;
+        return OTHERS;
+    }
+
+    private static boolean isDocumentType(String mimeType) {
         return mimeType.contains("pdf") ||
                mimeType.contains("document") ||
                mimeType.contains("text") ||
@@ -167,18 +318,35 @@ public class StorageUsageService {
                mimeType.contains("powerpoint");
     }
 
-    private boolean isImageType(String mimeType) {
+    private static boolean isImageType(String mimeType) {
         return mimeType.startsWith("image/");
     }
 
-    private boolean isVideoType(String mimeType) {
+    private static boolean isVideoType(String mimeType) {
         return mimeType.startsWith("video/");
     }
 
-    private boolean isAudioType(String mimeType) {
+    private static boolean isAudioType(String mimeType) {
         return mimeType.startsWith("audio/");
     }
 
+    /**
+     * Space held for one upload in progress
+     */
+    public static class Reservation {
+        private final String username;
+        private final long bytes;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Reservation(String username, long bytes) {
+            this.username = username;
+            this.bytes = bytes;
+        }
+
+        public String getUsername() { return username; }
+        public long getBytes() { return bytes; }
+    }
+
     /**
      * Inner class to hold storage usage statistics
      */
@@ -0,0 +1,530 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Paged preview of large text files such as logs and CSV exports. The file is memory-mapped and
+ * scanned once to build a sparse index of line start offsets, which is stored as a derived artifact
+ * of the content. Reading a window of lines or searching from a line then only touches the bytes
+ * from the nearest indexed line onwards, whatever the size of the file.
+ */
+@Service
+public class TextPreviewService {
+
+    public static final int DEFAULT_LINES = 200;
+    public static final int MAX_LINES = 1000;
+
+    // An index entry is kept every so many lines, and sooner when lines are long
+    static final int INDEX_EVERY_LINES = 1024;
+    static final long INDEX_EVERY_BYTES = 1024 * 1024;
+
+    // Longest part of a line that is returned; the rest is cut
+    static final int MAX_LINE_BYTES = 4096;
+
+    // Most bytes a single read or search goes through before returning what it has
+    static final long MAX_WINDOW_BYTES = 32L * 1024 * 1024;
+    static final long SEARCH_WINDOW_BYTES = 64L * 1024 * 1024;
+    static final int MAX_MATCHES = 100;
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_CACHED_INDEXES = 32;
+
+    // How long a request waits for a scan before answering "busy, retry later"
+    private static final long WAIT_SECONDS = 20;
+
+    // Bump when the index format changes, so indexes written by an older version are rebuilt
+    private static final String VARIANT = "lines-v1.idx";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // Index scans and searches run on the preview pool, so multi-GB logs cannot tie up request threads
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // Access-ordered LinkedHashMap: the least recently used indexes are evicted first
+    private final Map<String, LineIndex> indexes = new LinkedHashMap<>(MAX_CACHED_INDEXES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LineIndex> eldest) {
+            return size() > MAX_CACHED_INDEXES;
+        }
+    };
+
+    // One scan per content at a time; concurrent requests wait for the same index
+    private final Map<String, CompletableFuture<LineIndex>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Check if a file is plain text that can be previewed line by line
+     */
+    public boolean isSupported(String fileName) {
+        String name = fileName.toLowerCase();
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex < 0) {
+            return false;
+        }
+        switch (name.substring(dotIndex + 1)) {
+            case "txt":
+            case "log":
+            case "csv":
+            case "tsv":
+            case "md":
+            case "json":
+            case "yml":
+            case "yaml":
+            case "ini":
+            case "conf":
+            case "properties":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get up to count lines starting at a line (numbered from 0)
+     */
+    public TextWindow getLines(File file, long from, int count) throws IOException {
+        Path path = fileStorageService.getFilePath(file);
+        LineIndex index = getIndex(file, path);
+        List<String> lines = ioSchedulingService.call(() -> readLines(path, index, from, count), WAIT_SECONDS);
+        return new TextWindow(from, lines, index.getLineCount());
+    }
+
+    /**
+     * Find lines containing a text, ignoring ASCII case, starting at a line (numbered from 0), or inside
+     * it at a byte offset when offset is not negative. Each call goes through a bounded part of the file,
+     * even within one long line; the result tells where to continue.
+     */
+    public SearchResult search(File file, String query, long from, long offset) throws IOException {
+        Path path = fileStorageService.getFilePath(file);
+        LineIndex index = getIndex(file, path);
+        // Not nested in the index job: a pool thread waiting on a queued job of the same pool could stall it
+        return ioSchedulingService.call(() -> search(path, index, query, from, offset, SEARCH_WINDOW_BYTES), WAIT_SECONDS);
+    }
+
+    private LineIndex getIndex(File file, Path path) throws IOException {
+        String contentKey = fileStorageService.getContentKey(file);
+        synchronized (indexes) {
+            LineIndex cached = indexes.get(contentKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return ioSchedulingService.call(() -> buildIndex(contentKey, path), WAIT_SECONDS);
+    }
+
+    private LineIndex buildIndex(String contentKey, Path path) throws IOException {
+        synchronized (indexes) {
+            LineIndex cached = indexes.get(contentKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        CompletableFuture<LineIndex> own = new CompletableFuture<>();
+        CompletableFuture<LineIndex> running = inFlight.putIfAbsent(contentKey, own);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new UncheckedIOException((IOException) e.getCause());
+                }
+                throw e;
+            }
+        }
+
+        try {
+            LineIndex index = loadIndex(contentKey, path);
+            synchronized (indexes) {
+                indexes.put(contentKey, index);
+            }
+            own.complete(index);
+            return index;
+        } catch (IOException | RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(contentKey);
+        }
+    }
+
+    private LineIndex loadIndex(String contentKey, Path path) throws IOException {
+        // Built earlier, possibly before a restart
+        Path stored = fileStorageService.getDerivedPath(contentKey, VARIANT);
+        if (Files.exists(stored)) {
+            LineIndex index = LineIndex.fromBytes(Files.readAllBytes(stored));
+            if (index.getSize() == Files.size(path)) {
+                return index;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        LineIndex index = LineIndex.build(path);
+        fileStorageService.writeDerived(contentKey, VARIANT, index.toBytes());
+        System.out.println("Indexed " + index.getLineCount() + " lines of " + path.getFileName()
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+        return index;
+    }
+
+    /**
+     * Read up to count lines from a line on, starting at the closest indexed line before it
+     */
+    static List<String> readLines(Path path, LineIndex index, long from, int count) throws IOException {
+        if (from < 0) {
+            throw new IllegalArgumentException("Line must not be negative");
+        }
+        List<String> lines = new ArrayList<>();
+        int limit = Math.max(1, Math.min(count, MAX_LINES));
+        if (from >= index.getLineCount()) {
+            return lines;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Cursor cursor = new Cursor(channel, index.getSize());
+            int entry = index.entryFor(from);
+            long line = index.lines[entry];
+            long position = index.offsets[entry];
+            long budgetEnd = position + MAX_WINDOW_BYTES;
+
+            while (line < from) {
+                position = cursor.lineEnd(position, budgetEnd) + 1;
+                line++;
+                if (position > budgetEnd) {
+                    return lines;
+                }
+            }
+            while (lines.size() < limit && line < index.getLineCount()) {
+                long end = cursor.lineEnd(position, budgetEnd);
+                lines.add(cursor.text(position, end));
+                if (end >= budgetEnd) {
+                    break;
+                }
+                position = end + 1;
+                line++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Find lines containing a text from a line on, going through at most windowBytes of the file.
+     * A non-negative offset continues inside line from at that byte, as a previous result said to.
+     * A line longer than the window is searched a window at a time, and is reported for each window
+     * it matches in.
+     */
+    static SearchResult search(Path path, LineIndex index, String query, long from, long offset,
+                               long windowBytes) throws IOException {
+        if (query == null || query.isEmpty()) {
+            throw new IllegalArgumentException("Search text must not be empty");
+        }
+        if (from < 0) {
+            throw new IllegalArgumentException("Line must not be negative");
+        }
+        if (offset > index.getSize()) {
+            throw new IllegalArgumentException("Offset is past the end of the file");
+        }
+        List<Match> matches = new ArrayList<>();
+        if (from >= index.getLineCount()) {
+            return new SearchResult(matches, -1, -1);
+        }
+
+        byte[] needle = query.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < needle.length; i++) {
+            needle[i] = lowerAscii(needle[i]);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Cursor cursor = new Cursor(channel, index.getSize());
+            long line = from;
+            long position = offset;
+            boolean midLine = offset >= 0;
+            if (!midLine) {
+                int entry = index.entryFor(from);
+                line = index.lines[entry];
+                position = index.offsets[entry];
+                long skipEnd = saturatedAdd(position, windowBytes);
+                while (line < from) {
+                    long end = cursor.lineEnd(position, skipEnd);
+                    if (end >= skipEnd && end < index.getSize()) {
+                        // Still inside a long line before from; the next search carries on from here
+                        return new SearchResult(matches, line, end);
+                    }
+                    position = end + 1;
+                    line++;
+                }
+            }
+
+            // At least one line or window is searched, so a search continued from the result always moves on
+            long start = position;
+            long budgetEnd = saturatedAdd(start, windowBytes);
+            while (line < index.getLineCount()) {
+                long end = cursor.lineEnd(position, budgetEnd);
+                long found = cursor.indexOf(position, end, needle);
+                if (found >= 0) {
+                    // Mid-line, the text starts at the match rather than somewhere before it
+                    matches.add(new Match(line, cursor.text(midLine ? found : position, end)));
+                }
+                if (end >= budgetEnd && end < index.getSize()) {
+                    // The window ends inside this line: carry on in it, a query's length back so a match
+                    // across the cut is still found
+                    return new SearchResult(matches, line, Math.max(position + 1, end - (needle.length - 1)));
+                }
+                position = end + 1;
+                line++;
+                midLine = false;
+                if (line < index.getLineCount() && (position - start >= windowBytes || matches.size() >= MAX_MATCHES)) {
+                    return new SearchResult(matches, line, position);
+                }
+            }
+        }
+        return new SearchResult(matches, -1, -1);
+    }
+
+    private static long saturatedAdd(long position, long bytes) {
+        return position > Long.MAX_VALUE - bytes ? Long.MAX_VALUE : position + bytes;
+    }
+
+    private static byte lowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Reads a file through memory-mapped segments, remapping as positions move past the current one
+     */
+    private static final class Cursor {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer segment;
+        private long segmentStart;
+        private int segmentLength;
+
+        Cursor(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        byte get(long position) throws IOException {
+            if (segment == null || position < segmentStart || position >= segmentStart + segmentLength) {
+                segmentLength = (int) Math.min(SEGMENT_BYTES, size - position);
+                segmentStart = position;
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, position, segmentLength);
+            }
+            return segment.get((int) (position - segmentStart));
+        }
+
+        // Position of the newline ending the line, the end of the file, or limit if reached first
+        long lineEnd(long position, long limit) throws IOException {
+            long end = Math.min(size, limit);
+            while (position < end && get(position) != '\n') {
+                position++;
+            }
+            return position;
+        }
+
+        // Position of the first match between start and end, or -1
+        long indexOf(long start, long end, byte[] needle) throws IOException {
+            for (long i = start; i + needle.length <= end; i++) {
+                int j = 0;
+                while (j < needle.length && lowerAscii(get(i + j)) == needle[j]) {
+                    j++;
+                }
+                if (j == needle.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        String text(long start, long end) throws IOException {
+            if (end > start && get(end - 1) == '\r') {
+                end--;
+            }
+            long stop = Math.min(end, start + MAX_LINE_BYTES);
+            byte[] bytes = new byte[(int) (stop - start)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = get(start + i);
+            }
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            return stop < end ? text + "…" : text;
+        }
+    }
+
+    /**
+     * Start offsets of every few lines of a file, with its line count
+     */
+    static class LineIndex {
+        private final long size;
+        private final long lineCount;
+        final long[] lines;
+        final long[] offsets;
+
+        LineIndex(long size, long lineCount, long[] lines, long[] offsets) {
+            this.size = size;
+            this.lineCount = lineCount;
+            this.lines = lines;
+            this.offsets = offsets;
+        }
+
+        long getSize() { return size; }
+        long getLineCount() { return lineCount; }
+
+        static LineIndex build(Path path) throws IOException {
+            long[] lines = new long[64];
+            long[] offsets = new long[64];
+            int entries = 1;
+            long line = 0;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                byte[] chunk = new byte[64 * 1024];
+                for (long segmentStart = 0; segmentStart < size; segmentStart += SEGMENT_BYTES) {
+                    int segmentLength = (int) Math.min(SEGMENT_BYTES, size - segmentStart);
+                    MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+                    while (segment.hasRemaining()) {
+                        long chunkStart = segmentStart + segment.position();
+                        int length = Math.min(chunk.length, segment.remaining());
+                        segment.get(chunk, 0, length);
+                        for (int i = 0; i < length; i++) {
+                            if (chunk[i] != '\n') {
+                                continue;
+                            }
+                            line++;
+                            long next = chunkStart + i + 1;
+                            if (next < size && (line - lines[entries - 1] >= INDEX_EVERY_LINES
+                                    || next - offsets[entries - 1] >= INDEX_EVERY_BYTES)) {
+                                if (entries == lines.length) {
+                                    lines = Arrays.copyOf(lines, entries * 2);
+                                    offsets = Arrays.copyOf(offsets, entries * 2);
+                                }
+                                lines[entries] = line;
+                                offsets[entries] = next;
+                                entries++;
+                            }
+                        }
+                    }
+                }
+
+                // A last line without a newline still counts
+                if (size > 0 && lastByte(channel, size) != '\n') {
+                    line++;
+                }
+                return new LineIndex(size, line, Arrays.copyOf(lines, entries), Arrays.copyOf(offsets, entries));
+            }
+        }
+
+        private static byte lastByte(FileChannel channel, long size) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, size - 1, 1).get(0);
+        }
+
+        // The last entry at or before a line
+        int entryFor(long line) {
+            int found = Arrays.binarySearch(lines, line);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + lines.length * 16);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(size);
+                out.writeLong(lineCount);
+                out.writeInt(lines.length);
+                for (int i = 0; i < lines.length; i++) {
+                    out.writeLong(lines[i]);
+                    out.writeLong(offsets[i]);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        static LineIndex fromBytes(byte[] bytes) throws IOException {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                long size = in.readLong();
+                long lineCount = in.readLong();
+                int entries = in.readInt();
+                long[] lines = new long[entries];
+                long[] offsets = new long[entries];
+                for (int i = 0; i < entries; i++) {
+                    lines[i] = in.readLong();
+                    offsets[i] = in.readLong();
+                }
+                return new LineIndex(size, lineCount, lines, offsets);
+            }
+        }
+    }
+
+    /**
+     * A window of lines of a text file
+     */
+    public static class TextWindow {
+        private final long from;
+        private final List<String> lines;
+        private final long lineCount;
+
+        public TextWindow(long from, List<String> lines, long lineCount) {
+            this.from = from;
+            this.lines = lines;
+            this.lineCount = lineCount;
+        }
+
+        public long getFrom() { return from; }
+        public List<String> getLines() { return lines; }
+        public long getLineCount() { return lineCount; }
+    }
+
+    /**
+     * Lines found by a search, and the line and byte offset to continue from, or -1 when the end of
+     * the file was reached
+     */
+    public static class SearchResult {
+        private final List<Match> matches;
+        private final long nextLine;
+        private final long nextOffset;
+
+        public SearchResult(List<Match> matches, long nextLine, long nextOffset) {
+            this.matches = matches;
+            this.nextLine = nextLine;
+            this.nextOffset = nextOffset;
+        }
+
+        public List<Match> getMatches() { return matches; }
+        public long getNextLine() { return nextLine; }
+        public long getNextOffset() { return nextOffset; }
+    }
+
+    public static class Match {
+        private final long line;
+        private final String text;
+
+        public Match(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+
+        public long getLine() { return line; }
+        public String getText() { return text; }
+    }
+}
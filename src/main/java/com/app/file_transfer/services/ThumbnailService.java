@@ -0,0 +1,259 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JPEG thumbnails of images in a few fixed sizes, made in the background after upload and stored as
+ * derived artifacts of the content. Files uploaded before thumbnails existed get them on first request.
+ */
+@Service
+public class ThumbnailService {
+
+    // Longest side of each thumbnail, smallest first
+    public static final int[] SIZES = {160, 320, 640};
+    public static final int DEFAULT_SIZE = 320;
+
+    private static final float JPEG_QUALITY = 0.8f;
+
+    // How long a request waits for thumbnails made on demand before answering "busy, retry later"
+    private static final long WAIT_SECONDS = 20;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // After upload, thumbnails are background work: when uploads outpace it, they are made on first request instead
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // One generation per content at a time, shared by the background task and concurrent requests
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Queue thumbnail generation for a new upload, once the surrounding transaction (if any) commits
+     */
+    public void scheduleThumbnails(File file) {
+        if (!fileStorageService.isImage(file.getFileName())) {
+            return;
+        }
+        String contentKey;
+        Path source;
+        try {
+            contentKey = fileStorageService.getContentKey(file);
+            source = fileStorageService.getFilePath(file);
+        } catch (RuntimeException e) {
+            // Never fail an upload over its thumbnails; they can still be made on first request
+            System.err.println("Could not queue thumbnails for " + file.getFileName() + ": " + e.getMessage());
+            return;
+        }
+
+        Runnable task = () -> generate(contentKey, source);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    ioSchedulingService.executor(IoSchedulingService.IoClass.BACKGROUND).execute(task);
+                }
+            });
+        } else {
+            ioSchedulingService.executor(IoSchedulingService.IoClass.BACKGROUND).execute(task);
+        }
+    }
+
+    /**
+     * Get the thumbnail of a file closest to the requested size, generating it if missing.
+     * Returns null if the file is not an image that can be decoded.
+     *
+     * @throws IoSchedulingService.SaturatedException if it must be generated and the preview pool is busy
+     */
+    public Path getThumbnail(File file, Integer requestedSize) {
+        if (!fileStorageService.isImage(file.getFileName())) {
+            return null;
+        }
+        String contentKey = fileStorageService.getContentKey(file);
+        Path thumbnail = fileStorageService.getDerivedPath(contentKey, variant(normalizeSize(requestedSize)));
+        if (Files.exists(thumbnail)) {
+            return thumbnail;
+        }
+
+        Path source = fileStorageService.getFilePath(file);
+        boolean generated;
+        try {
+            generated = ioSchedulingService.call(() -> generate(contentKey, source), WAIT_SECONDS);
+        } catch (IOException e) {
+            generated = false;
+        }
+        return generated && Files.exists(thumbnail) ? thumbnail : null;
+    }
+
+    /**
+     * Pick the smallest fixed size at least as large as the requested one
+     */
+    public static int normalizeSize(Integer requestedSize) {
+        if (requestedSize == null) {
+            return DEFAULT_SIZE;
+        }
+        for (int size : SIZES) {
+            if (size >= requestedSize) {
+                return size;
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    /**
+     * Subsampling step for decoding an image to fit in a maxWidth x maxHeight box: every n-th pixel
+     * is read, keeping about twice the target resolution so scaling down still looks smooth
+     */
+    static int subsamplingFor(int width, int height, int maxWidth, int maxHeight) {
+        long step = Math.max(width / (2L * maxWidth), height / (2L * maxHeight));
+        return (int) Math.max(1, step);
+    }
+
+    /**
+     * Scale an image to fit in a size x size box, never enlarging it
+     */
+    static BufferedImage resize(BufferedImage image, int size) {
+        return resize(image, size, size);
+    }
+
+    /**
+     * Scale an image to fit in a maxWidth x maxHeight box, never enlarging it
+     */
+    static BufferedImage resize(BufferedImage image, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        // JPEG has no alpha, so transparent areas become white
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private boolean generate(String contentKey, Path source) {
+        CompletableFuture<Boolean> own = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(contentKey, own);
+        if (running != null) {
+            return running.join();
+        }
+
+        boolean generated = false;
+        try {
+            generated = writeThumbnails(contentKey, source);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not create thumbnails for " + source.getFileName() + ": " + e.getMessage());
+        } finally {
+            inFlight.remove(contentKey);
+            own.complete(generated);
+        }
+        return generated;
+    }
+
+    private boolean writeThumbnails(String contentKey, Path source) throws IOException {
+        // Already done, e.g. by the background task for the same content
+        if (Files.exists(fileStorageService.getDerivedPath(contentKey, variant(SIZES[SIZES.length - 1])))) {
+            return true;
+        }
+
+        int largest = SIZES[SIZES.length - 1];
+        BufferedImage image = readSubsampled(source, largest, largest);
+        if (image == null) {
+            return false;
+        }
+
+        for (int size : SIZES) {
+            fileStorageService.writeDerived(contentKey, variant(size), encodeJpeg(resize(image, size), JPEG_QUALITY));
+        }
+        return true;
+    }
+
+    /**
+     * Decode an image with source subsampling for a maxWidth x maxHeight box, keeping memory proportional
+     * to the result rather than to the original. Returns null if no reader understands the file.
+     */
+    static BufferedImage readSubsampled(Path source, int maxWidth, int maxHeight) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            return readSubsampled(in, maxWidth, maxHeight);
+        }
+    }
+
+    /**
+     * Same as {@link #readSubsampled(Path, int, int)} for an image already opened as a stream
+     */
+    static BufferedImage readSubsampled(ImageInputStream in, int maxWidth, int maxHeight) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            int step = subsamplingFor(reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Encode an image as JPEG with the given quality, between 0 and 1
+     */
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String variant(int size) {
+        return "thumb-" + size + ".jpg";
+    }
+}
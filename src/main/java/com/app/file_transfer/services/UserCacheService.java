@@ -0,0 +1,96 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.User;
+import com.app.file_transfer.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-lived cache of the signed-in users, so request handlers can resolve the caller without a
+ * query each time. Entries are detached entities: use them for ids, ownership checks and query
+ * parameters, not for navigating their collections.
+ */
+@Service
+public class UserCacheService {
+
+    private static final int MAX_ENTRIES = 1_000;
+
+    // Changes made through UserService are evicted at once; this bounds changes made elsewhere
+    private static final long TTL_MILLIS = 30 * 1000;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    // Access-ordered LinkedHashMap: the least recently used user is evicted first
+    private final Map<String, CachedUser> users = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // Bumped by every eviction; a lookup that raced with one does not cache what it read
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Get a user by username, from the cache when it is recent enough
+     */
+    public User getUser(String username) {
+        if (username == null) {
+            return null;
+        }
+        long now = now();
+
+        synchronized (users) {
+            CachedUser cached = users.get(username);
+            if (cached != null && cached.expiresAt > now) {
+                return cached.user;
+            }
+        }
+
+        long generation = evictions.get();
+        User user = load(username);
+
+        if (user != null) {
+            synchronized (users) {
+                if (evictions.get() == generation) {
+                    users.put(username, new CachedUser(user, now + TTL_MILLIS));
+                }
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Drop a user after its profile changed
+     */
+    public void evict(String username) {
+        evictions.incrementAndGet();
+        synchronized (users) {
+            users.remove(username);
+        }
+    }
+
+    // Read of the user on a cache miss
+    User load(String username) {
+        return userRepository.findByUsername(username);
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static class CachedUser {
+        private final User user;
+        private final long expiresAt;
+
+        CachedUser(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
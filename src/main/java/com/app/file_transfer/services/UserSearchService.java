@@ -0,0 +1,139 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.User;
+import com.app.file_transfer.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory prefix index over usernames and emails, used to pick share recipients without loading
+ * the user table. Kept in sync by UserService and reloaded periodically for users created elsewhere.
+ */
+@Service
+public class UserSearchService {
+
+    public static final int MAX_RESULTS = 20;
+
+    // Keys are "<lowercased term>\0<user id>", so equal terms of different users do not collide
+    private static final char KEY_SEPARATOR = '\0';
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private final NavigableMap<String, UserEntry> index = new ConcurrentSkipListMap<>();
+    private final Map<Long, UserEntry> entriesById = new ConcurrentHashMap<>();
+
+    /**
+     * Load every user into the index
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelay = 15 * 60 * 1000, fixedDelay = 15 * 60 * 1000)
+    public void reload() {
+        List<Object[]> rows = userRepository.findSearchEntries();
+        for (Object[] row : rows) {
+            index(new UserEntry((Long) row[0], (String) row[1], (String) row[2], (String) row[3]));
+        }
+        System.out.println("User search index holds " + entriesById.size() + " user(s)");
+    }
+
+    /**
+     * Add a user to the index, or refresh it after its username, email or avatar changed
+     */
+    public void index(User user) {
+        if (user == null || user.getId() == null) {
+            return;
+        }
+        index(new UserEntry(user.getId(), user.getUsername(), user.getEmail(), user.getAvatar()));
+    }
+
+    /**
+     * Find users whose username or email starts with the query, ignoring case.
+     * The excluded user (usually the one searching) is left out.
+     */
+    public List<UserEntry> search(String query, String excludedUsername, int limit) {
+        String prefix = normalize(query);
+        if (prefix == null) {
+            return List.of();
+        }
+        int max = Math.max(1, Math.min(limit, MAX_RESULTS));
+
+        // Matches of a user's username and email are both in range; keep each user once
+        Map<Long, UserEntry> matches = new LinkedHashMap<>();
+        for (Map.Entry<String, UserEntry> entry : index.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || matches.size() >= max) {
+                break;
+            }
+            UserEntry user = entry.getValue();
+            if (!user.getUsername().equals(excludedUsername)) {
+                matches.putIfAbsent(user.getId(), user);
+            }
+        }
+        return new ArrayList<>(matches.values());
+    }
+
+    // Writes are rare (registration, profile edits), so they are simply serialized
+    private synchronized void index(UserEntry entry) {
+        UserEntry previous = entriesById.put(entry.getId(), entry);
+        if (previous != null) {
+            for (String key : keysOf(previous)) {
+                index.remove(key);
+            }
+        }
+        for (String key : keysOf(entry)) {
+            index.put(key, entry);
+        }
+    }
+
+    private List<String> keysOf(UserEntry entry) {
+        List<String> keys = new ArrayList<>(2);
+        for (String term : new String[]{entry.getUsername(), entry.getEmail()}) {
+            String normalized = normalize(term);
+            if (normalized != null) {
+                keys.add(normalized + KEY_SEPARATOR + entry.getId());
+            }
+        }
+        return keys;
+    }
+
+    private static String normalize(String term) {
+        if (term == null || term.isBlank()) {
+            return null;
+        }
+        return term.trim().toLowerCase(Locale.ROOT).replace(String.valueOf(KEY_SEPARATOR), "");
+    }
+
+    /**
+     * A user as seen by the search, without the JPA entity and its collections
+     */
+    public static class UserEntry {
+        private final Long id;
+        private final String username;
+        private final String email;
+        private final String avatar;
+
+        public UserEntry(Long id, String username, String email, String avatar) {
+            this.id = id;
+            this.username = username;
+            this.email = email;
+            this.avatar = avatar;
+        }
+
+        // Getters
+        public Long getId() { return id; }
+        public String getUsername() { return username; }
+        public String getEmail() { return email; }
+        public String getAvatar() { return avatar; }
+    }
+}
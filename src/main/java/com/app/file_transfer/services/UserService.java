@@ -11,7 +11,6 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.UUID;
 
@@ -26,16 +25,11 @@ public class UserService {
     @Autowired
     private FileStorageService fileStorageService;
 
-    private final Path avatarStorageLocation;
-    
-    public UserService() {
-        this.avatarStorageLocation = Paths.get("./uploads/avatars").toAbsolutePath().normalize();
-        try {
-            Files.createDirectories(this.avatarStorageLocation);
-        } catch (Exception ex) {
-            throw new RuntimeException("Could not create the directory where the avatar files will be stored.", ex);
-        }
-    }
+    @Autowired
+    private UserSearchService userSearchService;
+
+    @Autowired
+    private UserCacheService userCacheService;
 
 
     public User registerNewUser(String username, String rawPassword, String email) {
@@ -43,14 +37,17 @@ public class UserService {
         user.setUsername(username);
         user.setPassword(passwordEncoder.encode(rawPassword)); // Encode password
         user.setEmail(email);
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userCacheService.evict(username);
+        userSearchService.index(saved);
+        return saved;
     }
     public boolean isUsernameTaken(String username) {
         return userRepository.findByUsername(username) != null;
     }
     
     public User getUserByUsername(String username) {
-        return userRepository.findByUsername(username);
+        return userCacheService.getUser(username);
     }
     
     public User updateUserAvatar(String username, MultipartFile avatarFile) {
@@ -69,12 +66,16 @@ public class UserService {
             String avatarFilename = "avatar_" + UUID.randomUUID().toString() + fileExtension;
             
             // Save the avatar file
-            Path targetLocation = this.avatarStorageLocation.resolve(avatarFilename);
+            Path targetLocation = fileStorageService.getAvatarPath(avatarFilename);
+            Files.createDirectories(targetLocation.getParent());
             Files.copy(avatarFile.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
             
             // Update the user's avatar field
             user.setAvatar(avatarFilename);
-            return userRepository.save(user);
+            User saved = userRepository.save(user);
+            userCacheService.evict(username);
+            userSearchService.index(saved);
+            return saved;
         } catch (IOException ex) {
             throw new RuntimeException("Could not store avatar file. Please try again!", ex);
         }
@@ -88,6 +89,9 @@ public class UserService {
         
         user.setEmail(email);
         user.setBio(bio);
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userCacheService.evict(username);
+        userSearchService.index(saved);
+        return saved;
     }
 }
@@ -0,0 +1,266 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Prepares uploaded MP4 videos for streaming, in the background after upload. Files whose movie box
+ * ({@code moov}) comes after the media data get a "faststart" copy with it moved to the front, so
+ * players can start without fetching the end of the file. Stored content is never rewritten, as blobs
+ * are addressed by their hash; the copy is a derived artifact. It doubles the disk space of the video
+ * and is not counted in anyone's storage usage, so only videos up to a configured size get one; larger
+ * ones are streamed as stored, and players fetch the movie box from the end. A keyframe index (time and
+ * byte offset of each keyframe in the streamed file) is stored next to it, for seeking straight to keyframes.
+ */
+@Service
+public class VideoIndexService {
+
+    private static final String FASTSTART_VARIANT = "faststart.mp4";
+
+    // Bump when the index format changes, so indexes written by an older version are rebuilt
+    private static final String KEYFRAMES_VARIANT = "keyframes-v1.idx";
+
+    private static final int MAX_CACHED_INDEXES = 64;
+
+    // 0 turns faststart copies off
+    @Value("${file-storage.video.faststart-max-size-mb:512}")
+    private long faststartMaxSizeMb;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // Rewriting is background work: the bounded background pool drops what can be redone on request
+    @Autowired
+    private IoSchedulingService ioSchedulingService;
+
+    // One job per content at a time, shared by the background task and requests
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    // Access-ordered LinkedHashMap: the least recently used indexes are evicted first
+    private final Map<String, KeyframeIndex> indexes = new LinkedHashMap<>(MAX_CACHED_INDEXES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, KeyframeIndex> eldest) {
+            return size() > MAX_CACHED_INDEXES;
+        }
+    };
+
+    /**
+     * Check if a file is a video this service prepares
+     */
+    public boolean isSupported(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".mp4") || name.endsWith(".m4v");
+    }
+
+    /**
+     * Queue preparation of a new upload, once the surrounding transaction (if any) commits
+     */
+    public void scheduleIndexing(File file) {
+        if (!isSupported(file.getFileName())) {
+            return;
+        }
+        String contentKey;
+        Path source;
+        try {
+            contentKey = fileStorageService.getContentKey(file);
+            source = fileStorageService.getFilePath(file);
+        } catch (RuntimeException e) {
+            // Never fail an upload over this; it is redone when the video is first played
+            System.err.println("Could not queue indexing for " + file.getFileName() + ": " + e.getMessage());
+            return;
+        }
+
+        Runnable task = () -> prepare(contentKey, source);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    ioSchedulingService.executor(IoSchedulingService.IoClass.BACKGROUND).execute(task);
+                }
+            });
+        } else {
+            ioSchedulingService.executor(IoSchedulingService.IoClass.BACKGROUND).execute(task);
+        }
+    }
+
+    /**
+     * Get the faststart copy of a video, or null if it has none (yet)
+     */
+    public Path getFaststartPath(File file) {
+        if (!isSupported(file.getFileName())) {
+            return null;
+        }
+        return getFaststartPath(fileStorageService.getContentKey(file));
+    }
+
+    /**
+     * Get the faststart copy of a video by its content key, or null if it has none (yet)
+     */
+    public Path getFaststartPath(String contentKey) {
+        Path faststart = fileStorageService.getDerivedPath(contentKey, FASTSTART_VARIANT);
+        return Files.exists(faststart) ? faststart : null;
+    }
+
+    /**
+     * Get the keyframe index of a video. Returns null while it is not ready, and queues its preparation
+     * for videos uploaded before indexing existed.
+     */
+    public KeyframeIndex getKeyframes(File file) throws IOException {
+        if (!isSupported(file.getFileName())) {
+            return null;
+        }
+        String contentKey = fileStorageService.getContentKey(file);
+        synchronized (indexes) {
+            KeyframeIndex cached = indexes.get(contentKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Path stored = fileStorageService.getDerivedPath(contentKey, KEYFRAMES_VARIANT);
+        if (!Files.exists(stored)) {
+            Path source = fileStorageService.getFilePath(file);
+            if (!inFlight.containsKey(contentKey)) {
+                ioSchedulingService.executor(IoSchedulingService.IoClass.BACKGROUND).execute(() -> prepare(contentKey, source));
+            }
+            return null;
+        }
+
+        KeyframeIndex index = KeyframeIndex.fromBytes(Files.readAllBytes(stored));
+        synchronized (indexes) {
+            indexes.put(contentKey, index);
+        }
+        return index;
+    }
+
+    private boolean prepare(String contentKey, Path source) {
+        CompletableFuture<Boolean> own = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(contentKey, own);
+        if (running != null) {
+            return running.join();
+        }
+
+        boolean prepared = false;
+        try {
+            if (Files.exists(fileStorageService.getDerivedPath(contentKey, KEYFRAMES_VARIANT))) {
+                prepared = true;
+            } else {
+                long start = System.currentTimeMillis();
+                prepared = writeArtifacts(contentKey, source);
+                System.out.println("Prepared " + source.getFileName() + " for streaming in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not prepare " + source.getFileName() + " for streaming: " + e.getMessage());
+        } finally {
+            inFlight.remove(contentKey);
+            own.complete(prepared);
+        }
+        return prepared;
+    }
+
+    private boolean writeArtifacts(String contentKey, Path source) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            List<Mp4File.Box> boxes = Mp4File.readBoxes(in);
+            Mp4File.Box moovBox = Mp4File.find(boxes, "moov");
+            if (moovBox == null) {
+                return false;
+            }
+            ByteBuffer moov = Mp4File.readBox(in, moovBox);
+            ByteBuffer streamed = moov;
+
+            // The copy goes first: once the index exists, its offsets are those of the file that is streamed
+            if (Mp4File.needsFaststart(boxes) && isCopyAllowed(in.size(), faststartMaxSizeMb)) {
+                ByteBuffer moved = ByteBuffer.allocate(moov.capacity()).put(moov.duplicate()).flip();
+                try {
+                    Mp4File.shiftChunkOffsets(moved, moovBox.size);
+                    fileStorageService.writeDerived(contentKey, FASTSTART_VARIANT, temp -> {
+                        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                            Mp4File.writeFaststart(in, boxes, moved, out);
+                        }
+                    });
+                    streamed = moved;
+                } catch (IllegalStateException e) {
+                    System.err.println("Could not move the movie box of " + source.getFileName() + ": " + e.getMessage());
+                }
+            }
+
+            KeyframeIndex index = Mp4File.keyframes(streamed);
+            if (index == null) {
+                index = new KeyframeIndex(0, new long[0], new long[0]);
+            }
+            fileStorageService.writeDerived(contentKey, KEYFRAMES_VARIANT, index.toBytes());
+            return true;
+        }
+    }
+
+    static boolean isCopyAllowed(long size, long maxSizeMb) {
+        return size <= maxSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * Keyframes of a video: their times in milliseconds and their byte offsets in the streamed file
+     */
+    public static class KeyframeIndex {
+        private final long durationMs;
+        private final long[] times;
+        private final long[] offsets;
+
+        public KeyframeIndex(long durationMs, long[] times, long[] offsets) {
+            this.durationMs = durationMs;
+            this.times = times;
+            this.offsets = offsets;
+        }
+
+        public long getDurationMs() { return durationMs; }
+        public long[] getTimes() { return times; }
+        public long[] getOffsets() { return offsets; }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + times.length * 16);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(durationMs);
+                out.writeInt(times.length);
+                for (int i = 0; i < times.length; i++) {
+                    out.writeLong(times[i]);
+                    out.writeLong(offsets[i]);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        static KeyframeIndex fromBytes(byte[] bytes) throws IOException {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                long durationMs = in.readLong();
+                int count = in.readInt();
+                long[] times = new long[count];
+                long[] offsets = new long[count];
+                for (int i = 0; i < count; i++) {
+                    times[i] = in.readLong();
+                    offsets[i] = in.readLong();
+                }
+                return new KeyframeIndex(durationMs, times, offsets);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.app.file_transfer.services;
+
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Service
+public class ZipStreamingService {
+
+    // Copy buffer per archive; memory use does not depend on the number or size of entries
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Formats that are already compressed and gain nothing from another deflate pass
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp",
+            "mp4", "webm", "mov", "avi", "mkv", "wmv", "flv",
+            "mp3", "ogg", "aac", "flac",
+            "zip", "rar", "7z", "gz", "bz2", "xz",
+            "docx", "xlsx", "pptx"
+    );
+
+    /**
+     * Write a ZIP archive of the given files directly to the output stream.
+     * Each file is copied through a fixed-size buffer, so nothing is staged on disk or in memory.
+     */
+    public void writeZip(List<ZipSource> sources, OutputStream outputStream) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Set<String> usedNames = new HashSet<>();
+
+        for (ZipSource source : sources) {
+            String entryName = uniqueEntryName(source.getEntryName(), usedNames);
+
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setTime(Files.getLastModifiedTime(source.getPath()).toMillis());
+
+            // Already-compressed content is written with level 0 so no CPU is spent re-deflating it
+            zipOut.setLevel(isCompressedFormat(entryName) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zipOut.putNextEntry(entry);
+
+            try (InputStream in = Files.newInputStream(source.getPath())) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    zipOut.write(buffer, 0, read);
+                }
+            }
+            zipOut.closeEntry();
+        }
+
+        zipOut.finish();
+        zipOut.flush();
+    }
+
+    /**
+     * Check if a file name points to an already-compressed format
+     */
+    public boolean isCompressedFormat(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex < 0 || dotIndex == fileName.length() - 1) {
+            return false;
+        }
+        return COMPRESSED_EXTENSIONS.contains(fileName.substring(dotIndex + 1).toLowerCase());
+    }
+
+    // ZIP entry names must be unique, so repeated names get a (n) suffix like stored files do
+    private String uniqueEntryName(String name, Set<String> usedNames) {
+        if (usedNames.add(name)) {
+            return name;
+        }
+
+        String baseName = name;
+        String extension = "";
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex > 0) {
+            baseName = name.substring(0, dotIndex);
+            extension = name.substring(dotIndex);
+        }
+
+        int count = 1;
+        String candidate = baseName + "(" + count + ")" + extension;
+        while (!usedNames.add(candidate)) {
+            count++;
+            candidate = baseName + "(" + count + ")" + extension;
+        }
+        return candidate;
+    }
+
+    /**
+     * A file to add to the archive under the given entry name
+     */
+    public static class ZipSource {
+        private final String entryName;
+        private final Path path;
+
+        public ZipSource(String entryName, Path path) {
+            this.entryName = entryName;
+            this.path = path;
+        }
+
+        public String getEntryName() { return entryName; }
+        public Path getPath() { return path; }
+    }
+}
@@ -1,4 +1,8 @@
 // Alpine.js Dashboard Data and Methods
+
+// Lines shown per page of the text viewer
+const TEXT_PAGE_LINES = 200;
+
 document.addEventListener('alpine:init', () => {
     Alpine.data('dashboard', () => ({
         // Modal states
@@ -25,7 +29,26 @@ document.addEventListener('alpine:init', () => {
             previewUrl: '',
             previewType: '',
             loading: false,
-            error: null
+            error: null,
+            // Page-by-page PDF viewer; pdfFallback shows the PDF itself when pages cannot be shown as images
+            pdfPage: 1,
+            pdfPages: 0,
+            pdfWidth: 0,
+            pdfFallback: false,
+            // HTML preview of Word, Excel and PowerPoint files, empty when there is none
+            documentHtml: '',
+            // Paged text viewer; lines are numbered from 0, textNextLine and textNextOffset are where the next search carries on (-1 at the end)
+            textFrom: 0,
+            textLines: [],
+            textLineCount: 0,
+            textQuery: '',
+            textMatches: [],
+            textNextLine: -1,
+            textNextOffset: -1,
+            textSearching: false,
+            // Entries of a ZIP archive, listed a page at a time
+            archiveEntries: [],
+            archiveEntryCount: 0
         },
 
         // Abort controller for canceling requests
@@ -116,12 +139,6 @@ document.addEventListener('alpine:init', () => {
         // File management methods
         addFiles(files) {
             Array.from(files).forEach(file => {
-                // Check file size (100MB limit)
-                if (file.size > 100 * 1024 * 1024) {
-                    alert(`File "${file.name}" is too large. Maximum size is 100MB.`);
-                    return;
-                }
-
                 // Check if file already exists
                 if (this.selectedFiles.find(f => f.name === file.name && f.size === file.size)) {
                     return;
@@ -202,27 +219,19 @@ document.addEventListener('alpine:init', () => {
             uploadBtn.disabled = true;
             uploadBtn.textContent = 'Uploading...';
 
-            // Create FormData and append files
-            const formData = new FormData(form);
-            this.selectedFiles.forEach(file => {
-                formData.append('file', file);
-            });
-
-            // Simulate upload progress
-            let progress = 0;
-            const interval = setInterval(() => {
-                progress += Math.random() * 15;
-                if (progress > 100) progress = 100;
-
+            // Upload in resumable chunks (see uploadFilesInChunks in dashboard.js)
+            const folderId = form.querySelector('input[name="folderId"]')?.value;
+            uploadFilesInChunks(this.selectedFiles, folderId, (loaded, total) => {
+                const progress = total > 0 ? (loaded / total) * 100 : 100;
                 progressBar.style.width = progress + '%';
                 progressPercent.textContent = Math.round(progress) + '%';
-
-                if (progress >= 100) {
-                    clearInterval(interval);
-                    // Submit the form
-                    form.submit();
-                }
-            }, 200);
+            }).then(() => {
+                window.location.reload();
+            }).catch(error => {
+                alert(`Upload failed: ${error.message}`);
+                uploadBtn.disabled = false;
+                uploadBtn.textContent = 'Retry Upload';
+            });
         },
 
         // Initialize upload modal
@@ -337,6 +346,7 @@ document.addEventListener('alpine:init', () => {
 
             form.setAttribute('action', '/files/send/' + fileId);
             input.value = fileId;
+            resetUserSearch(form.querySelector('[data-user-search]'));
 
             // Set selected file data
             this.selectedFile.id = fileId;
@@ -428,6 +438,20 @@ document.addEventListener('alpine:init', () => {
             this.previewData.error = null;
             this.previewData.fileId = fileId;
             this.previewData.fileName = fileName;
+            this.previewData.pdfPage = 1;
+            this.previewData.pdfPages = 0;
+            this.previewData.pdfFallback = false;
+            this.previewData.documentHtml = '';
+            this.previewData.textFrom = 0;
+            this.previewData.textLines = [];
+            this.previewData.textLineCount = 0;
+            this.previewData.textQuery = '';
+            this.previewData.textMatches = [];
+            this.previewData.textNextLine = -1;
+            this.previewData.textNextOffset = -1;
+            this.previewData.textSearching = false;
+            this.previewData.archiveEntries = [];
+            this.previewData.archiveEntryCount = 0;
             this.showPreviewModal = true;
 
             try {
@@ -453,8 +477,38 @@ document.addEventListener('alpine:init', () => {
                 this.previewData.fileName = metadata.fileName;
                 this.previewData.fileType = metadata.fileType;
                 this.previewData.fileSize = metadata.fileSizeFormatted;
-                this.previewData.previewUrl = previewInfo.previewUrl;
                 this.previewData.previewType = previewInfo.previewType.toLowerCase();
+                // Images are requested at the size they are shown, not at their original resolution
+                this.previewData.previewUrl = this.previewData.previewType === 'image'
+                    ? `${previewInfo.previewUrl}?width=${Math.round(window.innerWidth * (window.devicePixelRatio || 1))}`
+                    : previewInfo.previewUrl;
+
+                // PDFs are shown one page image at a time, so the first page appears without downloading the document
+                if (this.previewData.previewType === 'pdf') {
+                    const pagesResponse = await fetch(`/files/api/preview/${fileId}/pages`, {
+                        signal: this.previewAbortController.signal
+                    });
+                    this.previewData.pdfPages = pagesResponse.ok ? (await pagesResponse.json()).pageCount : 0;
+                    this.previewData.pdfWidth = Math.round(Math.min(window.innerWidth, 1200) * (window.devicePixelRatio || 1));
+                }
+
+                // Office files are converted on the server to a lightweight HTML preview
+                if (this.previewData.previewType === 'document') {
+                    const documentResponse = await fetch(`${previewInfo.previewUrl}/document`, {
+                        signal: this.previewAbortController.signal
+                    });
+                    this.previewData.documentHtml = documentResponse.ok ? await documentResponse.text() : '';
+                }
+
+                // Text files are read a window of lines at a time, however large they are
+                if (this.previewData.previewType === 'text') {
+                    await this.showTextLines(0);
+                }
+
+                // Archives are listed from their central directory; single entries can then be downloaded
+                if (this.previewData.previewType === 'archive') {
+                    await this.loadArchiveEntries();
+                }
                 this.previewData.loading = false;
 
             } catch (error) {
@@ -470,6 +524,79 @@ document.addEventListener('alpine:init', () => {
             }
         },
 
+        pdfPageUrl(page) {
+            return `${this.previewData.previewUrl}/pages/${page}?width=${this.previewData.pdfWidth}`;
+        },
+
+        showPdfPage(page) {
+            if (page >= 1 && page <= this.previewData.pdfPages) {
+                this.previewData.pdfPage = page;
+            }
+        },
+
+        // Warm the next page while the current one is being read
+        prefetchNextPdfPage() {
+            if (this.previewData.pdfPage < this.previewData.pdfPages) {
+                new Image().src = this.pdfPageUrl(this.previewData.pdfPage + 1);
+            }
+        },
+
+        async showTextLines(from) {
+            const start = Math.max(0, Math.min(from, Math.max(0, this.previewData.textLineCount - 1)));
+            const response = await fetch(`/files/api/preview/${this.previewData.fileId}/lines?from=${start}&count=${TEXT_PAGE_LINES}`, {
+                signal: this.previewAbortController ? this.previewAbortController.signal : undefined
+            });
+            if (!response.ok) {
+                throw new Error('Failed to load file content');
+            }
+            const page = await response.json();
+            this.previewData.textFrom = page.from;
+            this.previewData.textLines = page.lines;
+            this.previewData.textLineCount = page.lineCount;
+        },
+
+        // Search from the start, or carry on from where the last search stopped
+        async searchText(more) {
+            const query = this.previewData.textQuery.trim();
+            if (!query || (more && this.previewData.textNextLine < 0)) {
+                return;
+            }
+            const from = more ? this.previewData.textNextLine : 0;
+            const offset = more ? this.previewData.textNextOffset : -1;
+            this.previewData.textSearching = true;
+            try {
+                const response = await fetch(`/files/api/preview/${this.previewData.fileId}/search?q=${encodeURIComponent(query)}&from=${from}&offset=${offset}`);
+                if (!response.ok) {
+                    throw new Error('Search failed');
+                }
+                const result = await response.json();
+                this.previewData.textMatches = more ? this.previewData.textMatches.concat(result.matches) : result.matches;
+                this.previewData.textNextLine = result.nextLine;
+                this.previewData.textNextOffset = result.nextOffset;
+            } catch (error) {
+                console.error('Error searching file:', error);
+            } finally {
+                this.previewData.textSearching = false;
+            }
+        },
+
+        async loadArchiveEntries() {
+            const from = this.previewData.archiveEntries.length;
+            const response = await fetch(`/files/api/preview/${this.previewData.fileId}/entries?from=${from}`, {
+                signal: this.previewAbortController ? this.previewAbortController.signal : undefined
+            });
+            if (!response.ok) {
+                throw new Error('Failed to read the archive');
+            }
+            const page = await response.json();
+            this.previewData.archiveEntries = this.previewData.archiveEntries.concat(page.entries);
+            this.previewData.archiveEntryCount = page.entryCount;
+        },
+
+        archiveEntryUrl(entry) {
+            return `/files/preview/${this.previewData.fileId}/entries/${entry.index}`;
+        },
+
         downloadCurrentFile() {
             if (this.previewData.fileId) {
                 window.location.href = `/files/download/${this.previewData.fileId}`;
@@ -511,7 +638,22 @@ document.addEventListener('alpine:init', () => {
                 previewUrl: '',
                 previewType: '',
                 loading: false,
-                error: null
+                error: null,
+                pdfPage: 1,
+                pdfPages: 0,
+                pdfWidth: 0,
+                pdfFallback: false,
+                documentHtml: '',
+                textFrom: 0,
+                textLines: [],
+                textLineCount: 0,
+                textQuery: '',
+                textMatches: [],
+                textNextLine: -1,
+                textNextOffset: -1,
+                textSearching: false,
+                archiveEntries: [],
+                archiveEntryCount: 0
             };
         },
 
@@ -49,12 +49,6 @@ function formatFileSize(bytes) {
 
 function addFiles(files) {
     Array.from(files).forEach(file => {
-        // Check file size (100MB limit)
-        if (file.size > 100 * 1024 * 1024) {
-            alert(`File "${file.name}" is too large. Maximum size is 100MB.`);
-            return;
-        }
-
         // Check if file already exists
         if (selectedFiles.find(f => f.name === file.name && f.size === file.size)) {
             alert(`File "${file.name}" is already selected.`);
@@ -143,25 +137,134 @@ function uploadFiles() {
     uploadBtn.disabled = true;
     uploadBtn.textContent = 'Uploading...';
 
-    const formData = new FormData(form);
-    selectedFiles.forEach(file => {
-        formData.append('file', file);
+    const folderId = form.querySelector('input[name="folderId"]')?.value;
+    uploadFilesInChunks(selectedFiles, folderId, (loaded, total) => {
+        const progress = total > 0 ? (loaded / total) * 100 : 100;
+        progressBar.style.width = progress + '%';
+        progressPercent.textContent = Math.round(progress) + '%';
+    }).then(() => {
+        window.location.reload();
+    }).catch(error => {
+        alert(`Upload failed: ${error.message}`);
+        uploadBtn.disabled = false;
+        uploadBtn.textContent = 'Retry Upload';
     });
+}
 
-    // Simulate upload progress (replace with actual XHR for real progress if needed)
-    let progress = 0;
-    const interval = setInterval(() => {
-        progress += Math.random() * 15;
-        if (progress > 100) progress = 100;
+// Chunked, resumable uploads
+const UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+const PARALLEL_CHUNK_UPLOADS = 4;
+const MAX_CHUNK_RETRIES = 5;
 
-        progressBar.style.width = progress + '%';
-        progressPercent.textContent = Math.round(progress) + '%';
+function uploadSessionKey(file, folderId) {
+    return `upload:${folderId || 'root'}:${file.name}:${file.size}:${file.lastModified}`;
+}
+
+async function readUploadError(response, fallback) {
+    try {
+        const data = await response.json();
+        return data.error || fallback;
+    } catch (e) {
+        return fallback;
+    }
+}
 
-        if (progress >= 100) {
-            clearInterval(interval);
-            form.submit();
+// Resume a session saved for this file if the server still has it, otherwise start a new one
+async function startOrResumeUpload(file, folderId) {
+    const key = uploadSessionKey(file, folderId);
+    const savedUploadId = localStorage.getItem(key);
+
+    if (savedUploadId) {
+        const response = await fetch(`/files/api/uploads/${savedUploadId}`);
+        if (response.ok) {
+            return response.json();
         }
-    }, 200);
+        localStorage.removeItem(key);
+    }
+
+    const params = new URLSearchParams({
+        fileName: file.name,
+        fileSize: file.size,
+        contentType: file.type || 'application/octet-stream',
+        chunkSize: UPLOAD_CHUNK_SIZE
+    });
+    if (folderId) {
+        params.append('folderId', folderId);
+    }
+
+    const response = await fetch('/files/api/uploads', { method: 'POST', body: params });
+    if (!response.ok) {
+        throw new Error(await readUploadError(response, `Could not start upload of ${file.name}`));
+    }
+
+    const session = await response.json();
+    localStorage.setItem(key, session.uploadId);
+    return session;
+}
+
+// Upload one chunk, retrying network and server errors with exponential backoff
+async function uploadChunk(session, file, index) {
+    const start = index * session.chunkSize;
+    const chunk = file.slice(start, Math.min(start + session.chunkSize, file.size));
+
+    for (let attempt = 0; ; attempt++) {
+        let retryable = true;
+        try {
+            const response = await fetch(`/files/api/uploads/${session.uploadId}/chunks/${index}`, {
+                method: 'PUT',
+                body: chunk
+            });
+            if (response.ok) {
+                return chunk.size;
+            }
+            retryable = response.status >= 500;
+            if (!retryable || attempt >= MAX_CHUNK_RETRIES) {
+                throw new Error(await readUploadError(response, `Chunk ${index} of ${file.name} failed`));
+            }
+        } catch (error) {
+            if (!retryable || attempt >= MAX_CHUNK_RETRIES) {
+                throw error;
+            }
+        }
+        await new Promise(resolve => setTimeout(resolve, Math.min(1000 * 2 ** attempt, 15000)));
+    }
+}
+
+async function uploadFileInChunks(file, folderId, onProgress) {
+    const session = await startOrResumeUpload(file, folderId);
+    const pending = [...session.missingChunks];
+    let uploaded = session.fileSize - pending.reduce((sum, index) =>
+        sum + Math.min(session.chunkSize, session.fileSize - index * session.chunkSize), 0);
+    onProgress(uploaded);
+
+    // A few chunks in flight at once keeps the link busy without flooding the server
+    const workers = Array.from({ length: Math.min(PARALLEL_CHUNK_UPLOADS, pending.length) }, async () => {
+        while (pending.length > 0) {
+            const index = pending.shift();
+            uploaded += await uploadChunk(session, file, index);
+            onProgress(uploaded);
+        }
+    });
+    await Promise.all(workers);
+
+    const response = await fetch(`/files/api/uploads/${session.uploadId}/complete`, { method: 'POST' });
+    if (!response.ok) {
+        throw new Error(await readUploadError(response, `Could not finish upload of ${file.name}`));
+    }
+    localStorage.removeItem(uploadSessionKey(file, folderId));
+    return response.json();
+}
+
+async function uploadFilesInChunks(files, folderId, onProgress) {
+    const totalBytes = files.reduce((sum, file) => sum + file.size, 0);
+    let completedBytes = 0;
+
+    for (const file of files) {
+        if (file.size === 0) continue;
+        await uploadFileInChunks(file, folderId, loaded => onProgress(completedBytes + loaded, totalBytes));
+        completedBytes += file.size;
+    }
+    onProgress(totalBytes, totalBytes);
 }
 function updateDownloadButton() {
     const checkboxes = document.querySelectorAll('.file-checkbox:checked');
@@ -186,11 +289,11 @@ function downloadSelectedFiles() {
 
     form.submit();
 }
-document.querySelectorAll('.file-checkbox').forEach(cb => {
-    cb.addEventListener('change', () => {
-        const hasChecked = document.querySelectorAll('.file-checkbox:checked').length > 0;
-        document.getElementById('downloadSelectedBtn').disabled = !hasChecked;
-    });
+// Delegated so rows appended while scrolling are covered as well
+document.addEventListener('change', (e) => {
+    if (!e.target.matches('.file-checkbox')) return;
+    const hasChecked = document.querySelectorAll('.file-checkbox:checked').length > 0;
+    document.getElementById('downloadSelectedBtn').disabled = !hasChecked;
 });
 
 
@@ -399,6 +502,7 @@ function openShareModal(fileId, fileName) {
 
     form.setAttribute('action', `/files/send/${fileId}`);
     input.value = fileId;
+    resetUserSearch(form.querySelector('[data-user-search]'));
     alpineData.selectedFile.id = fileId;
     alpineData.selectedFile.fileName = fileName;
     alpineData.showShareModel = true;
@@ -434,11 +538,11 @@ document.addEventListener('alpine:init', () => {
     }));
 });
 
-// Initialize checkbox event listeners
-document.addEventListener('DOMContentLoaded', () => {
-    document.querySelectorAll('.file-checkbox').forEach(checkbox => {
-        checkbox.addEventListener('change', updateDeleteButton);
-    });
+// Initialize checkbox event listeners (delegated, rows may be appended later)
+document.addEventListener('change', (e) => {
+    if (e.target.matches('.file-checkbox')) {
+        updateDeleteButton();
+    }
 });
 
 
@@ -0,0 +1,53 @@
+// Infinite scroll for server-rendered listings.
+// A sentinel element with data-infinite-scroll, data-url and data-cursor loads the next page when it
+// scrolls into view. The response is HTML made of <template data-target="id"> elements whose content is
+// appended to the element with that id; the X-Next-Cursor header holds the cursor of the following page.
+function setupInfiniteScroll(sentinel) {
+    let cursor = sentinel.dataset.cursor;
+    let loading = false;
+
+    const observer = new IntersectionObserver(async (entries) => {
+        if (!entries.some(entry => entry.isIntersecting) || loading || !cursor) return;
+        loading = true;
+
+        try {
+            const url = new URL(sentinel.dataset.url, window.location.origin);
+            url.searchParams.set('cursor', cursor);
+
+            const response = await fetch(url, { headers: { 'Accept': 'text/html' } });
+            if (!response.ok) {
+                throw new Error('HTTP ' + response.status);
+            }
+
+            const doc = new DOMParser().parseFromString(await response.text(), 'text/html');
+            doc.querySelectorAll('template[data-target]').forEach(template => {
+                const target = document.getElementById(template.dataset.target);
+                if (target) {
+                    target.appendChild(document.importNode(template.content, true));
+                }
+            });
+
+            cursor = response.headers.get('X-Next-Cursor');
+        } catch (error) {
+            console.error('Could not load more items:', error);
+            cursor = null;
+        } finally {
+            loading = false;
+        }
+
+        if (!cursor) {
+            observer.disconnect();
+            sentinel.remove();
+        } else {
+            // Observe again so a sentinel that is still visible loads the following page too
+            observer.unobserve(sentinel);
+            observer.observe(sentinel);
+        }
+    }, { rootMargin: '400px' });
+
+    observer.observe(sentinel);
+}
+
+document.addEventListener('DOMContentLoaded', () => {
+    document.querySelectorAll('[data-infinite-scroll]').forEach(setupInfiniteScroll);
+});
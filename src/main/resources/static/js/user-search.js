@@ -0,0 +1,101 @@
+// Recipient picker backed by /api/users/search.
+// Markup: an element with data-user-search containing a text input (data-user-search-input), a hidden
+// input holding the chosen user id (data-user-search-value) and a list for suggestions (data-user-search-results).
+const USER_SEARCH_DELAY_MS = 200;
+
+function setupUserSearch(container) {
+    const input = container.querySelector('[data-user-search-input]');
+    const value = container.querySelector('[data-user-search-value]');
+    const results = container.querySelector('[data-user-search-results]');
+    let timer = null;
+    let controller = null;
+
+    const hideResults = () => {
+        results.innerHTML = '';
+        results.classList.add('hidden');
+    };
+
+    const choose = (user) => {
+        input.value = user.username;
+        value.value = user.id;
+        hideResults();
+    };
+
+    const search = async (query) => {
+        // Only the latest query matters; drop responses to older ones
+        if (controller) controller.abort();
+        controller = new AbortController();
+
+        try {
+            const url = new URL('/api/users/search', window.location.origin);
+            url.searchParams.set('q', query);
+            const response = await fetch(url, { signal: controller.signal });
+            if (!response.ok) throw new Error('HTTP ' + response.status);
+
+            const users = await response.json();
+            results.innerHTML = '';
+            if (users.length === 0) {
+                const empty = document.createElement('li');
+                empty.className = 'px-3 py-2 text-sm text-gray-500';
+                empty.textContent = 'No matching users';
+                results.appendChild(empty);
+            }
+            users.forEach(user => {
+                const item = document.createElement('li');
+                item.className = 'px-3 py-2 text-sm text-gray-800 cursor-pointer hover:bg-indigo-50';
+                item.textContent = user.username;
+                item.addEventListener('mousedown', (event) => {
+                    event.preventDefault();
+                    choose(user);
+                });
+                results.appendChild(item);
+            });
+            results.classList.remove('hidden');
+        } catch (error) {
+            if (error.name !== 'AbortError') {
+                console.error('User search failed:', error);
+            }
+        }
+    };
+
+    input.addEventListener('input', () => {
+        // Typing invalidates an earlier choice until a suggestion is picked again
+        value.value = '';
+        clearTimeout(timer);
+
+        const query = input.value.trim();
+        if (!query) {
+            hideResults();
+            return;
+        }
+        timer = setTimeout(() => search(query), USER_SEARCH_DELAY_MS);
+    });
+    input.addEventListener('blur', hideResults);
+
+    const form = container.closest('form');
+    if (form) {
+        form.addEventListener('submit', (event) => {
+            if (!value.value) {
+                event.preventDefault();
+                input.focus();
+                input.setCustomValidity('Please choose a user from the list');
+                input.reportValidity();
+            }
+        });
+        input.addEventListener('input', () => input.setCustomValidity(''));
+    }
+}
+
+// Clear the picker, e.g. when the share modal is opened for another file
+function resetUserSearch(container) {
+    if (!container) return;
+    container.querySelector('[data-user-search-input]').value = '';
+    container.querySelector('[data-user-search-value]').value = '';
+    const results = container.querySelector('[data-user-search-results]');
+    results.innerHTML = '';
+    results.classList.add('hidden');
+}
+
+document.addEventListener('DOMContentLoaded', () => {
+    document.querySelectorAll('[data-user-search]').forEach(setupUserSearch);
+});
@@ -1,5 +1,5 @@
 // Custom Video Player Component for Alpine.js
-function videoPlayer() {
+function videoPlayer(fileId) {
     return {
         // Video state
         isPlaying: false,
@@ -22,6 +22,12 @@ function videoPlayer() {
         // Video element reference
         videoElement: null,
 
+        // Keyframe times in seconds, when the server has indexed the video
+        keyframes: null,
+
+        // When the signed URL was last renewed, so a URL that keeps failing is not renewed in a loop
+        urlRenewedAt: 0,
+
         // Initialize video player
         init() {
             this.$nextTick(() => {
@@ -30,6 +36,43 @@ function videoPlayer() {
                     this.setupVideoEvents();
                 }
             });
+            this.loadKeyframes();
+        },
+
+        // Seeks land on keyframes, so the browser can show the frame without decoding from an earlier one
+        async loadKeyframes() {
+            if (!fileId) return;
+            try {
+                const response = await fetch(`/files/api/stream/${fileId}/keyframes`);
+                if (response.ok) {
+                    const index = await response.json();
+                    this.keyframes = index.times.length > 0 ? index.times.map(ms => ms / 1000) : null;
+                }
+            } catch (error) {
+                console.log('Keyframe index not available:', error);
+            }
+        },
+
+        // direction < 0 picks the keyframe at or before time, > 0 the one at or after it, 0 the closest
+        snapToKeyframe(time, direction) {
+            if (!this.keyframes) return time;
+
+            let low = 0;
+            let high = this.keyframes.length - 1;
+            while (low < high) {
+                const mid = Math.ceil((low + high) / 2);
+                if (this.keyframes[mid] <= time) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            const before = this.keyframes[low];
+            const after = low + 1 < this.keyframes.length ? this.keyframes[low + 1] : before;
+            if (direction < 0 || before >= time) return before;
+            // Past the last keyframe there is nothing to snap forward to
+            if (direction > 0) return after > time ? after : time;
+            return time - before <= after - time ? before : after;
         },
 
         // Setup video event listeners
@@ -87,6 +130,11 @@ function videoPlayer() {
         },
 
         onVideoError(event) {
+            // Signed URLs are short-lived: get a new one and carry on from the same position
+            if (this.renewSignedUrl()) {
+                return;
+            }
+
             this.videoLoading = false;
             this.videoError = true;
             
@@ -115,6 +163,45 @@ function videoPlayer() {
             console.error('Video error:', this.videoErrorMessage);
         },
 
+        renewSignedUrl() {
+            const source = this.videoElement && this.videoElement.currentSrc;
+            if (!fileId || !source || !new URL(source, window.location.href).pathname.startsWith('/signed/')
+                || Date.now() - this.urlRenewedAt < 30000) {
+                return false;
+            }
+            this.urlRenewedAt = Date.now();
+            this.videoLoading = true;
+
+            const resumeAt = this.videoElement.currentTime;
+            const wasPlaying = !this.videoElement.paused;
+            fetch(`/files/api/signed-url/${fileId}?download=false`)
+                .then(response => {
+                    if (!response.ok) {
+                        throw new Error('Failed to renew video URL');
+                    }
+                    return response.json();
+                })
+                .then(signed => {
+                    this.previewData.previewUrl = signed.url;
+                    this.$nextTick(() => {
+                        this.videoElement.load();
+                        this.videoElement.addEventListener('loadedmetadata', () => {
+                            this.videoElement.currentTime = resumeAt;
+                            if (wasPlaying) {
+                                this.videoElement.play().catch(() => {});
+                            }
+                        }, { once: true });
+                    });
+                })
+                .catch(error => {
+                    this.videoLoading = false;
+                    this.videoError = true;
+                    this.videoErrorMessage = 'Failed to load video';
+                    console.error('Video error:', error);
+                });
+            return true;
+        },
+
         onTimeUpdate() {
             if (this.videoElement) {
                 this.currentTime = this.videoElement.currentTime;
@@ -215,14 +302,14 @@ function videoPlayer() {
             const percent = (event.clientX - rect.left) / rect.width;
             const newTime = percent * this.duration;
             
-            this.videoElement.currentTime = newTime;
+            this.videoElement.currentTime = this.snapToKeyframe(newTime, 0);
         },
 
         seek(seconds) {
             if (!this.videoElement) return;
             
             const newTime = Math.max(0, Math.min(this.duration, this.currentTime + seconds));
-            this.videoElement.currentTime = newTime;
+            this.videoElement.currentTime = this.snapToKeyframe(newTime, seconds);
         },
 
         toggleFullscreen() {
@@ -0,0 +1,40 @@
+package com.app.file_transfer.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebConfigTest {
+
+    @Test
+    public void testVirtualThreadsStreamOnVirtualThreads() throws Exception {
+        ExecutorService executor = WebConfig.streamingExecutor(true, 4);
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertTrue(thread.isVirtual());
+            assertTrue(thread.getName().startsWith("streaming-"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPlatformThreadsGetABoundedPoolOfTheirOwn() throws Exception {
+        ExecutorService executor = WebConfig.streamingExecutor(false, 4);
+        try {
+            ThreadPoolExecutor pool = assertInstanceOf(ThreadPoolExecutor.class, executor);
+            assertEquals(4, pool.getMaximumPoolSize());
+            assertTrue(pool.allowsCoreThreadTimeOut());
+
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertFalse(thread.isVirtual());
+            assertTrue(thread.isDaemon());
+            assertTrue(thread.getName().startsWith("streaming-"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchivePreviewServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String REPORT = "quarterly report\n".repeat(1000);
+
+    // A folder, a deflated text file, a stored file and an accented name
+    private Path writeArchive() throws IOException {
+        Path path = tempDir.resolve("bundle.zip");
+        try (OutputStream out = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("docs/"));
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("docs/report.txt"));
+            zip.write(REPORT.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            byte[] raw = {1, 2, 3, 4, 5};
+            CRC32 crc = new CRC32();
+            crc.update(raw);
+            ZipEntry stored = new ZipEntry("raw.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(raw.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(raw);
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("Chương 2.txt"));
+            zip.write("xin chào".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return path;
+    }
+
+    @Test
+    public void testEntriesAreListedFromTheCentralDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(writeArchive(), StandardOpenOption.READ)) {
+            ArchivePreviewService.CentralDirectory directory = ArchivePreviewService.readCentralDirectory(channel);
+            assertEquals(4, directory.entryCount);
+
+            List<ArchivePreviewService.Entry> entries = ArchivePreviewService.readEntries(channel, directory, 0, 10);
+            assertEquals(4, entries.size());
+            assertTrue(entries.get(0).isDirectory());
+            assertEquals("docs/report.txt", entries.get(1).getName());
+            assertEquals(REPORT.length(), entries.get(1).getSize());
+            assertTrue(entries.get(1).getCompressedSize() < entries.get(1).getSize());
+            assertEquals("Chương 2.txt", entries.get(3).getName());
+
+            // Paging skips records without returning them
+            List<ArchivePreviewService.Entry> page = ArchivePreviewService.readEntries(channel, directory, 2, 1);
+            assertEquals(1, page.size());
+            assertEquals(2, page.get(0).getIndex());
+            assertEquals("raw.bin", page.get(0).getName());
+        }
+    }
+
+    @Test
+    public void testSingleEntriesAreExtracted() throws IOException {
+        try (FileChannel channel = FileChannel.open(writeArchive(), StandardOpenOption.READ)) {
+            List<ArchivePreviewService.Entry> entries = ArchivePreviewService.readEntries(
+                    channel, ArchivePreviewService.readCentralDirectory(channel), 0, 10);
+
+            try (InputStream in = ArchivePreviewService.openEntry(channel, entries.get(1))) {
+                assertEquals(REPORT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            try (InputStream in = ArchivePreviewService.openEntry(channel, entries.get(2))) {
+                assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, in.readAllBytes());
+            }
+            assertThrows(IllegalArgumentException.class, () -> ArchivePreviewService.openEntry(channel, entries.get(0)));
+        }
+    }
+
+    @Test
+    public void testEntriesEndingEarlyFail() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArchivePreviewService.copyEntry(new ByteArrayInputStream(new byte[10]), 10, out);
+        assertEquals(10, out.size());
+
+        // A corrupt entry that inflates to less than the size it announced
+        IOException e = assertThrows(IOException.class, () ->
+                ArchivePreviewService.copyEntry(new ByteArrayInputStream(new byte[10]), 25, new ByteArrayOutputStream()));
+        assertTrue(e.getMessage().contains("15 bytes short"));
+    }
+
+    @Test
+    public void testOtherFilesAreRejected() throws IOException {
+        Path path = tempDir.resolve("fake.zip");
+        Files.writeString(path, "not an archive at all");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            assertThrows(IllegalArgumentException.class, () -> ArchivePreviewService.readCentralDirectory(channel));
+        }
+    }
+
+    @Test
+    public void testNamesAndDosTimes() {
+        // 0x82 is "é" in the DOS code page and not valid UTF-8 on its own
+        assertEquals("café", ArchivePreviewService.decodeName(new byte[]{'c', 'a', 'f', (byte) 0x82}, false));
+        assertEquals("café", ArchivePreviewService.decodeName("café".getBytes(StandardCharsets.UTF_8), false));
+        // 2024-03-15 10:30:20
+        assertEquals(LocalDateTime.of(2024, 3, 15, 10, 30, 20),
+                ArchivePreviewService.dosTime((10 << 11) | (30 << 5) | 10, (44 << 9) | (3 << 5) | 15));
+        assertNull(ArchivePreviewService.dosTime(0, 0));
+    }
+}
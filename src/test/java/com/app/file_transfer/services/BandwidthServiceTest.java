@@ -0,0 +1,80 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BandwidthServiceTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testTransfersRunFreelyWhileTheBudgetHasRoom() {
+        BandwidthService.Scheduler scheduler = new BandwidthService.Scheduler(1_000_000, 0);
+        BandwidthService.Transfer transfer = scheduler.open("alice", BandwidthService.Priority.BULK);
+        long now = System.nanoTime();
+
+        // A quarter second of budget can be spent at once
+        assertEquals(0, scheduler.reserve(transfer, 200_000, now));
+        // Then the bucket is short, and a lone transfer gets the whole rate
+        assertEquals(SECOND / 10, scheduler.reserve(transfer, 100_000, now));
+        // Idle time refills it
+        assertEquals(0, scheduler.reserve(transfer, 100_000, now + SECOND));
+    }
+
+    @Test
+    public void testInteractiveTransfersGetTheLargerShareWhenContended() {
+        BandwidthService.Scheduler scheduler = new BandwidthService.Scheduler(1_000_000, 0);
+        BandwidthService.Transfer video = scheduler.open("alice", BandwidthService.Priority.INTERACTIVE);
+        BandwidthService.Transfer download = scheduler.open("bob", BandwidthService.Priority.BULK);
+        long now = System.nanoTime();
+        scheduler.reserve(download, 250_000, now);
+
+        // Weights 4 and 1: 800 KB/s and 200 KB/s of the 1 MB/s budget
+        assertEquals(SECOND / 8, scheduler.reserve(video, 100_000, now));
+        assertEquals(SECOND / 2, scheduler.reserve(download, 100_000, now));
+
+        // Alone again, the download gets the whole budget
+        scheduler.close(video);
+        assertEquals(SECOND / 10, scheduler.reserve(download, 100_000, now));
+    }
+
+    @Test
+    public void testEachUserIsHeldToTheirOwnRate() {
+        BandwidthService.Scheduler scheduler = new BandwidthService.Scheduler(0, 100_000);
+        BandwidthService.Transfer first = scheduler.open("alice", BandwidthService.Priority.BULK);
+        BandwidthService.Transfer second = scheduler.open("alice", BandwidthService.Priority.INTERACTIVE);
+        BandwidthService.Transfer other = scheduler.open("bob", BandwidthService.Priority.BULK);
+        long now = System.nanoTime();
+
+        // The burst is at least one chunk; both of alice's transfers draw from the same bucket
+        assertEquals(0, scheduler.reserve(first, 65_536, now));
+        assertEquals(SECOND / 2, scheduler.reserve(second, 50_000, now), SECOND / 1000);
+        assertEquals(0, scheduler.reserve(other, 50_000, now));
+    }
+
+    @Test
+    public void testParallelTransfersOfOneUserShareTheirRate() {
+        BandwidthService.Scheduler scheduler = new BandwidthService.Scheduler(0, 100_000);
+        BandwidthService.Transfer first = scheduler.open("alice", BandwidthService.Priority.BULK);
+        BandwidthService.Transfer second = scheduler.open("alice", BandwidthService.Priority.BULK);
+
+        // Each transfer writes a chunk whenever its wait is over, for ten seconds
+        long start = System.nanoTime();
+        long[] readyAt = {start, start};
+        BandwidthService.Transfer[] transfers = {first, second};
+        long written = 0;
+        while (true) {
+            int next = readyAt[0] <= readyAt[1] ? 0 : 1;
+            long now = readyAt[next];
+            if (now - start >= 10 * SECOND) {
+                break;
+            }
+            readyAt[next] = now + scheduler.reserve(transfers[next], 10_000, now);
+            written += 10_000;
+        }
+
+        // 100 KB/s for both together, plus the one-chunk burst, not twice that
+        assertEquals(1_000_000 + 65_536, written, 20_000);
+    }
+}
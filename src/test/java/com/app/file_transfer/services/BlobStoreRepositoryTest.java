@@ -0,0 +1,189 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.FileBlob;
+import com.app.file_transfer.repository.FileBlobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Blob acquisition and collection against a real (in-memory) database, with every step committed
+ * in its own transaction as in production
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        // "user" is a keyword in H2
+        "spring.jpa.properties.hibernate.auto_quote_keyword=true"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BlobStoreRepositoryTest {
+
+    private static final byte[] CONTENT = "same bytes".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    @Autowired
+    private FileBlobRepository fileBlobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private FileStorageService fileStorageService;
+    private BlobStoreService blobStoreService;
+
+    // Runs a hook once, right after the named repository method returns
+    private final Map<String, Runnable> afterCall = new HashMap<>();
+
+    @BeforeEach
+    public void setUp() {
+        fileStorageService = new FileStorageService(tempDir);
+        blobStoreService = new BlobStoreService(transactionManager);
+        ReflectionTestUtils.setField(blobStoreService, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(blobStoreService, "fileBlobRepository", hooked(fileBlobRepository));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fileBlobRepository.deleteAll();
+    }
+
+    private FileBlobRepository hooked(FileBlobRepository repository) {
+        return (FileBlobRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{FileBlobRepository.class}, (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(repository, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    Runnable hook = afterCall.remove(method.getName());
+                    if (hook != null) {
+                        hook.run();
+                    }
+                    return result;
+                });
+    }
+
+    private FileBlob store() throws IOException {
+        return blobStoreService.store(new ByteArrayInputStream(CONTENT));
+    }
+
+    private void release(FileBlob blob) {
+        // release() is @Transactional; called directly here, so the transaction is started by hand
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> blobStoreService.release(blob));
+    }
+
+    private FileBlob reload(FileBlob blob) {
+        return fileBlobRepository.findById(blob.getId()).orElse(null);
+    }
+
+    @Test
+    public void testIdenticalContentSharesOneBlob() throws IOException {
+        FileBlob first = store();
+        FileBlob second = store();
+
+        assertEquals(first.getId(), second.getId());
+        assertEquals(2, reload(first).getRefCount());
+        assertEquals(CONTENT.length, reload(first).getSize());
+        assertArrayEquals(CONTENT, Files.readAllBytes(fileStorageService.getBlobPath(first.getSha256())));
+        // Nothing is left behind in staging
+        try (Stream<Path> staged = Files.list(fileStorageService.getStagingLocation())) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    @Test
+    public void testMissingContentIsMovedBackIntoPlace() throws IOException {
+        FileBlob blob = store();
+        // E.g. a cleanup deleted the content but could not commit the row's removal
+        Files.delete(fileStorageService.getBlobPath(blob.getSha256()));
+
+        store();
+        assertEquals(2, reload(blob).getRefCount());
+        assertArrayEquals(CONTENT, Files.readAllBytes(fileStorageService.getBlobPath(blob.getSha256())));
+    }
+
+    @Test
+    public void testRaceToCreateTheBlobRowIsRetried() throws IOException {
+        // Another upload of the same content commits its row after this one looked and found none
+        afterCall.put("findBySha256ForUpdate", () -> {
+            TransactionTemplate other = new TransactionTemplate(transactionManager);
+            other.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            other.executeWithoutResult(status -> fileBlobRepository.save(
+                    BlobStoreService.addReference(null, sha256(), CONTENT.length)));
+        });
+
+        FileBlob blob = store();
+        assertEquals(1, fileBlobRepository.count());
+        assertEquals(2, reload(blob).getRefCount());
+        assertArrayEquals(CONTENT, Files.readAllBytes(fileStorageService.getBlobPath(blob.getSha256())));
+    }
+
+    @Test
+    public void testLastReleaseRemovesBlobAndContent() throws IOException {
+        FileBlob blob = store();
+        store();
+
+        release(blob);
+        assertEquals(1, reload(blob).getRefCount());
+
+        release(blob);
+        assertNull(reload(blob));
+        assertFalse(Files.exists(fileStorageService.getBlobPath(blob.getSha256())));
+    }
+
+    @Test
+    public void testBlobAcquiredAgainBeforeCollectionIsKept() throws IOException {
+        FileBlob blob = store();
+        // Left unreferenced, e.g. by a crash between the release's commit and its cleanup
+        blob.setRefCount(0);
+        fileBlobRepository.save(blob);
+
+        // A new upload of the same content takes it back after the sweep listed it
+        afterCall.put("findByRefCount", () -> {
+            try {
+                store();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        blobStoreService.collectUnreferencedBlobs();
+
+        assertEquals(1, reload(blob).getRefCount());
+        assertArrayEquals(CONTENT, Files.readAllBytes(fileStorageService.getBlobPath(blob.getSha256())));
+    }
+
+    private static String sha256() {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(CONTENT));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
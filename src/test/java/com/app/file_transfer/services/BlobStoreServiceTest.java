@@ -0,0 +1,48 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.FileBlob;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobStoreServiceTest {
+
+    private static final String SHA = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Test
+    public void testReferencesAreCountedPerFile() {
+        FileBlob blob = BlobStoreService.addReference(null, SHA, 4);
+        assertEquals(1, blob.getRefCount());
+        assertEquals(4, blob.getSize());
+        assertEquals(SHA, blob.getSha256());
+
+        // A second upload of the same bytes shares the blob
+        assertSame(blob, BlobStoreService.addReference(blob, SHA, 4));
+        assertEquals(2, blob.getRefCount());
+
+        assertFalse(BlobStoreService.dropReference(blob));
+        assertFalse(BlobStoreService.isCollectable(blob));
+        assertTrue(BlobStoreService.dropReference(blob));
+        assertTrue(BlobStoreService.isCollectable(blob));
+    }
+
+    @Test
+    public void testCountNeverGoesBelowZero() {
+        FileBlob blob = new FileBlob(null, SHA, 4, 0);
+        assertTrue(BlobStoreService.dropReference(blob));
+        assertEquals(0, blob.getRefCount());
+    }
+
+    @Test
+    public void testBlobAcquiredAgainBeforeCollectionIsKept() {
+        FileBlob blob = BlobStoreService.addReference(null, SHA, 4);
+        // The last file is deleted and collection is scheduled for after commit...
+        assertTrue(BlobStoreService.dropReference(blob));
+        // ...but a new upload of the same content takes the row lock first
+        BlobStoreService.addReference(blob, SHA, 4);
+        assertFalse(BlobStoreService.isCollectable(blob));
+
+        // A sweep finding a row that is already gone does nothing
+        assertFalse(BlobStoreService.isCollectable(null));
+    }
+}
@@ -0,0 +1,141 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static BlockCache.Block load(BlockCache cache, String key) throws IOException {
+        BlockCache.Block block = cache.admit(key, buffer -> {
+            buffer.put((byte) 1);
+            return 1;
+        });
+        if (block != null) {
+            cache.release(block);
+        }
+        return block;
+    }
+
+    @Test
+    public void testOneOffBlocksDoNotDisplacePopularOnes() throws IOException {
+        BlockCache cache = new BlockCache(2, 16);
+        for (String key : new String[]{"a", "b"}) {
+            cache.record(key);
+            cache.record(key);
+            assertNotNull(load(cache, key));
+        }
+
+        // A bulk read touches each block once: none of them is worth evicting a popular block for
+        for (int i = 0; i < 10; i++) {
+            cache.record("bulk" + i);
+            assertNull(load(cache, "bulk" + i));
+        }
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+
+        // A block asked for more often than the least recently used one replaces it
+        for (int i = 0; i < 3; i++) {
+            cache.record("c");
+        }
+        assertNotNull(load(cache, "c"));
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+    }
+
+    @Test
+    public void testPinnedBlocksAreNotEvicted() throws IOException {
+        BlockCache cache = new BlockCache(1, 16);
+        assertNotNull(load(cache, "a"));
+        BlockCache.Block pinned = cache.get("a");
+
+        for (int i = 0; i < 5; i++) {
+            cache.record("b");
+        }
+        assertNull(load(cache, "b"));
+        cache.release(pinned);
+        assertNotNull(load(cache, "b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRegionsAcrossBlocksMatchTheFile() throws IOException {
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        Path path = tempDir.resolve("data.bin");
+        Files.write(path, content);
+
+        BlockCache cache = new BlockCache(4, 64);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Twice: first mostly from the file, then from cached blocks
+            for (int pass = 0; pass < 2; pass++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BlockCacheService.writeRegion(cache, channel, "data", 50, 200, Channels.newChannel(out), 16);
+                assertArrayEquals(Arrays.copyOfRange(content, 50, 250), out.toByteArray());
+            }
+            assertTrue(cache.contains(BlockCache.key("data", 0)));
+            assertTrue(cache.contains(BlockCache.key("data", 3)));
+
+            // The last block is short
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BlockCacheService.writeRegion(cache, channel, "data", 960, 40, Channels.newChannel(out), 16);
+            assertArrayEquals(Arrays.copyOfRange(content, 960, 1000), out.toByteArray());
+        }
+
+        BlockCache.Block block = cache.get(BlockCache.key("data", 1));
+        ByteBuffer slice = block.slice(0, 4);
+        cache.release(block);
+        assertEquals(content[64], slice.get(0));
+    }
+
+    @Test
+    public void testOnlyLeadingBlocksOfARegionGoThroughTheCache() throws IOException {
+        byte[] content = new byte[640];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        Path path = tempDir.resolve("video.bin");
+        Files.write(path, content);
+
+        BlockCache cache = new BlockCache(8, 64);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // A whole-file read: two blocks from memory, the rest copied from the file
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BlockCacheService.writeRegion(cache, channel, "video", 0, content.length, Channels.newChannel(out), 2);
+            assertArrayEquals(content, out.toByteArray());
+            assertEquals(2, cache.size());
+
+            // Once a block is not admitted, the blocks after it are not tried either
+            BlockCache full = new BlockCache(1, 64);
+            assertNotNull(load(full, "other"));
+            out = new ByteArrayOutputStream();
+            BlockCacheService.writeRegion(full, channel, "video", 10, 300, Channels.newChannel(out), 8);
+            assertArrayEquals(Arrays.copyOfRange(content, 10, 310), out.toByteArray());
+            assertFalse(full.contains(BlockCache.key("video", 1)));
+        }
+    }
+
+    @Test
+    public void testDirectMemorySizesAreParsed() {
+        assertEquals(512L * 1024 * 1024, BlockCacheService.parseSize("512m"));
+        assertEquals(2L * 1024 * 1024 * 1024, BlockCacheService.parseSize("2G"));
+        assertEquals(4096, BlockCacheService.parseSize("4096"));
+        assertEquals(-1, BlockCacheService.parseSize("lots"));
+    }
+}
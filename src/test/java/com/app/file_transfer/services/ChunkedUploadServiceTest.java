@@ -0,0 +1,131 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedUploadServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 13);
+        }
+        return bytes;
+    }
+
+    private ChunkedUploadService.UploadSession session(long fileSize, long chunkSize) throws IOException {
+        Path part = tempDir.resolve("upload.part");
+        try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+            file.setLength(fileSize);
+        }
+        return new ChunkedUploadService.UploadSession("id", "alice", "video.mp4", "video/mp4", fileSize, chunkSize,
+                null, part, null);
+    }
+
+    private static void write(ChunkedUploadService.UploadSession session, byte[] content, int index) throws IOException {
+        int start = (int) (index * session.getChunkSize());
+        int end = (int) (start + session.getChunkLength(index));
+        ChunkedUploadService.writeChunk(session, index, new ByteArrayInputStream(Arrays.copyOfRange(content, start, end)));
+    }
+
+    @Test
+    public void testChunkBookkeeping() throws IOException {
+        ChunkedUploadService.UploadSession session = session(2500, 1000);
+        assertEquals(3, session.getTotalChunks());
+        assertEquals(1000, session.getChunkLength(1));
+        assertEquals(500, session.getChunkLength(2));
+        assertEquals(List.of(0, 1, 2), session.getMissingChunks());
+
+        write(session, content(2500), 2);
+        assertEquals(List.of(0, 1), session.getMissingChunks());
+        assertEquals(500, session.getReceivedBytes());
+    }
+
+    @Test
+    public void testChunksInAnyOrderAndInParallelAssembleTheFile() throws Exception {
+        byte[] content = content(10 * 1000 + 123);
+        ChunkedUploadService.UploadSession session = session(content.length, 1000);
+
+        List<Thread> writers = new ArrayList<>();
+        for (int i = session.getTotalChunks() - 1; i >= 0; i--) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    write(session, content, index);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+
+        assertTrue(session.getMissingChunks().isEmpty());
+        assertEquals(content.length, session.getReceivedBytes());
+        ChunkedUploadService.close(session);
+        assertArrayEquals(content, Files.readAllBytes(tempDir.resolve("upload.part")));
+    }
+
+    @Test
+    public void testBadChunksAndEarlyCompletionAreRejected() throws IOException {
+        byte[] content = content(2500);
+        ChunkedUploadService.UploadSession session = session(2500, 1000);
+
+        assertThrows(IllegalArgumentException.class, () ->
+                ChunkedUploadService.writeChunk(session, 3, new ByteArrayInputStream(new byte[500])));
+        // Too short and too long
+        assertThrows(IllegalArgumentException.class, () ->
+                ChunkedUploadService.writeChunk(session, 0, new ByteArrayInputStream(new byte[999])));
+        assertThrows(IllegalArgumentException.class, () ->
+                ChunkedUploadService.writeChunk(session, 2, new ByteArrayInputStream(new byte[501])));
+        assertEquals(List.of(0, 1, 2), session.getMissingChunks());
+
+        write(session, content, 0);
+        write(session, content, 2);
+        IllegalStateException incomplete = assertThrows(IllegalStateException.class, () -> ChunkedUploadService.close(session));
+        assertTrue(incomplete.getMessage().contains("1 chunk(s) missing"));
+
+        write(session, content, 1);
+        ChunkedUploadService.close(session);
+        assertThrows(IllegalStateException.class, () -> write(session, content, 1));
+        assertThrows(IllegalStateException.class, () -> ChunkedUploadService.close(session));
+    }
+
+    @Test
+    public void testFailedStoreKeepsTheUploadForAnotherAttempt() throws IOException {
+        byte[] content = content(2500);
+        ChunkedUploadService.UploadSession session = session(2500, 1000);
+        for (int i = 0; i < session.getTotalChunks(); i++) {
+            write(session, content, i);
+        }
+
+        // The store consumes what it is given, then fails, e.g. on a database error
+        assertThrows(IllegalStateException.class, () -> ChunkedUploadService.complete(session, staged -> {
+            Files.delete(staged);
+            throw new IllegalStateException("database unavailable");
+        }));
+        assertArrayEquals(content, Files.readAllBytes(tempDir.resolve("upload.part")));
+
+        byte[] stored = ChunkedUploadService.complete(session, Files::readAllBytes);
+        assertArrayEquals(content, stored);
+        assertThrows(IllegalStateException.class, () -> ChunkedUploadService.complete(session, Files::readAllBytes));
+        assertFalse(Files.exists(tempDir.resolve("id.complete")));
+    }
+}
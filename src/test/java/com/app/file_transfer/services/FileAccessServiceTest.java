@@ -0,0 +1,92 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileAccessServiceTest {
+
+    @Test
+    public void testRepeatedChecksAreServedFromTheCache() {
+        CountingAccess access = new CountingAccess();
+        assertTrue(access.isRecipient(1L, 10L));
+        assertTrue(access.isRecipient(1L, 10L));
+        assertFalse(access.isRecipient(1L, 11L));
+        assertFalse(access.isRecipient(1L, 11L));
+
+        assertEquals(List.of("1:10", "1:11"), access.loads);
+    }
+
+    @Test
+    public void testDecisionsExpireAfterTheirTtl() {
+        CountingAccess access = new CountingAccess();
+        access.isRecipient(1L, 10L);
+
+        access.clock += 59_999;
+        access.isRecipient(1L, 10L);
+        assertEquals(1, access.loads.size());
+
+        access.clock += 1;
+        access.isRecipient(1L, 10L);
+        assertEquals(2, access.loads.size());
+    }
+
+    @Test
+    public void testInvalidationDropsOnlyTheGivenFiles() {
+        CountingAccess access = new CountingAccess();
+        access.isRecipient(1L, 10L);
+        access.isRecipient(2L, 10L);
+        access.isRecipient(3L, 10L);
+
+        access.invalidate(List.of(1L, 2L));
+        access.loads.clear();
+        access.isRecipient(1L, 10L);
+        access.isRecipient(2L, 10L);
+        access.isRecipient(3L, 10L);
+
+        assertEquals(List.of("1:10", "2:10"), access.loads);
+    }
+
+    @Test
+    public void testCheckRacingWithInvalidationIsNotCached() {
+        CountingAccess access = new CountingAccess() {
+            @Override
+            boolean load(Long fileId, Long userId) {
+                boolean allowed = super.load(fileId, userId);
+                if (loads.size() == 1) {
+                    // The file is unshared while the first check is reading the old state
+                    recipients.remove(fileId + ":" + userId);
+                    invalidate(fileId);
+                }
+                return allowed;
+            }
+        };
+
+        assertTrue(access.isRecipient(1L, 10L));
+        assertFalse(access.isRecipient(1L, 10L));
+        assertFalse(access.isRecipient(1L, 10L));
+        assertEquals(2, access.loads.size());
+    }
+
+    private static class CountingAccess extends FileAccessService {
+        final List<String> loads = new ArrayList<>();
+        final Set<String> recipients = new HashSet<>(Set.of("1:10", "2:10", "3:10"));
+        long clock = 1_000_000;
+
+        @Override
+        boolean load(Long fileId, Long userId) {
+            loads.add(fileId + ":" + userId);
+            return recipients.contains(fileId + ":" + userId);
+        }
+
+        @Override
+        long now() {
+            return clock;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.File;
+import com.app.file_transfer.model.FileBlob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileStorageServiceTest {
+
+    private static final String SHA = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @TempDir
+    Path root;
+
+    private FileStorageService storage;
+
+    @BeforeEach
+    public void setUp() {
+        storage = new FileStorageService(root);
+    }
+
+    private static File file(String fileName) {
+        File file = new File();
+        file.setFileName(fileName);
+        return file;
+    }
+
+    private static File blobFile(String sha256) {
+        File file = file("report.pdf");
+        file.setBlob(new FileBlob(1L, sha256, 4, 1));
+        return file;
+    }
+
+    @Test
+    public void testFlatFilesStayReadableUntilMoved() throws IOException {
+        Path flat = Files.writeString(root.resolve("report.pdf"), "flat");
+        assertEquals(flat, storage.getFilePath(file("report.pdf")));
+
+        assertEquals(1, storage.migrateToShardedLayout(10));
+        Path sharded = storage.getFilePath(file("report.pdf"));
+        assertNotEquals(flat, sharded);
+        assertFalse(Files.exists(flat));
+        assertEquals("flat", Files.readString(sharded));
+        // Where the migration moved it is what File.filePath is updated to
+        assertEquals("uploads/" + root.relativize(sharded).toString().replace('\\', '/'),
+                storage.getStoredFilePath("report.pdf"));
+
+        assertThrows(RuntimeException.class, () -> storage.getFilePath(file("missing.pdf")));
+    }
+
+    @Test
+    public void testBlobsAndAvatarsAreMovedToo() throws IOException {
+        Files.writeString(root.resolve("blobs").resolve(SHA), "blob");
+        Files.writeString(root.resolve("avatars").resolve("alice.png"), "avatar");
+        assertEquals(root.resolve("blobs").resolve(SHA), storage.getFilePath(blobFile(SHA)));
+
+        assertEquals(2, storage.migrateToShardedLayout(10));
+        assertEquals(root.resolve("blobs/9f/86").resolve(SHA), storage.getFilePath(blobFile(SHA)));
+        assertEquals("avatar", Files.readString(storage.getAvatarPath("alice.png")));
+        assertNotEquals(root.resolve("avatars").resolve("alice.png"), storage.getAvatarPath("alice.png"));
+    }
+
+    @Test
+    public void testMigrationProceedsInBatches() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            Files.writeString(root.resolve("file" + i + ".txt"), "content " + i);
+        }
+
+        assertEquals(2, storage.migrateToShardedLayout(2));
+        assertEquals(2, storage.migrateToShardedLayout(2));
+        assertEquals(1, storage.migrateToShardedLayout(2));
+        assertEquals(0, storage.migrateToShardedLayout(2));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("content " + i, Files.readString(storage.getFilePath(file("file" + i + ".txt"))));
+        }
+        // The storage directories themselves are not files to migrate
+        assertTrue(Files.isDirectory(storage.getStagingLocation()));
+    }
+
+    @Test
+    public void testFlatCopyOfAMovedBlobIsDropped() throws IOException {
+        Path sharded = root.resolve("blobs/9f/86").resolve(SHA);
+        Files.createDirectories(sharded.getParent());
+        Files.writeString(sharded, "blob");
+        Files.writeString(root.resolve("blobs").resolve(SHA), "blob");
+
+        // Same hash, same content
+        assertEquals(1, storage.migrateToShardedLayout(10));
+        assertFalse(Files.exists(root.resolve("blobs").resolve(SHA)));
+        assertEquals(sharded, storage.getBlobPath(SHA));
+    }
+
+    @Test
+    public void testNameClashKeepsBothCopies() throws IOException {
+        Files.writeString(root.resolve("notes.txt"), "flat");
+        storage.migrateToShardedLayout(10);
+        Path sharded = storage.getFilePath(file("notes.txt"));
+        // A flat file of the same name shows up again, e.g. restored from a backup
+        Files.writeString(root.resolve("notes.txt"), "restored");
+
+        assertEquals(0, storage.migrateToShardedLayout(10));
+        assertTrue(Files.exists(root.resolve("notes.txt")));
+        assertEquals(sharded, storage.getFilePath(file("notes.txt")));
+        assertEquals("flat", Files.readString(sharded));
+    }
+}
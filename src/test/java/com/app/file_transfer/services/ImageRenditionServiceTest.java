@@ -0,0 +1,51 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageRenditionServiceTest {
+
+    @Test
+    public void testWidthsAreRoundedUpToFixedWidths() {
+        assertEquals(1920, ImageRenditionService.normalizeWidth(null));
+        assertEquals(64, ImageRenditionService.normalizeWidth(0));
+        assertEquals(480, ImageRenditionService.normalizeWidth(257));
+        assertEquals(1080, ImageRenditionService.normalizeWidth(1080));
+        assertEquals(1920, ImageRenditionService.normalizeWidth(10_000));
+    }
+
+    @Test
+    public void testQualityIsClampedAndRounded() {
+        assertEquals(ImageRenditionService.DEFAULT_QUALITY, ImageRenditionService.normalizeQuality(null));
+        assertEquals(30, ImageRenditionService.normalizeQuality(1));
+        assertEquals(95, ImageRenditionService.normalizeQuality(100));
+        assertEquals(75, ImageRenditionService.normalizeQuality(73));
+    }
+
+    @Test
+    public void testCachedRenditionIsRevalidatedByEtag() throws IOException {
+        ImageRenditionService service = new ImageRenditionService();
+        ImageRenditionService.Rendition rendition =
+                new ImageRenditionService.Rendition(Path.of("w64-q80.jpg"), new byte[]{1, 2, 3}, "\"abc-w64-q80.jpg\"");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/avatars/alice.png");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.write(rendition, request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("\"abc-w64-q80.jpg\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals(3, response.getContentAsByteArray().length);
+
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc-w64-q80.jpg\"");
+        response = new MockHttpServletResponse();
+        service.write(rendition, request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+}
@@ -0,0 +1,58 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IoSchedulingServiceTest {
+
+    @Test
+    public void testUserShareIsFullBeforeTheClassIs() {
+        IoSchedulingService.Slots slots = new IoSchedulingService.Slots(IoSchedulingService.IoClass.STREAMING, 8);
+
+        // A quarter of the slots each
+        slots.acquire("alice");
+        slots.acquire("alice");
+        IoSchedulingService.SaturatedException userFull =
+                assertThrows(IoSchedulingService.SaturatedException.class, () -> slots.acquire("alice"));
+        assertTrue(userFull.isPerUser());
+
+        for (String user : new String[]{"bob", "bob", "carol", "carol", "dave", "dave"}) {
+            slots.acquire(user);
+        }
+        IoSchedulingService.SaturatedException classFull =
+                assertThrows(IoSchedulingService.SaturatedException.class, () -> slots.acquire("erin"));
+        assertFalse(classFull.isPerUser());
+        assertEquals(IoSchedulingService.IoClass.STREAMING, classFull.getIoClass());
+
+        slots.release("bob");
+        slots.acquire("erin");
+    }
+
+    @Test
+    public void testSlotIsHeldUntilTheBodyIsWritten() throws IOException {
+        IoSchedulingService.Slots slots = new IoSchedulingService.Slots(IoSchedulingService.IoClass.BULK, 1);
+
+        var body = IoSchedulingService.admit(slots, "alice", () -> outputStream -> outputStream.write(1));
+        assertThrows(IoSchedulingService.SaturatedException.class, () -> slots.acquire("bob"));
+
+        body.writeTo(new ByteArrayOutputStream());
+        slots.acquire("bob");
+    }
+
+    @Test
+    public void testSlotIsGivenBackWithoutABodyOrOnFailure() throws IOException {
+        IoSchedulingService.Slots slots = new IoSchedulingService.Slots(IoSchedulingService.IoClass.STREAMING, 1);
+
+        // Headers-only answers such as 304 have no body to write
+        assertNull(IoSchedulingService.admit(slots, "alice", () -> null));
+        assertThrows(IOException.class, () -> IoSchedulingService.admit(slots, "alice", () -> {
+            throw new IOException("Missing file");
+        }));
+        assertFalse(slots.isBusy());
+        slots.acquire("alice");
+    }
+}
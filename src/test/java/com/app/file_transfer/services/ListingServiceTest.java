@@ -0,0 +1,40 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ListingServiceTest {
+
+    @Test
+    public void testCursorRoundTrip() {
+        LocalDateTime createdAt = LocalDateTime.of(2024, 5, 17, 10, 30, 15, 123_000_000);
+        String cursor = ListingService.encodeCursor(createdAt, 42L);
+
+        ListingService.Cursor decoded = ListingService.decodeCursor(cursor);
+        assertEquals(createdAt, decoded.createdAt);
+        assertEquals(42L, decoded.id);
+
+        // Cursors go into query strings as they are
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void testEmptyCursorStartsAtFirstPage() {
+        ListingService.Cursor first = ListingService.decodeCursor(null);
+        assertEquals(Long.MAX_VALUE, first.id);
+        assertTrue(first.createdAt.isAfter(LocalDateTime.now()));
+
+        assertEquals(first.createdAt, ListingService.decodeCursor(" ").createdAt);
+    }
+
+    @Test
+    public void testInvalidCursors() {
+        assertThrows(IllegalArgumentException.class, () -> ListingService.decodeCursor("not a cursor!"));
+        assertThrows(IllegalArgumentException.class, () -> ListingService.decodeCursor(
+                ListingService.encodeCursor(LocalDateTime.now(), null)));
+        assertThrows(IllegalArgumentException.class, () -> ListingService.decodeCursor("YWJj")); // "abc"
+    }
+}
@@ -0,0 +1,104 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OfficePreviewServiceTest {
+
+    private static final String MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    @TempDir
+    Path tempDir;
+
+    private Path writePackage(String name, Map<String, String> parts) throws IOException {
+        Path path = tempDir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, String> part : parts.entrySet()) {
+                zip.putNextEntry(new ZipEntry(part.getKey()));
+                zip.write(part.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return path;
+    }
+
+    @Test
+    public void testWorkbookShowsTheFirstRowsWithSharedStrings() throws Exception {
+        StringBuilder rows = new StringBuilder();
+        for (int r = 1; r <= OfficePreviewService.MAX_ROWS + 50; r++) {
+            rows.append("<row r=\"").append(r).append("\"><c r=\"A").append(r).append("\" t=\"s\"><v>")
+                    .append(r == 1 ? 1 : 0).append("</v></c><c r=\"C").append(r).append("\"><v>").append(r * 10)
+                    .append("</v></c></row>");
+        }
+        Path xlsx = writePackage("book.xlsx", Map.of(
+                "xl/workbook.xml", "<workbook xmlns=\"" + MAIN + "\" xmlns:r=\"" + RELATIONSHIPS + "\"><sheets>"
+                        + "<sheet name=\"Sales &amp; costs\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>",
+                "xl/_rels/workbook.xml.rels", "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                        + "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.xml\"/></Relationships>",
+                "xl/sharedStrings.xml", "<sst xmlns=\"" + MAIN + "\"><si><t>plain</t></si>"
+                        + "<si><r><t>rich </t></r><r><t>&lt;b&gt;</t></r></si><si><t>never used</t></si></sst>",
+                "xl/worksheets/sheet1.xml", "<worksheet xmlns=\"" + MAIN + "\"><sheetData>" + rows + "</sheetData></worksheet>"));
+
+        String html = OfficePreviewService.render(xlsx, "book.xlsx");
+
+        assertTrue(html.contains("<h2>Sales &amp; costs</h2>"));
+        assertTrue(html.contains("<td>rich &lt;b&gt;</td>"));
+        assertTrue(html.contains("<td>plain</td>"));
+        assertFalse(html.contains("never used"));
+        // Column B is empty but still shown, so values stay under their letters
+        assertTrue(html.contains("<th>C</th>"));
+        assertTrue(html.contains("<td>2000</td>"));
+        assertFalse(html.contains("<td>2010</td>"));
+        assertTrue(html.contains("Showing the first " + OfficePreviewService.MAX_ROWS + " rows"));
+    }
+
+    @Test
+    public void testDocumentKeepsHeadingsAndEscapesText() throws Exception {
+        String w = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+        Path docx = writePackage("letter.docx", Map.of("word/document.xml",
+                "<w:document xmlns:w=\"" + w + "\"><w:body>"
+                        + "<w:p><w:pPr><w:pStyle w:val=\"Heading1\"/></w:pPr><w:r><w:t>Title</w:t></w:r></w:p>"
+                        + "<w:p><w:r><w:t>&lt;script&gt;alert(1)&lt;/script&gt;</w:t></w:r></w:p>"
+                        + "<w:tbl><w:tr><w:tc><w:p><w:r><w:t>cell</w:t></w:r></w:p></w:tc></w:tr></w:tbl>"
+                        + "</w:body></w:document>"));
+
+        String html = OfficePreviewService.render(docx, "letter.docx");
+
+        assertTrue(html.contains("<h2>Title</h2>"));
+        assertTrue(html.contains("<p>&lt;script&gt;alert(1)&lt;/script&gt;</p>"));
+        assertTrue(html.contains("<table><tr><td>cell<br></td></tr></table>"));
+    }
+
+    @Test
+    public void testDateSerialsAndFormats() {
+        assertEquals("2025-02-01", OfficePreviewService.formatDate("45689"));
+        assertEquals("2025-02-01 12:00", OfficePreviewService.formatDate("45689.5"));
+        assertEquals("abc", OfficePreviewService.formatDate("abc"));
+        assertTrue(OfficePreviewService.isDateFormat("dd/mm/yyyy"));
+        assertFalse(OfficePreviewService.isDateFormat("#,##0.00\" days\""));
+        assertFalse(OfficePreviewService.isDateFormat("[Red]0.00"));
+    }
+
+    @Test
+    public void testColumnsAndPartNames() {
+        assertEquals(0, OfficePreviewService.columnIndex("A1"));
+        assertEquals(27, OfficePreviewService.columnIndex("AB12"));
+        assertEquals("AB", OfficePreviewService.columnName(27));
+        assertEquals("Z", OfficePreviewService.columnName(25));
+        assertEquals("xl/worksheets/sheet1.xml", OfficePreviewService.resolvePartName("xl/", "worksheets/sheet1.xml"));
+        assertEquals("xl/worksheets/sheet1.xml", OfficePreviewService.resolvePartName("xl/", "/xl/worksheets/sheet1.xml"));
+        assertEquals("ppt/slides/slide1.xml", OfficePreviewService.resolvePartName("ppt/", "./slides/slide1.xml"));
+    }
+}
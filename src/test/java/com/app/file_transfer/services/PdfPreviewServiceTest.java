@@ -0,0 +1,85 @@
+package com.app.file_transfer.services;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PdfPreviewServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    // Two pages drawn with text and vector graphics only: a portrait letter page and a page turned by /Rotate
+    private Path writeTextPdf() throws IOException {
+        Path path = tempDir.resolve("text.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDPage letter = new PDPage(PDRectangle.LETTER);
+            document.addPage(letter);
+            try (PDPageContentStream content = new PDPageContentStream(document, letter)) {
+                content.setNonStrokingColor(0f, 0f, 0f);
+                content.addRect(0, 0, 306, 792);
+                content.fill();
+                content.beginText();
+                content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 24);
+                content.newLineAtOffset(320, 700);
+                content.showText("Quarterly report");
+                content.endText();
+            }
+
+            PDPage rotated = new PDPage(PDRectangle.A4);
+            rotated.setRotation(90);
+            document.addPage(rotated);
+            document.save(path.toFile());
+        }
+        return path;
+    }
+
+    @Test
+    public void testPagesAreCounted() throws IOException {
+        assertEquals(2, PdfPreviewService.countPages(writeTextPdf()));
+
+        Path broken = tempDir.resolve("broken.pdf");
+        Files.writeString(broken, "not a pdf");
+        assertEquals(0, PdfPreviewService.countPages(broken));
+    }
+
+    @Test
+    public void testTextPagesAreRenderedAtTheRequestedWidth() throws IOException {
+        BufferedImage page = PdfPreviewService.render(writeTextPdf(), 1, 612);
+        assertEquals(612, page.getWidth());
+        assertEquals(792, page.getHeight());
+
+        // The filled left half is dark, the right margin is still paper white
+        assertEquals(0x000000, page.getRGB(100, 400) & 0xffffff);
+        assertEquals(0xffffff, page.getRGB(600, 10) & 0xffffff);
+    }
+
+    @Test
+    public void testRotatedPagesComeOutUpright() throws IOException {
+        BufferedImage page = PdfPreviewService.render(writeTextPdf(), 2, 842);
+        assertTrue(page.getWidth() > page.getHeight());
+        assertEquals(842, page.getWidth(), 1);
+    }
+
+    @Test
+    public void testHugePagesAreRenderedSmaller() {
+        // A 1 x 200 inch strip asked for 1080 pixels wide would be 1080 x 216000
+        PDPage strip = new PDPage(new PDRectangle(72, 72 * 200));
+        float dpi = PdfPreviewService.dpiFor(strip, 1080);
+        double pixels = dpi * (dpi * 200.0);
+        assertTrue(pixels <= 20_000_000 * 1.001);
+        assertEquals(72 * 2f, PdfPreviewService.dpiFor(new PDPage(new PDRectangle(300, 400)), 600), 0.001);
+    }
+}
@@ -0,0 +1,93 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeRequestServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSingleAndOpenEndedRanges() {
+        List<RangeRequestService.ByteRange> ranges = RangeRequestService.parseRanges("bytes=0-99", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(99, ranges.get(0).getEnd());
+        assertEquals("bytes 0-99/1000", ranges.get(0).toContentRange(1000));
+
+        ranges = RangeRequestService.parseRanges("bytes=500-", 1000);
+        assertEquals(500, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+
+        // End past the file is clamped
+        ranges = RangeRequestService.parseRanges("bytes=900-5000", 1000);
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void testSuffixRanges() {
+        List<RangeRequestService.ByteRange> ranges = RangeRequestService.parseRanges("bytes=-100", 1000);
+        assertEquals(900, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+
+        ranges = RangeRequestService.parseRanges("bytes=-5000", 1000);
+        assertEquals(0, ranges.get(0).getStart());
+    }
+
+    @Test
+    public void testMultipleRangesAreMerged() {
+        List<RangeRequestService.ByteRange> ranges = RangeRequestService.parseRanges("bytes=500-599, 0-99, 100-199, 550-700", 1000);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(199, ranges.get(0).getEnd());
+        assertEquals(500, ranges.get(1).getStart());
+        assertEquals(700, ranges.get(1).getEnd());
+    }
+
+    @Test
+    public void testUnsatisfiableAndMalformedRanges() {
+        // Nothing satisfiable: empty list, answered with 416
+        assertTrue(RangeRequestService.parseRanges("bytes=1000-1100", 1000).isEmpty());
+        assertTrue(RangeRequestService.parseRanges("bytes=-0", 1000).isEmpty());
+
+        // Malformed: null, answered with the full content
+        assertNull(RangeRequestService.parseRanges("bytes=abc-def", 1000));
+        assertNull(RangeRequestService.parseRanges("bytes=200-100", 1000));
+        assertNull(RangeRequestService.parseRanges("items=0-10", 1000));
+    }
+
+    @Test
+    public void testMatchingValidatorsGetNotModified() throws IOException {
+        Path path = tempDir.resolve("photo.jpg");
+        Files.write(path, new byte[100]);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        RangeRequestService service = new RangeRequestService();
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/files/preview/1");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(request, response, path, MediaType.IMAGE_JPEG, "\"abc\"");
+        assertEquals(304, response.getStatus());
+        assertEquals("\"abc\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        request = new MockHttpServletRequest("GET", "/files/preview/1");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        response = new MockHttpServletResponse();
+        service.serve(request, response, path, MediaType.IMAGE_JPEG);
+        assertEquals(304, response.getStatus());
+        assertEquals(RangeRequestService.buildEtag(100, lastModified), response.getHeader(HttpHeaders.ETAG));
+    }
+}
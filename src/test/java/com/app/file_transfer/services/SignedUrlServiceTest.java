@@ -0,0 +1,52 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignedUrlServiceTest {
+
+    private static final byte[] KEY = "test-secret".getBytes(StandardCharsets.UTF_8);
+
+    private static SignedUrlService.Grant grant(long expiresAt) {
+        return new SignedUrlService.Grant(42, "alice", expiresAt, "blob:abc123", "Hội nghị.mp4", true, false);
+    }
+
+    @Test
+    public void testTokenRoundTrip() {
+        String token = SignedUrlService.encode(grant(2000), KEY);
+        // Safe to put in a URL path as is
+        assertTrue(token.matches("[A-Za-z0-9_\\-.]+"));
+
+        SignedUrlService.Grant decoded = SignedUrlService.decode(token, KEY, 1000);
+        assertEquals(42, decoded.getFileId());
+        assertEquals("alice", decoded.getUsername());
+        assertEquals(2000, decoded.getExpiresAt());
+        assertEquals("blob:abc123", decoded.getContentKey());
+        assertEquals("Hội nghị.mp4", decoded.getFileName());
+        assertTrue(decoded.isFaststart());
+        assertFalse(decoded.isAttachment());
+    }
+
+    @Test
+    public void testAlteredOrForeignTokensAreRejected() {
+        String token = SignedUrlService.encode(grant(2000), KEY);
+        String other = SignedUrlService.encode(new SignedUrlService.Grant(43, "alice", 2000, "blob:def456", "x.mp4", false, false), KEY);
+
+        // Another token's payload with this token's signature
+        String swapped = other.substring(0, other.indexOf('.')) + token.substring(token.indexOf('.'));
+        assertThrows(SecurityException.class, () -> SignedUrlService.decode(swapped, KEY, 1000));
+        assertThrows(SecurityException.class, () -> SignedUrlService.decode(token, "other-secret".getBytes(StandardCharsets.UTF_8), 1000));
+        assertThrows(SecurityException.class, () -> SignedUrlService.decode("not-a-token", KEY, 1000));
+        assertThrows(SecurityException.class, () -> SignedUrlService.decode("!!!.???", KEY, 1000));
+    }
+
+    @Test
+    public void testExpiredTokensAreRejected() {
+        String token = SignedUrlService.encode(grant(2000), KEY);
+        assertNotNull(SignedUrlService.decode(token, KEY, 2000));
+        assertThrows(SecurityException.class, () -> SignedUrlService.decode(token, KEY, 2001));
+    }
+}
@@ -0,0 +1,40 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageMigrationServiceTest {
+
+    @Test
+    public void testOnlyMisplacedRowsAreUpdated() {
+        List<Object[]> locations = List.of(
+                new Object[]{1L, "a.txt", "ab/a.txt", null},
+                new Object[]{2L, "b.txt", "b.txt", null},
+                new Object[]{3L, "c.txt", "c.txt", "cafe"});
+        List<String> updates = new ArrayList<>();
+
+        int count = StorageMigrationService.updateBatch(locations,
+                (fileName, sha256) -> sha256 != null ? "blobs/" + sha256 : "ab/" + fileName,
+                (id, path) -> {
+                    updates.add(id + ":" + path);
+                    return 1;
+                });
+
+        assertEquals(2, count);
+        assertEquals(List.of("2:ab/b.txt", "3:blobs/cafe"), updates);
+    }
+
+    @Test
+    public void testRowsChangedConcurrentlyAreNotCounted() {
+        List<Object[]> locations = List.<Object[]>of(new Object[]{1L, "a.txt", "a.txt", null});
+
+        int count = StorageMigrationService.updateBatch(locations, (fileName, sha256) -> "ab/" + fileName,
+                (id, path) -> 0);
+
+        assertEquals(0, count);
+    }
+}
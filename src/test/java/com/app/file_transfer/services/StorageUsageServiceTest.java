@@ -0,0 +1,169 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.StorageUsage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageUsageServiceTest {
+
+    private static final long LIMIT = 1000;
+
+    @Test
+    public void testReservationsStopAtTheLimit() {
+        ConcurrentHashMap<String, Long> reserved = new ConcurrentHashMap<>();
+        AtomicLong used = new AtomicLong(700);
+
+        assertNotNull(StorageUsageService.reserve(reserved, used::get, LIMIT, "alice", 200));
+        assertNull(StorageUsageService.reserve(reserved, used::get, LIMIT, "alice", 200));
+        assertNotNull(StorageUsageService.reserve(reserved, used::get, LIMIT, "alice", 100));
+        assertEquals(300, reserved.get("alice"));
+    }
+
+    @Test
+    public void testClaimIsTakenBackWhenUsageGrewMeanwhile() {
+        ConcurrentHashMap<String, Long> reserved = new ConcurrentHashMap<>();
+        AtomicLong used = new AtomicLong(500);
+        int[] reads = {0};
+
+        // Another upload is recorded and drops its reservation between the first read and the claim
+        StorageUsageService.Reservation reservation = StorageUsageService.reserve(reserved, () -> {
+            long value = used.get();
+            if (reads[0]++ == 0) {
+                used.addAndGet(400);
+            }
+            return value;
+        }, LIMIT, "alice", 300);
+
+        assertNull(reservation);
+        assertTrue(reserved.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUploadsNeverOvershoot() throws InterruptedException {
+        ConcurrentHashMap<String, Long> reserved = new ConcurrentHashMap<>();
+        AtomicLong used = new AtomicLong(100);
+        // Granted and not yet recorded; may lag behind, but never runs ahead
+        AtomicLong outstanding = new AtomicLong();
+        ConcurrentLinkedQueue<StorageUsageService.Reservation> granted = new ConcurrentLinkedQueue<>();
+        AtomicBoolean overshot = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> uploaders = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                awaitQuietly(start);
+                for (int j = 0; j < 2000; j++) {
+                    StorageUsageService.Reservation reservation =
+                            StorageUsageService.reserve(reserved, used::get, LIMIT, "alice", 30);
+                    if (reservation != null) {
+                        outstanding.addAndGet(reservation.getBytes());
+                        granted.add(reservation);
+                    }
+                }
+            });
+            uploaders.add(thread);
+            thread.start();
+        }
+
+        // Records finished uploads the way commit() does: usage first, then the reservation is dropped
+        Thread committer = new Thread(() -> {
+            awaitQuietly(start);
+            while (!done.get() || !granted.isEmpty()) {
+                StorageUsageService.Reservation reservation = granted.poll();
+                if (reservation == null) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                used.addAndGet(reservation.getBytes());
+                outstanding.addAndGet(-reservation.getBytes());
+                StorageUsageService.release(reserved, "alice", reservation.getBytes());
+                if (used.get() + outstanding.get() > LIMIT) {
+                    overshot.set(true);
+                }
+                // Deleted again later, so there is room for more uploads
+                used.addAndGet(-reservation.getBytes());
+            }
+        });
+        committer.start();
+        start.countDown();
+
+        for (Thread thread : uploaders) {
+            thread.join();
+        }
+        done.set(true);
+        committer.join();
+
+        assertFalse(overshot.get());
+        assertTrue(reserved.isEmpty());
+        assertEquals(100, used.get());
+    }
+
+    @Test
+    public void testEntryIsDroppedOnceNothingIsReserved() {
+        ConcurrentHashMap<String, Long> reserved = new ConcurrentHashMap<>();
+        AtomicLong used = new AtomicLong();
+
+        StorageUsageService.Reservation first = StorageUsageService.reserve(reserved, used::get, LIMIT, "alice", 100);
+        StorageUsageService.Reservation second = StorageUsageService.reserve(reserved, used::get, LIMIT, "alice", 50);
+        StorageUsageService.release(reserved, "alice", first.getBytes());
+        assertEquals(50, reserved.get("alice"));
+
+        StorageUsageService.release(reserved, "alice", second.getBytes());
+        assertFalse(reserved.containsKey("alice"));
+    }
+
+    @Test
+    public void testDeltasGoToTheFileCategory() {
+        assertArrayEquals(new long[]{10, 0, 0, 0, 0}, StorageUsageService.categoryDelta("application/pdf", 10));
+        assertArrayEquals(new long[]{0, -5, 0, 0, 0}, StorageUsageService.categoryDelta("image/png", -5));
+        assertArrayEquals(new long[]{0, 0, 7, 0, 0}, StorageUsageService.categoryDelta("VIDEO/MP4", 7));
+        assertArrayEquals(new long[]{0, 0, 0, 3, 0}, StorageUsageService.categoryDelta("audio/mpeg", 3));
+        assertArrayEquals(new long[]{0, 0, 0, 0, 1}, StorageUsageService.categoryDelta(null, 1));
+    }
+
+    @Test
+    public void testRebuildSumsRowsPerCategory() {
+        List<Object[]> rows = List.of(
+                new Object[]{"text/plain", 100L, 2L},
+                new Object[]{"application/msword", 50L, 1L},
+                new Object[]{"image/jpeg", 300L, 3L},
+                new Object[]{"application/zip", null, 1L});
+
+        StorageUsage usage = StorageUsageService.tally(rows);
+        assertEquals(450, usage.getTotalBytes());
+        assertEquals(150, usage.getDocumentBytes());
+        assertEquals(300, usage.getImageBytes());
+        assertEquals(0, usage.getOtherBytes());
+        assertEquals(7, usage.getFileCount());
+    }
+
+    @Test
+    public void testFileTypesMapToCategories() {
+        assertEquals(StorageUsageService.DOCUMENTS, StorageUsageService.categoryOf("application/msword"));
+        assertEquals(StorageUsageService.DOCUMENTS,
+                StorageUsageService.categoryOf("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"));
+        assertEquals(StorageUsageService.DOCUMENTS, StorageUsageService.categoryOf("text/csv"));
+        assertEquals(StorageUsageService.IMAGES, StorageUsageService.categoryOf("image/webp"));
+        assertEquals(StorageUsageService.AUDIO, StorageUsageService.categoryOf("audio/ogg"));
+        assertEquals(StorageUsageService.OTHERS, StorageUsageService.categoryOf("application/octet-stream"));
+        assertEquals(StorageUsageService.OTHERS, StorageUsageService.categoryOf(null));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
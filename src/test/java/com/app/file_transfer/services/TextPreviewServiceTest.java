@@ -0,0 +1,119 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TextPreviewServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeLog(int lineCount) throws IOException {
+        Path path = tempDir.resolve("app.log");
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lineCount; i++) {
+                out.write("line " + i + (i % 1000 == 999 ? " ERROR failed" : " ok") + "\r\n");
+            }
+        }
+        return path;
+    }
+
+    @Test
+    public void testIndexIsSparseAndSurvivesARoundTrip() throws IOException {
+        Path path = writeLog(5000);
+        TextPreviewService.LineIndex index = TextPreviewService.LineIndex.build(path);
+
+        assertEquals(5000, index.getLineCount());
+        assertEquals(Files.size(path), index.getSize());
+        // One entry for the start, then one every INDEX_EVERY_LINES lines
+        assertEquals(5, index.lines.length);
+        assertEquals(TextPreviewService.INDEX_EVERY_LINES, index.lines[1]);
+        assertEquals(3, index.entryFor(3500));
+
+        TextPreviewService.LineIndex copy = TextPreviewService.LineIndex.fromBytes(index.toBytes());
+        assertEquals(index.getLineCount(), copy.getLineCount());
+        assertArrayEquals(index.offsets, copy.offsets);
+    }
+
+    @Test
+    public void testWindowsStartAtTheRequestedLine() throws IOException {
+        Path path = writeLog(5000);
+        TextPreviewService.LineIndex index = TextPreviewService.LineIndex.build(path);
+
+        List<String> lines = TextPreviewService.readLines(path, index, 3000, 3);
+        assertEquals(List.of("line 3000 ok", "line 3001 ok", "line 3002 ok"), lines);
+        assertEquals(List.of("line 4999 ERROR failed"), TextPreviewService.readLines(path, index, 4999, 10));
+        assertTrue(TextPreviewService.readLines(path, index, 5000, 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> TextPreviewService.readLines(path, index, -1, 10));
+    }
+
+    @Test
+    public void testSearchIgnoresCaseAndTellsWhereToContinue() throws IOException {
+        Path path = writeLog(5000);
+        TextPreviewService.LineIndex index = TextPreviewService.LineIndex.build(path);
+
+        TextPreviewService.SearchResult all = TextPreviewService.search(path, index, "error", 0, -1, Long.MAX_VALUE);
+        assertEquals(5, all.getMatches().size());
+        assertEquals(999, all.getMatches().get(0).getLine());
+        assertEquals(-1, all.getNextLine());
+
+        // A small window stops early, and the next search carries on from there
+        TextPreviewService.SearchResult first = TextPreviewService.search(path, index, "ERROR", 0, -1, 30_000);
+        assertTrue(first.getMatches().size() < 5);
+        TextPreviewService.SearchResult rest = TextPreviewService.search(path, index, "ERROR", first.getNextLine(), first.getNextOffset(), Long.MAX_VALUE);
+        assertEquals(5, first.getMatches().size() + rest.getMatches().size());
+    }
+
+    @Test
+    public void testLastLineWithoutNewlineAndLongLines() throws IOException {
+        Path path = tempDir.resolve("data.csv");
+        Files.writeString(path, "a,b\n" + "x".repeat(TextPreviewService.MAX_LINE_BYTES + 10) + "\nlast");
+        TextPreviewService.LineIndex index = TextPreviewService.LineIndex.build(path);
+
+        assertEquals(3, index.getLineCount());
+        List<String> lines = TextPreviewService.readLines(path, index, 0, 10);
+        assertEquals("a,b", lines.get(0));
+        assertEquals(TextPreviewService.MAX_LINE_BYTES + 1, lines.get(1).length());
+        assertTrue(lines.get(1).endsWith("…"));
+        assertEquals("last", lines.get(2));
+    }
+
+    @Test
+    public void testSearchInOneLongLineStaysWithinTheWindow() throws IOException {
+        // A minified dump: one line, with the text right across the first window's end
+        StringBuilder json = new StringBuilder("x".repeat(995)).append("needle").append("y".repeat(3000));
+        json.append("needle").append("\nafter needle\n");
+        Path path = tempDir.resolve("dump.json");
+        Files.writeString(path, json);
+        TextPreviewService.LineIndex index = TextPreviewService.LineIndex.build(path);
+
+        TextPreviewService.SearchResult first = TextPreviewService.search(path, index, "NEEDLE", 0, -1, 1000);
+        assertTrue(first.getMatches().isEmpty());
+        assertEquals(0, first.getNextLine());
+        assertTrue(first.getNextOffset() > 0 && first.getNextOffset() <= 1000);
+
+        // Carried on inside the line, a window at a time, until the next line is reached
+        List<TextPreviewService.Match> found = new ArrayList<>();
+        TextPreviewService.SearchResult result = first;
+        int calls = 0;
+        while (result.getNextLine() >= 0) {
+            result = TextPreviewService.search(path, index, "needle", result.getNextLine(), result.getNextOffset(), 1000);
+            found.addAll(result.getMatches());
+            assertTrue(++calls < 10);
+        }
+        assertTrue(found.get(0).getText().startsWith("needle"));
+        assertEquals(0, found.get(0).getLine());
+        assertEquals(1, found.get(found.size() - 1).getLine());
+        assertEquals(3, found.size());
+    }
+}
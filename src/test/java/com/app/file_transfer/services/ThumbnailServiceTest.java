@@ -0,0 +1,40 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThumbnailServiceTest {
+
+    @Test
+    public void testSizesAreRoundedUpToFixedSizes() {
+        assertEquals(ThumbnailService.DEFAULT_SIZE, ThumbnailService.normalizeSize(null));
+        assertEquals(160, ThumbnailService.normalizeSize(1));
+        assertEquals(320, ThumbnailService.normalizeSize(161));
+        assertEquals(640, ThumbnailService.normalizeSize(640));
+        assertEquals(640, ThumbnailService.normalizeSize(5000));
+    }
+
+    @Test
+    public void testSubsamplingKeepsTwiceTheTarget() {
+        assertEquals(1, ThumbnailService.subsamplingFor(800, 600, 640, 640));
+        assertEquals(4, ThumbnailService.subsamplingFor(6000, 4000, 640, 640));
+        assertEquals(4, ThumbnailService.subsamplingFor(4000, 6000, 640, 640));
+
+        // Fitting a width only: the height never limits the step
+        assertEquals(2, ThumbnailService.subsamplingFor(4000, 6000, 1000, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testResizeKeepsAspectRatioAndNeverEnlarges() {
+        BufferedImage wide = ThumbnailService.resize(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_ARGB), 160);
+        assertEquals(160, wide.getWidth());
+        assertEquals(80, wide.getHeight());
+
+        BufferedImage small = ThumbnailService.resize(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), 640);
+        assertEquals(100, small.getWidth());
+        assertEquals(50, small.getHeight());
+    }
+}
@@ -0,0 +1,103 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCacheServiceTest {
+
+    @Test
+    public void testRepeatedLookupsAreServedFromTheCache() {
+        CountingCache cache = new CountingCache();
+        User first = cache.getUser("alice");
+
+        assertSame(first, cache.getUser("alice"));
+        assertEquals(List.of("alice"), cache.loads);
+        assertNull(cache.getUser(null));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTheirTtl() {
+        CountingCache cache = new CountingCache();
+        cache.getUser("alice");
+
+        cache.clock += 29_999;
+        cache.getUser("alice");
+        assertEquals(1, cache.loads.size());
+
+        cache.clock += 1;
+        cache.getUser("alice");
+        assertEquals(2, cache.loads.size());
+    }
+
+    @Test
+    public void testEvictedUsersAreReadAgain() {
+        CountingCache cache = new CountingCache();
+        cache.getUser("alice");
+        cache.evict("alice");
+
+        cache.getUser("alice");
+        assertEquals(2, cache.loads.size());
+    }
+
+    @Test
+    public void testLookupRacingWithEvictionIsNotCached() {
+        CountingCache cache = new CountingCache() {
+            @Override
+            User load(String username) {
+                User user = super.load(username);
+                if (loads.size() == 1) {
+                    // The profile changes while the first read is in flight
+                    evict(username);
+                }
+                return user;
+            }
+        };
+
+        User stale = cache.getUser("alice");
+        User fresh = cache.getUser("alice");
+
+        assertNotSame(stale, fresh);
+        assertEquals(2, cache.loads.size());
+        assertSame(fresh, cache.getUser("alice"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedUserIsDroppedWhenFull() {
+        CountingCache cache = new CountingCache();
+        for (int i = 0; i < 1_000; i++) {
+            cache.getUser("user" + i);
+        }
+        // Touch the oldest entry so the next one in line is evicted instead
+        cache.getUser("user0");
+        cache.getUser("user1000");
+        cache.loads.clear();
+
+        cache.getUser("user0");
+        assertTrue(cache.loads.isEmpty());
+        cache.getUser("user1");
+        assertEquals(List.of("user1"), cache.loads);
+    }
+
+    private static class CountingCache extends UserCacheService {
+        final List<String> loads = new ArrayList<>();
+        long clock = 1_000_000;
+
+        @Override
+        User load(String username) {
+            loads.add(username);
+            User user = new User();
+            user.setUsername(username);
+            return user;
+        }
+
+        @Override
+        long now() {
+            return clock;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.app.file_transfer.services;
+
+import com.app.file_transfer.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserSearchServiceTest {
+
+    private static User user(long id, String username, String email) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEmail(email);
+        return user;
+    }
+
+    private static List<String> usernames(List<UserSearchService.UserEntry> entries) {
+        return entries.stream().map(UserSearchService.UserEntry::getUsername).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPrefixSearchOverUsernamesAndEmails() {
+        UserSearchService search = new UserSearchService();
+        search.index(user(1, "alice", "alice@example.com"));
+        search.index(user(2, "Alfred", "fred@example.com"));
+        search.index(user(3, "bob", "al.bob@example.com"));
+
+        assertEquals(List.of("bob", "Alfred", "alice"), usernames(search.search("al", null, 10)));
+        assertEquals(List.of("Alfred"), usernames(search.search("FRED", null, 10)));
+        assertTrue(search.search("carol", null, 10).isEmpty());
+        assertTrue(search.search("  ", null, 10).isEmpty());
+
+        // A user matching by both username and email is returned once
+        assertEquals(List.of("alice"), usernames(search.search("alice", null, 10)));
+    }
+
+    @Test
+    public void testExclusionAndLimit() {
+        UserSearchService search = new UserSearchService();
+        for (int i = 0; i < 30; i++) {
+            search.index(user(i, "user" + i, null));
+        }
+
+        assertEquals(3, search.search("user", null, 3).size());
+        assertEquals(UserSearchService.MAX_RESULTS, search.search("user", null, 1000).size());
+        assertFalse(usernames(search.search("user1", "user1", 10)).contains("user1"));
+    }
+
+    @Test
+    public void testReindexReplacesOldTerms() {
+        UserSearchService search = new UserSearchService();
+        search.index(user(1, "alice", "old@example.com"));
+        search.index(user(1, "alice", "new@example.com"));
+
+        assertTrue(search.search("old", null, 10).isEmpty());
+        assertEquals(List.of("alice"), usernames(search.search("new", null, 10)));
+    }
+}
@@ -0,0 +1,138 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VideoIndexServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final int[] SAMPLE_SIZES = {10, 20, 30, 40, 50, 60};
+
+    private static byte[] box(String type, byte[]... children) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            content.write(child);
+        }
+        return ByteBuffer.allocate(8 + content.size()).putInt(8 + content.size())
+                .put(type.getBytes(StandardCharsets.ISO_8859_1)).put(content.toByteArray()).array();
+    }
+
+    // A box with version and flags 0 followed by 32-bit fields
+    private static byte[] fullBox(String type, int... fields) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(4 + fields.length * 4).putInt(0);
+        for (int field : fields) {
+            content.putInt(field);
+        }
+        return box(type, content.array());
+    }
+
+    private static int fourcc(String type) {
+        return ByteBuffer.wrap(type.getBytes(StandardCharsets.ISO_8859_1)).getInt();
+    }
+
+    // ftyp, mdat, then moov: six video samples of 0.5 s in three chunks, keyframes at samples 1 and 4
+    private Path writeVideo() throws IOException {
+        byte[] ftyp = box("ftyp", ByteBuffer.allocate(8).putInt(fourcc("isom")).putInt(0).array());
+        ByteArrayOutputStream samples = new ByteArrayOutputStream();
+        for (int i = 0; i < SAMPLE_SIZES.length; i++) {
+            for (int b = 0; b < SAMPLE_SIZES[i]; b++) {
+                samples.write(i + 1);
+            }
+        }
+        byte[] mdat = box("mdat", samples.toByteArray());
+        int data = ftyp.length + 8;
+
+        byte[] stbl = box("stbl",
+                fullBox("stts", 1, 6, 500),
+                fullBox("stss", 2, 1, 4),
+                fullBox("stsc", 1, 1, 2, 1),
+                fullBox("stsz", 0, 6, 10, 20, 30, 40, 50, 60),
+                fullBox("stco", 3, data, data + 30, data + 100));
+        byte[] moov = box("moov",
+                fullBox("mvhd", 0, 0, 1000, 3000),
+                box("trak", box("mdia",
+                        fullBox("mdhd", 0, 0, 1000, 3000),
+                        fullBox("hdlr", 0, fourcc("vide"), 0, 0, 0),
+                        box("minf", stbl))));
+
+        Path path = tempDir.resolve("clip.mp4");
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(ftyp));
+            out.write(ByteBuffer.wrap(mdat));
+            out.write(ByteBuffer.wrap(moov));
+        }
+        return path;
+    }
+
+    @Test
+    public void testKeyframesAreFoundInTheSampleTables() throws IOException {
+        try (FileChannel in = FileChannel.open(writeVideo(), StandardOpenOption.READ)) {
+            List<Mp4File.Box> boxes = Mp4File.readBoxes(in);
+            assertEquals(List.of("ftyp", "mdat", "moov"), boxes.stream().map(box -> box.type).toList());
+            assertTrue(Mp4File.needsFaststart(boxes));
+
+            VideoIndexService.KeyframeIndex index = Mp4File.keyframes(Mp4File.readBox(in, Mp4File.find(boxes, "moov")));
+            assertEquals(3000, index.getDurationMs());
+            assertArrayEquals(new long[]{0, 1500}, index.getTimes());
+            // Sample 4 is the second of the second chunk, after a 30-byte sample
+            assertArrayEquals(new long[]{24, 24 + 30 + 30}, index.getOffsets());
+        }
+    }
+
+    @Test
+    public void testFaststartMovesTheMovieBoxAndItsOffsets() throws IOException {
+        Path source = writeVideo();
+        Path target = tempDir.resolve("faststart.mp4");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            List<Mp4File.Box> boxes = Mp4File.readBoxes(in);
+            Mp4File.Box moovBox = Mp4File.find(boxes, "moov");
+            ByteBuffer moov = Mp4File.readBox(in, moovBox);
+            Mp4File.shiftChunkOffsets(moov, moovBox.size);
+            Mp4File.writeFaststart(in, boxes, moov, out);
+        }
+
+        assertEquals(Files.size(source), Files.size(target));
+        byte[] bytes = Files.readAllBytes(target);
+        try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ)) {
+            List<Mp4File.Box> boxes = Mp4File.readBoxes(in);
+            assertEquals(List.of("ftyp", "moov", "mdat"), boxes.stream().map(box -> box.type).toList());
+            assertFalse(Mp4File.needsFaststart(boxes));
+
+            // The keyframe offsets now point at the same samples in the new layout
+            VideoIndexService.KeyframeIndex index = Mp4File.keyframes(Mp4File.readBox(in, Mp4File.find(boxes, "moov")));
+            assertEquals(1, bytes[(int) index.getOffsets()[0]]);
+            assertEquals(4, bytes[(int) index.getOffsets()[1]]);
+        }
+    }
+
+    @Test
+    public void testIndexSurvivesARoundTrip() throws IOException {
+        VideoIndexService.KeyframeIndex index = new VideoIndexService.KeyframeIndex(9000, new long[]{0, 2000}, new long[]{48, 90000});
+        VideoIndexService.KeyframeIndex copy = VideoIndexService.KeyframeIndex.fromBytes(index.toBytes());
+        assertEquals(9000, copy.getDurationMs());
+        assertArrayEquals(index.getTimes(), copy.getTimes());
+        assertArrayEquals(index.getOffsets(), copy.getOffsets());
+    }
+
+    @Test
+    public void testOnlyVideosUpToTheLimitGetACopy() {
+        assertTrue(VideoIndexService.isCopyAllowed(512L * 1024 * 1024, 512));
+        assertFalse(VideoIndexService.isCopyAllowed(512L * 1024 * 1024 + 1, 512));
+        assertFalse(VideoIndexService.isCopyAllowed(1, 0));
+    }
+}
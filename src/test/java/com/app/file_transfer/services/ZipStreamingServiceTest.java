@@ -0,0 +1,62 @@
+package com.app.file_transfer.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipStreamingServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testWriteZipStreamsAllEntries() throws Exception {
+        Path text = Files.writeString(tempDir.resolve("notes.txt"), "hello zip");
+        Path image = Files.write(tempDir.resolve("photo.jpg"), new byte[200_000]);
+
+        ZipStreamingService service = new ZipStreamingService();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeZip(List.of(
+                new ZipStreamingService.ZipSource("notes.txt", text),
+                new ZipStreamingService.ZipSource("photo.jpg", image),
+                new ZipStreamingService.ZipSource("notes.txt", text)
+        ), out);
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                names.add(entry.getName());
+                byte[] content = zipIn.readAllBytes();
+                if (entry.getName().endsWith(".txt")) {
+                    assertEquals("hello zip", new String(content, StandardCharsets.UTF_8));
+                } else {
+                    assertEquals(200_000, content.length);
+                }
+            }
+        }
+
+        // Duplicate names get a suffix instead of breaking the archive
+        assertEquals(List.of("notes.txt", "photo.jpg", "notes(1).txt"), names);
+    }
+
+    @Test
+    public void testCompressedFormats() {
+        ZipStreamingService service = new ZipStreamingService();
+        assertTrue(service.isCompressedFormat("movie.MP4"));
+        assertTrue(service.isCompressedFormat("report.docx"));
+        assertFalse(service.isCompressedFormat("notes.txt"));
+        assertFalse(service.isCompressedFormat("README"));
+    }
+}